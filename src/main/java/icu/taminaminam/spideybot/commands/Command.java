@@ -1,9 +1,11 @@
 package icu.taminaminam.spideybot.commands;
 
+import icu.taminaminam.spideybot.data.DevRoster;
 import icu.taminaminam.spideybot.data.DiscordCache;
 import icu.taminaminam.spideybot.utils.exceptions.*;
 import icu.taminaminam.spideybot.utils.BotUtils;
 import icu.taminaminam.spideybot.utils.Permission;
+import icu.taminaminam.spideybot.utils.journal.CommandJournal;
 import icu.taminaminam.spideybot.utils.exceptions.*;
 import icu.taminaminam.spideybot.utils.exceptions.*;
 import icu.taminaminam.spideybot.utils.ratelimits.NoRatelimit;
@@ -142,7 +144,8 @@ public class Command {
 	}
 	
 	/**
-	 * Executes this command. If an error occurs it will automatically get caught and processed.
+	 * Executes this command. If an error occurs it will automatically get caught and processed. The execution gets
+	 * recorded in the {@link CommandJournal}.
 	 *
 	 * @param context  The {@link Context} of the event that cause the call of this command
 	 * @param language The language that should be used in responses
@@ -151,7 +154,19 @@ public class Command {
 	 * @return An empty {@link Mono}.
 	 */
 	@NonNull public Mono<Void> execute(@NonNull Context context, @NonNull String language, @NonNull String prefix, @NonNull ArgumentList args){
-		return execute(context, language, prefix, args, true);
+		CommandJournal journal = CommandJournal.getInstance();
+		if(journal == null) return execute(context, language, prefix, args, true);
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			long guildId = context.getGuildId().map(Snowflake::asLong).orElse(0L);
+			long channelId = context.getChannelId().asLong();
+			long userId = context.getAuthor().getId().asLong();
+			Mono<Void> executionMono = execute(context, language, prefix, args, false)
+					.doOnSuccess(nothing -> journal.append(guildId, channelId, userId, getName(), CommandJournal.Outcome.SUCCESS, System.nanoTime() - start))
+					.doOnError(err -> journal.append(guildId, channelId, userId, getName(), CommandJournal.Outcome.of(err), System.nanoTime() - start))
+					.doOnCancel(() -> journal.append(guildId, channelId, userId, getName(), CommandJournal.Outcome.CANCELLED, System.nanoTime() - start));
+			return handleExceptions(executionMono, context, language, getName());
+		});
 	}
 	
 	/**
@@ -168,7 +183,8 @@ public class Command {
 	@NonNull private Mono<Void> execute(@NonNull Context context, @NonNull String language, @NonNull String prefix, @NonNull ArgumentList args, boolean handleExceptions){
 		Snowflake authorId = context.getAuthor().getId();
 		Mono<?> executionMono;
-		Optional<PermissionSet> missingPermissions = context.getGuildId().flatMap(DiscordCache::getGuild)
+		// commands that need no permissions do not need to look up the bot's either
+		Optional<PermissionSet> missingPermissions = getPermissionsNeededByBot().isEmpty() ? Optional.of(PermissionSet.none()) : context.getGuildId().flatMap(DiscordCache::getGuild)
 				.flatMap(guild -> guild.getMember(context.getClient().getSelfId())
 						.map(member -> member.getEffectivePermissions(context.getChannelId()))
 						.map(effectivePermissions -> getPermissionsNeededByBot().andNot(effectivePermissions))
@@ -180,7 +196,7 @@ public class Command {
 					getPermissionsNeededByBot().stream().map(perm -> "`" + perm.name() + "``").collect(Collectors.joining(", ")),
 					missingPermissions.map(permissions -> permissions.stream().map(perm -> "`" + perm.name() + "`").collect(Collectors.joining(", "))).orElse("There was a caching problem and I could not get my own permissions. Please report this to the bot owner.")
 			));
-		}else if(requiresBotOwner() && !BotUtils.botOwners.contains(authorId)){
+		}else if(requiresBotOwner() && !DevRoster.isOwner(authorId)){
 			executionMono = Mono.error(BotException.notExecutable("exception.requiresbotowner"));
 		}else if(context.isGuildMessage() && !isUsableInGuilds()){
 			executionMono = Mono.error(BotException.notExecutable("exception.notexecutableinguilds"));
@@ -376,7 +392,7 @@ public class Command {
 		}
 		
 		/**
-		 * @param requiresBotOwner Whether this command can only be executed by people stated in {@link BotUtils#botOwners}
+		 * @param requiresBotOwner Whether this command can only be executed by bot owners, see {@link DevRoster#isOwner(Snowflake)}
 		 * @return This {@link CommandBuilder} instance to allow chaining
 		 */
 		@NonNull
@@ -526,7 +542,7 @@ public class Command {
 		
 		/**
 		 * If this value is set to true only bot owners can execute the command.
-		 * Bot owners are stored in {@link BotUtils#botOwners}.
+		 * Bot owners are stored in the {@link DevRoster}.
 		 *
 		 * @param requiresBotOwner Whether only bot owners should be able to execuute the command
 		 * @return This {@link CommandCollectionBuilder} instance to allow chaining
@@ -135,15 +135,17 @@ public class Commands {
 									}else{
 										String newPrefix = args.getRemaining();
 										if(newPrefix.chars().anyMatch(Character::isWhitespace)) return Mono.error(BotException.invalidArgument("command.prefix.set.containsWhitespace"));
+										int maxLength = DataHandler.getMaxPrefixLength(context.isGuildMessage());
+										if(newPrefix.length() > maxLength) return Mono.error(BotException.invalidArgument("command.prefix.set.tooLong", maxLength));
 										Mono<Void> mono;
 										if(context.isGuildMessage()){
 											Snowflake guildId = context.getGuildId().orElseThrow();
-											mono = DataHandler.setGuildPrefix(guildId, newPrefix)
-													.then(Mono.fromRunnable(()->BotUtils.setGuildPrefix(guildId, newPrefix)));
+											mono = Mono.fromRunnable(()->BotUtils.setGuildPrefix(guildId, newPrefix))
+													.then(DataHandler.setGuildPrefix(guildId, newPrefix));
 										}else{
 											Snowflake userId = context.getAuthor().getId();
-											mono = DataHandler.setUserPrefix(userId, newPrefix)
-													.then(Mono.fromRunnable(()->BotUtils.setUserPrefix(userId, newPrefix)));
+											mono = Mono.fromRunnable(()->BotUtils.setUserPrefix(userId, newPrefix))
+													.then(DataHandler.setUserPrefix(userId, newPrefix));
 										}
 										return mono.then(context.respond(EmbedData.builder()
 												.title(getLanguageString(language, "command.prefix.set.title"))
@@ -194,12 +196,12 @@ public class Commands {
 										Mono<Void> mono;
 										if(context.isGuildMessage()){
 											Snowflake guildId = context.getGuildId().orElseThrow();
-											mono = DataHandler.setGuildLanguage(guildId, newLanguage)
-													.then(Mono.fromRunnable(()->BotUtils.setGuildLanguage(guildId, newLanguage)));
+											mono = Mono.fromRunnable(()->BotUtils.setGuildLanguage(guildId, newLanguage))
+													.then(DataHandler.setGuildLanguage(guildId, newLanguage));
 										}else{
 											Snowflake userId = context.getAuthor().getId();
-											mono = DataHandler.setUserLanguage(userId, newLanguage)
-													.then(Mono.fromRunnable(()->BotUtils.setUserLanguage(userId, newLanguage)));
+											mono = Mono.fromRunnable(()->BotUtils.setUserLanguage(userId, newLanguage))
+													.then(DataHandler.setUserLanguage(userId, newLanguage));
 										}
 										return mono.then(context.respond(EmbedData.builder()
 												.title(getLanguageString(newLanguage, "command.language.set.title"))
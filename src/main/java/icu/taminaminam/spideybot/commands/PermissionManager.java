@@ -1,8 +1,11 @@
 package icu.taminaminam.spideybot.commands;
 
 import icu.taminaminam.spideybot.utils.exceptions.BotException;
+import icu.taminaminam.spideybot.data.Columns;
 import icu.taminaminam.spideybot.data.DataHandler;
 import icu.taminaminam.spideybot.data.DiscordCache;
+import icu.taminaminam.spideybot.data.Rows;
+import icu.taminaminam.spideybot.main.Credentials;
 import discord4j.common.util.Snowflake;
 import discord4j.rest.util.Permission;
 import discord4j.rest.util.PermissionSet;
@@ -18,6 +21,45 @@ import java.util.stream.Collectors;
 
 public class PermissionManager {
 	
+	/**
+	 * How permissions are checked while the stored black- and whitelists cannot be read
+	 */
+	public enum DegradedPolicy {
+		/**
+		 * Check as if the guild had no black- or whitelists, so only the default permissions of the command apply
+		 */
+		DEFAULTS("defaults"),
+		/**
+		 * Allow every command
+		 */
+		ALLOW("allow"),
+		/**
+		 * Only allow administrators
+		 */
+		DENY("deny")
+		;
+		private final String name;
+		DegradedPolicy(@NonNull String name){
+			this.name = name;
+		}
+		@NonNull public String getName(){ return name; }
+		
+		/**
+		 * @param name The name of the policy, case insensitive
+		 * @return The {@link DegradedPolicy} with the provided name
+		 * @throws IllegalArgumentException if there is no policy with that name
+		 */
+		@NonNull
+		public static DegradedPolicy of(@NonNull String name){
+			for(DegradedPolicy policy : values()){
+				if(policy.name.equalsIgnoreCase(name)) return policy;
+			}
+			throw new IllegalArgumentException("Unknown degraded permission policy " + name);
+		}
+	}
+	
+	private static final DegradedPolicy degradedPolicy = DegradedPolicy.of(Credentials.DEGRADED_PERMISSION_POLICY);
+	
 	@NonNull
 	private static Mono<Void> checkExecutability(@NonNull Snowflake guildId, @NonNull Snowflake userId, @NonNull List<Snowflake> roleIds, @NonNull PermissionSet effectivePermissions, @Nullable icu.taminaminam.spideybot.utils.Permission requiredPermissions){
 		if(DiscordCache.getGuild(guildId).map(DiscordCache.MinimalGuild::getOwnerId).map(userId::equals).orElse(false)) return Mono.empty();
@@ -28,28 +70,42 @@ public class PermissionManager {
 						.flatMap(Flux::collectList)
 				)
 				.collectList()
-				.flatMap(lists -> {
-					boolean onUserBlacklist = lists.stream().filter(perms -> perms.size() > 0 && perms.get(0).isUser() && perms.get(0).isBlacklist()).findAny().map(perms -> perms.stream().anyMatch(perm -> perm.getTargetId().equals(userId))).orElse(false);
-					List<Snowflake> userWhitelist = lists.stream().filter(perms -> perms.size() > 0 && perms.get(0).isUser() && perms.get(0).isWhitelist()).findAny().orElseGet(Collections::emptyList).stream().map(CommandPermission::getTargetId).collect(Collectors.toList());
-					List<Snowflake> roleWhitelist = lists.stream().filter(perms -> perms.size() > 0 && perms.get(0).isRole() && perms.get(0).isWhitelist()).findAny().orElseGet(Collections::emptyList).stream().map(CommandPermission::getTargetId).collect(Collectors.toList());
-					List<Snowflake> roleBlacklist = lists.stream().filter(perms -> perms.size() > 0 && perms.get(0).isRole() && perms.get(0).isBlacklist()).findAny().orElseGet(Collections::emptyList).stream().map(CommandPermission::getTargetId).collect(Collectors.toList());
-					boolean hasPerms = effectivePermissions.contains(Permission.ADMINISTRATOR);
-					if(onUserBlacklist) return Mono.error(BotException.missingPermissions("exception.missingpermissions"));
-					boolean blacklisted = false;
-					if(!hasPerms && roleIds.stream().anyMatch(roleWhitelist::contains)) hasPerms = true;
-					if(hasPerms && roleIds.stream().anyMatch(roleBlacklist::contains)){
-						blacklisted = true;
-						hasPerms = false;
+				.flatMap(lists -> evaluate(userId, roleIds, effectivePermissions, requiredPermissions, lists))
+				.onErrorResume(DataHandler::isUnavailable, err -> {
+					if(degradedPolicy == DegradedPolicy.ALLOW) return Mono.empty();
+					else if(degradedPolicy == DegradedPolicy.DENY){
+						if(effectivePermissions.contains(Permission.ADMINISTRATOR)) return Mono.empty();
+						else return Mono.error(BotException.missingPermissions("exception.missingpermissions"));
 					}
-					if(!hasPerms && userWhitelist.stream().anyMatch(userId::equals)) hasPerms = true;
-					if(!hasPerms && !blacklisted && userWhitelist.isEmpty() && roleWhitelist.isEmpty()){
-						if(requiredPermissions.getDefaultPermissions().containsAll(effectivePermissions)) hasPerms = true;
-					}
-					if(hasPerms) return Mono.empty();
-					else return Mono.error(BotException.missingPermissions("exception.missingpermissions"));
+					else return evaluate(userId, roleIds, effectivePermissions, requiredPermissions, Collections.emptyList());
 				});
 	}
 	
+	/**
+	 * @param lists The black- and whitelisted users and roles of the permission, one list per kind of entry
+	 */
+	@NonNull
+	private static Mono<Void> evaluate(@NonNull Snowflake userId, @NonNull List<Snowflake> roleIds, @NonNull PermissionSet effectivePermissions, @NonNull icu.taminaminam.spideybot.utils.Permission requiredPermissions, @NonNull List<List<CommandPermission>> lists){
+		boolean onUserBlacklist = lists.stream().filter(perms -> perms.size() > 0 && perms.get(0).isUser() && perms.get(0).isBlacklist()).findAny().map(perms -> perms.stream().anyMatch(perm -> perm.getTargetId().equals(userId))).orElse(false);
+		List<Snowflake> userWhitelist = lists.stream().filter(perms -> perms.size() > 0 && perms.get(0).isUser() && perms.get(0).isWhitelist()).findAny().orElseGet(Collections::emptyList).stream().map(CommandPermission::getTargetId).collect(Collectors.toList());
+		List<Snowflake> roleWhitelist = lists.stream().filter(perms -> perms.size() > 0 && perms.get(0).isRole() && perms.get(0).isWhitelist()).findAny().orElseGet(Collections::emptyList).stream().map(CommandPermission::getTargetId).collect(Collectors.toList());
+		List<Snowflake> roleBlacklist = lists.stream().filter(perms -> perms.size() > 0 && perms.get(0).isRole() && perms.get(0).isBlacklist()).findAny().orElseGet(Collections::emptyList).stream().map(CommandPermission::getTargetId).collect(Collectors.toList());
+		boolean hasPerms = effectivePermissions.contains(Permission.ADMINISTRATOR);
+		if(onUserBlacklist) return Mono.error(BotException.missingPermissions("exception.missingpermissions"));
+		boolean blacklisted = false;
+		if(!hasPerms && roleIds.stream().anyMatch(roleWhitelist::contains)) hasPerms = true;
+		if(hasPerms && roleIds.stream().anyMatch(roleBlacklist::contains)){
+			blacklisted = true;
+			hasPerms = false;
+		}
+		if(!hasPerms && userWhitelist.stream().anyMatch(userId::equals)) hasPerms = true;
+		if(!hasPerms && !blacklisted && userWhitelist.isEmpty() && roleWhitelist.isEmpty()){
+			if(requiredPermissions.getDefaultPermissions().containsAll(effectivePermissions)) hasPerms = true;
+		}
+		if(hasPerms) return Mono.empty();
+		else return Mono.error(BotException.missingPermissions("exception.missingpermissions"));
+	}
+	
 	/**
 	 *
 	 * @param guildId
@@ -124,6 +180,7 @@ public class PermissionManager {
 				});
 	}
 	
+	@Columns({"targetId", "isWhitelist", "isUser"})
 	public static class CommandPermission {
 		private final Snowflake targetId;
 		private final boolean isWhitelist;
@@ -142,14 +199,25 @@ public class PermissionManager {
 		public boolean isRole(){ return !isUser; }
 		
 		/**
-		 * @param row The {@link Row} to get the data from
+		 * @param targetId    The ID of the user or role
+		 * @param isWhitelist Whether the permission allows instead of denies the command
+		 * @param isUser      Whether {@code targetId} is a user instead of a role
+		 * @return The {@link CommandPermission}
+		 */
+		@NonNull
+		public static CommandPermission of(@NonNull Snowflake targetId, boolean isWhitelist, boolean isUser){
+			return new CommandPermission(targetId, isWhitelist, isUser);
+		}
+		
+		/**
+		 * @param row The {@link Row} to get the data from, with the {@link Columns} of this class
 		 * @return The {@link CommandPermission} based on the {@link Row} entries
 		 */
 		public static CommandPermission ofRow(@NonNull Row row){
 			return new CommandPermission(
-					Snowflake.of(row.get("targetId", Long.class)),
-					row.get("isWhitelist", Boolean.class),
-					row.get("isUser", Boolean.class)
+					Snowflake.of(Rows.getLong(row, 0)),
+					Rows.getBoolean(row, 1),
+					Rows.getBoolean(row, 2)
 			);
 		}
 	}
@@ -10,7 +10,7 @@ import icu.taminaminam.spideybot.commands.Command;
 import icu.taminaminam.spideybot.commands.PermissionManager;
 import icu.taminaminam.spideybot.data.DBDev;
 import icu.taminaminam.spideybot.data.DBUser;
-import icu.taminaminam.spideybot.data.DataHandler;
+import icu.taminaminam.spideybot.data.DevRoster;
 import icu.taminaminam.spideybot.main.BotMain;
 import icu.taminaminam.spideybot.utils.BotUtils;
 import icu.taminaminam.spideybot.utils.exceptions.BotException;
@@ -65,12 +65,7 @@ public class AddDev extends Command {
         //TODO: add behaviour
 
         return (context, language, prefix, args) -> {
-            Flux<DBDev> devFlux = DataHandler.getAllDevs();
-
-            Mono<List<DBDev>> devListMono = devFlux.collectList();
-
-            List<DBDev> devList = new ArrayList<>();
-            devListMono.subscribe(devList::addAll);
+            List<DBDev> devList = new ArrayList<>(DevRoster.getDevs());
 
             devList.add(DBDev.defaultDev);
 
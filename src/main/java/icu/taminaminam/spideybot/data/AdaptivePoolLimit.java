@@ -0,0 +1,149 @@
+package icu.taminaminam.spideybot.data;
+
+import icu.taminaminam.spideybot.utils.metrics.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.util.annotation.NonNull;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Limits how many pooled connections can be in use at the same time.
+ * <p>
+ * The R2DBC pool cannot be resized once it got created, so it gets created with the maximum size and this limit
+ * decides how much of it is actually used. In adaptive mode {@link #adjust(int)} raises the limit while acquirers
+ * wait longer than the target wait time and lowers it again while connections sit idle. Connections above the limit
+ * stay idle and get closed by the pool after its max idle time.
+ */
+class AdaptivePoolLimit {
+
+	private static final Logger logger = LogManager.getLogger("AdaptivePoolLimit");
+
+	private final int minSize;
+	private final int maxSize;
+	private final Duration targetWait;
+	private final AtomicInteger limit;
+	private final AtomicInteger inUse = new AtomicInteger();
+	private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+	private final AtomicReference<LatencyHistogram> window = new AtomicReference<>(new LatencyHistogram());
+
+	/**
+	 * @param minSize    The lowest the limit can go
+	 * @param maxSize    The highest the limit can go, which should be the max size of the pool
+	 * @param initial    The limit to start with
+	 * @param targetWait The acquire wait time above which the limit gets raised
+	 */
+	AdaptivePoolLimit(int minSize, int maxSize, int initial, @NonNull Duration targetWait){
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.targetWait = targetWait;
+		this.limit = new AtomicInteger(Math.max(minSize, Math.min(maxSize, initial)));
+	}
+
+	int getLimit(){ return limit.get(); }
+	int getWaiting(){ return waiters.size(); }
+
+	/**
+	 * @return A {@link Mono} emitting a {@link Permit} as soon as the limit allows another connection to be used
+	 */
+	@NonNull
+	Mono<Permit> acquire(){
+		return Mono.create(sink -> {
+			if(tryReserve()){
+				sink.success(new Permit());
+				return;
+			}
+			Waiter waiter = new Waiter(sink);
+			waiters.add(waiter);
+			sink.onCancel(() -> {
+				// either nobody handed out a permit yet, or the permit might not have reached the subscriber
+				if(waiter.claimed.compareAndSet(false, true)) waiters.remove(waiter);
+				else if(waiter.permit != null) waiter.permit.release();
+			});
+			// a permit might have been released between tryReserve and adding the waiter
+			drain();
+		});
+	}
+
+	/**
+	 * @param nanos The time it took from requesting a permit until the connection was ready
+	 */
+	void record(long nanos){
+		window.get().record(nanos);
+	}
+
+	/**
+	 * Adjusts the limit based on the acquire wait times recorded since the last call.
+	 *
+	 * @param idleConnections The amount of connections currently idle in the pool
+	 */
+	void adjust(int idleConnections){
+		LatencyHistogram latencies = window.getAndSet(new LatencyHistogram());
+		int current = limit.get();
+		Duration wait = latencies.getPercentile(90);
+		if(latencies.getCount() > 0 && wait.compareTo(targetWait) > 0 && current < maxSize){
+			int next = Math.min(maxSize, current + Math.max(1, current / 4));
+			limit.set(next);
+			logger.info("Raised connection limit from {} to {}, p90 acquire wait {}ms", current, next, wait.toMillis());
+		}else if(idleConnections > 1 && wait.compareTo(targetWait.dividedBy(2)) < 0 && current > minSize){
+			limit.set(current - 1);
+			logger.debug("Lowered connection limit from {} to {}, {} connections idle", current, current - 1, idleConnections);
+		}
+		drain();
+	}
+
+	private boolean tryReserve(){
+		while(true){
+			int used = inUse.get();
+			if(used >= limit.get()) return false;
+			if(inUse.compareAndSet(used, used + 1)) return true;
+		}
+	}
+
+	private void drain(){
+		while(!waiters.isEmpty() && tryReserve()){
+			Waiter waiter = waiters.poll();
+			if(waiter == null){
+				inUse.decrementAndGet();
+				return;
+			}
+			// the permit has to be visible before claiming, a cancellation right after the claim releases it
+			waiter.permit = new Permit();
+			if(!waiter.claimed.compareAndSet(false, true)){
+				inUse.decrementAndGet();
+				continue;
+			}
+			waiter.sink.success(waiter.permit);
+		}
+	}
+
+	private static class Waiter {
+		private final MonoSink<Permit> sink;
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private volatile Permit permit = null;
+		private Waiter(@NonNull MonoSink<Permit> sink){
+			this.sink = sink;
+		}
+	}
+
+	/**
+	 * The right to use one connection. Releasing it more than once has no effect.
+	 */
+	class Permit {
+		private final AtomicBoolean released = new AtomicBoolean();
+		private Permit(){}
+		void release(){
+			if(!released.compareAndSet(false, true)) return;
+			inUse.decrementAndGet();
+			drain();
+		}
+	}
+
+}
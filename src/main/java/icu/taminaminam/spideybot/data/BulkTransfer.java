@@ -0,0 +1,357 @@
+package icu.taminaminam.spideybot.data;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exports all tables into files and imports them again, to move a deployment to another database or to seed one
+ * for load tests.
+ * <p>
+ * Every table gets stored in its own file in the binary format of PostgreSQL's {@code COPY}, so a file can also be
+ * loaded with {@code COPY <table> (<columns>) FROM '<file>' WITH (FORMAT binary)}. Rows are streamed in both
+ * directions: an export reads the table with a cursor of {@link #FETCH_SIZE} rows and an import inserts batches of
+ * {@link #BATCH_SIZE} rows, so memory usage does not depend on the size of a table. Importing skips rows that
+ * already exist.
+ */
+public final class BulkTransfer {
+
+	private static final Logger logger = LogManager.getLogger("BulkTransfer");
+
+	static final int FETCH_SIZE = 1000;
+	static final int BATCH_SIZE = 5000;
+	static final String FILE_SUFFIX = ".pgcopy";
+
+	private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte)0xff, '\r', '\n', 0};
+	private static final int FLAG_OIDS = 1 << 16;
+
+	/**
+	 * The tables in the order they get imported in, so foreign keys always point to rows that already exist.
+	 */
+	static final List<DataHandler.Tables> ORDER = Collections.unmodifiableList(Arrays.asList(
+			DataHandler.Tables.GUILDS,
+			DataHandler.Tables.USERS,
+			DataHandler.Tables.PERMISSIONS,
+			DataHandler.Tables.DEVS
+	));
+
+	private BulkTransfer(){}
+
+	/**
+	 * The type of a column together with its binary {@code COPY} representation.
+	 */
+	enum Type {
+		BIGINT(Long.class, "BIGINT[]"),
+		TEXT(String.class, "TEXT[]"),
+		// the driver has no codec for boolean arrays, so they get sent as text
+		BOOLEAN(Boolean.class, "TEXT[]::BOOLEAN[]")
+		;
+		private final Class<?> javaType;
+		private final String arrayCast;
+		Type(@NonNull Class<?> javaType, @NonNull String arrayCast){
+			this.javaType = javaType;
+			this.arrayCast = arrayCast;
+		}
+		@NonNull public Class<?> getJavaType(){ return javaType; }
+		/**
+		 * @return The cast turning a bound array parameter into an array of this type
+		 */
+		@NonNull public String getArrayCast(){ return arrayCast; }
+	}
+
+	static final class Column {
+		private final String name;
+		private final Type type;
+		private Column(@NonNull String name, @NonNull Type type){
+			this.name = name;
+			this.type = type;
+		}
+		@NonNull public String getName(){ return name; }
+		@NonNull public Type getType(){ return type; }
+	}
+
+	private static final List<Column> GUILD_COLUMNS = Arrays.asList(
+			new Column("guildId", Type.BIGINT), new Column("prefix", Type.TEXT), new Column("language", Type.TEXT));
+	private static final List<Column> USER_COLUMNS = Arrays.asList(
+			new Column("userId", Type.BIGINT), new Column("prefix", Type.TEXT), new Column("language", Type.TEXT));
+	private static final List<Column> PERMISSION_COLUMNS = Arrays.asList(
+			new Column("permissionName", Type.TEXT), new Column("guildId", Type.BIGINT), new Column("targetId", Type.BIGINT),
+			new Column("isUser", Type.BOOLEAN), new Column("isWhitelist", Type.BOOLEAN));
+	private static final List<Column> DEV_COLUMNS = Arrays.asList(
+			new Column("userId", Type.BIGINT), new Column("isDev", Type.BOOLEAN), new Column("isOwner", Type.BOOLEAN),
+			new Column("isListed", Type.BOOLEAN), new Column("devRole", Type.TEXT), new Column("status", Type.TEXT));
+
+	/**
+	 * @param table The table
+	 * @return All columns of the table, in the order they are stored in the files
+	 */
+	@NonNull
+	static List<Column> columnsOf(@NonNull DataHandler.Tables table){
+		switch(table){
+			case GUILDS: return GUILD_COLUMNS;
+			case USERS: return USER_COLUMNS;
+			case PERMISSIONS: return PERMISSION_COLUMNS;
+			default: return DEV_COLUMNS;
+		}
+	}
+
+	/**
+	 * @param directory The directory of the transfer
+	 * @param table     The table
+	 * @return The file the table is stored in
+	 */
+	@NonNull
+	static Path fileOf(@NonNull Path directory, @NonNull DataHandler.Tables table){
+		return directory.resolve(table.getName() + FILE_SUFFIX);
+	}
+
+	/**
+	 * How many rows of a table got transferred and how long that took.
+	 */
+	public static final class Result {
+		private final String table;
+		private final long rows;
+		private final Duration duration;
+		private Result(@NonNull String table, long rows, @NonNull Duration duration){
+			this.table = table;
+			this.rows = rows;
+			this.duration = duration;
+		}
+		@NonNull public String getTable(){ return table; }
+		public long getRows(){ return rows; }
+		@NonNull public Duration getDuration(){ return duration; }
+		public long getRowsPerSecond(){
+			return duration.isZero() ? rows : rows * 1_000_000_000L / duration.toNanos();
+		}
+		@Override
+		public String toString(){
+			return table + ": " + rows + " rows in " + duration.toMillis() + " ms (" + getRowsPerSecond() + " rows/s)";
+		}
+	}
+
+	/**
+	 * Writes every table of {@code storage} into its own file inside {@code directory}. Existing files get replaced
+	 * once their table has been written completely.
+	 *
+	 * @param storage   The storage to read from
+	 * @param directory The directory to write the files to, created if missing
+	 * @return A {@link Flux} emitting a {@link Result} after every table
+	 */
+	@NonNull
+	public static Flux<Result> exportAll(@NonNull Storage storage, @NonNull Path directory){
+		return Mono.fromCallable(() -> Files.createDirectories(directory))
+				.subscribeOn(Schedulers.boundedElastic())
+				.thenMany(Flux.fromIterable(ORDER))
+				.concatMap(table -> exportTable(storage, table, fileOf(directory, table)));
+	}
+
+	@NonNull
+	private static Mono<Result> exportTable(@NonNull Storage storage, @NonNull DataHandler.Tables table, @NonNull Path file){
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		List<Column> columns = columnsOf(table);
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			return Mono.using(
+					() -> new CopyWriter(temp, columns),
+					writer -> storage.exportRows(table)
+							// writing blocks, the rows still only get fetched as fast as they are written
+							.publishOn(Schedulers.boundedElastic(), FETCH_SIZE)
+							.doOnNext(writer::write)
+							.count()
+							.doOnNext(rows -> {
+								// closes the file, so it is complete before it replaces the previous export
+								writer.finish();
+								move(temp, file);
+							}),
+					CopyWriter::close
+			).map(rows -> new Result(table.getName(), rows, Duration.ofNanos(System.nanoTime() - start)))
+					// after a successful export the file got moved already
+					.doFinally(signal -> delete(temp));
+		}).doOnNext(result -> logger.info("Exported {}", result));
+	}
+
+	/**
+	 * Inserts the rows of every file inside {@code directory} into {@code storage}. Tables without a file get
+	 * skipped, rows that already exist are left untouched.
+	 *
+	 * @param storage   The storage to write to
+	 * @param directory The directory containing the files of {@link #exportAll(Storage, Path)}
+	 * @return A {@link Flux} emitting a {@link Result} after every table, counting the newly inserted rows
+	 */
+	@NonNull
+	public static Flux<Result> importAll(@NonNull Storage storage, @NonNull Path directory){
+		return Flux.fromIterable(ORDER)
+				.filter(table -> Files.exists(fileOf(directory, table)))
+				.concatMap(table -> importTable(storage, table, fileOf(directory, table)));
+	}
+
+	@NonNull
+	private static Mono<Result> importTable(@NonNull Storage storage, @NonNull DataHandler.Tables table, @NonNull Path file){
+		List<Column> columns = columnsOf(table);
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			return Flux.<Object[], CopyReader>generate(() -> new CopyReader(file, columns), (reader, sink) -> {
+				try {
+					Object[] row = reader.read();
+					if(row == null) sink.complete();
+					else sink.next(row);
+				} catch (IOException ex){
+					sink.error(new UncheckedIOException("Could not read " + file, ex));
+				}
+				return reader;
+			}, CopyReader::close)
+					.subscribeOn(Schedulers.boundedElastic())
+					.buffer(BATCH_SIZE)
+					.concatMap(batch -> storage.importRows(table, batch))
+					.reduce(0L, Long::sum)
+					.map(rows -> new Result(table.getName(), rows, Duration.ofNanos(System.nanoTime() - start)));
+		}).doOnNext(result -> logger.info("Imported {}", result));
+	}
+
+	private static void move(@NonNull Path from, @NonNull Path to){
+		try {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex){
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private static void delete(@NonNull Path file){
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException ex){
+			logger.warn("Could not delete unfinished export file {}", file, ex);
+		}
+	}
+
+	/**
+	 * Writes rows in the binary {@code COPY} format: the header, every row as field count followed by the length
+	 * and big endian value of every field, {@code -1} as length of {@code NULL} values, and {@code -1} as trailer.
+	 */
+	private static final class CopyWriter implements Closeable {
+		private final DataOutputStream out;
+		private final List<Column> columns;
+
+		private CopyWriter(@NonNull Path file, @NonNull List<Column> columns) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+			this.columns = columns;
+			out.write(SIGNATURE);
+			out.writeInt(0);
+			out.writeInt(0);
+		}
+
+		private void write(@NonNull Object[] row){
+			try {
+				out.writeShort(columns.size());
+				for(int i = 0; i < columns.size(); i++){
+					Object value = row[i];
+					if(value == null){
+						out.writeInt(-1);
+					}else if(columns.get(i).getType() == Type.BIGINT){
+						out.writeInt(8);
+						out.writeLong((Long)value);
+					}else if(columns.get(i).getType() == Type.BOOLEAN){
+						out.writeInt(1);
+						out.writeByte((Boolean)value ? 1 : 0);
+					}else{
+						byte[] bytes = ((String)value).getBytes(StandardCharsets.UTF_8);
+						out.writeInt(bytes.length);
+						out.write(bytes);
+					}
+				}
+			} catch (IOException ex){
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		/**
+		 * Writes the trailer and closes the file.
+		 */
+		private void finish(){
+			try {
+				out.writeShort(-1);
+				out.close();
+			} catch (IOException ex){
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		@Override
+		public void close(){
+			try {
+				out.close();
+			} catch (IOException ex){
+				logger.warn("Could not close export file", ex);
+			}
+		}
+	}
+
+	/**
+	 * Reads the rows written by {@link CopyWriter}, or by {@code COPY ... TO ... WITH (FORMAT binary)} with the
+	 * columns of {@link #columnsOf(DataHandler.Tables)}.
+	 */
+	private static final class CopyReader implements Closeable {
+		private final DataInputStream in;
+		private final List<Column> columns;
+
+		private CopyReader(@NonNull Path file, @NonNull List<Column> columns) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+			this.columns = columns;
+			byte[] signature = new byte[SIGNATURE.length];
+			in.readFully(signature);
+			if(!Arrays.equals(signature, SIGNATURE)) throw new IOException("Not a binary COPY file: " + file);
+			if((in.readInt() & FLAG_OIDS) != 0) throw new IOException("COPY files with OIDs are not supported: " + file);
+			in.skipBytes(in.readInt());
+		}
+
+		/**
+		 * @return The next row, {@code null} after the last one
+		 */
+		@Nullable
+		private Object[] read() throws IOException {
+			short fields = in.readShort();
+			if(fields == -1) return null;
+			if(fields != columns.size()) throw new IOException("Expected " + columns.size() + " columns but got " + fields);
+			Object[] row = new Object[fields];
+			for(int i = 0; i < fields; i++){
+				int length = in.readInt();
+				if(length == -1) continue;
+				Type type = columns.get(i).getType();
+				if(type == Type.BIGINT){
+					row[i] = in.readLong();
+				}else if(type == Type.BOOLEAN){
+					row[i] = in.readByte() != 0;
+				}else{
+					byte[] bytes = new byte[length];
+					in.readFully(bytes);
+					row[i] = new String(bytes, StandardCharsets.UTF_8);
+				}
+			}
+			return row;
+		}
+
+		@Override
+		public void close(){
+			try {
+				in.close();
+			} catch (IOException ex){
+				logger.warn("Could not close import file", ex);
+			}
+		}
+	}
+
+}
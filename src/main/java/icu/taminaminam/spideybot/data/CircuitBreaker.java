@@ -0,0 +1,180 @@
+package icu.taminaminam.spideybot.data;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stops sending operations to the {@link Storage} while it keeps failing, so callers fail immediately instead of
+ * waiting for connect timeouts and piling up.
+ * <p>
+ * After {@code failureThreshold} timeouts or connection failures in a row the breaker opens and rejects every
+ * operation with a {@link DatabaseUnavailableException}. Once {@code openDuration} passed a single trial operation is
+ * let through: if it succeeds the breaker closes again, otherwise it stays open for another {@code openDuration}.
+ */
+public class CircuitBreaker {
+
+	private static final Logger logger = LogManager.getLogger("CircuitBreaker");
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+	private enum Permit { REJECTED, NORMAL, TRIAL }
+
+	private final int failureThreshold;
+	private final long openNanos;
+	private volatile State state = State.CLOSED;
+	private long openedAt = 0;
+	private int consecutiveFailures = 0;
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * @param failureThreshold The amount of failures in a row opening the breaker
+	 * @param openDuration     The time the breaker stays open before trying again
+	 */
+	CircuitBreaker(int failureThreshold, @NonNull Duration openDuration){
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.openNanos = openDuration.toNanos();
+	}
+
+	/**
+	 * @return Whether an operation may be executed and whether it is the trial operation, switching to
+	 * {@link State#HALF_OPEN} for it
+	 */
+	@NonNull
+	private Permit tryAcquire(){
+		if(state == State.CLOSED) return Permit.NORMAL;
+		synchronized(this){
+			if(state == State.CLOSED) return Permit.NORMAL;
+			if(state == State.OPEN && System.nanoTime() - openedAt >= openNanos){
+				state = State.HALF_OPEN;
+				return Permit.TRIAL;
+			}
+			return Permit.REJECTED;
+		}
+	}
+
+	/**
+	 * Only the trial operation closes a half open breaker, operations that started before the breaker opened say
+	 * nothing about whether the storage is back.
+	 */
+	private void onSuccess(@NonNull Permit permit){
+		if(state == State.CLOSED && consecutiveFailures == 0) return;
+		synchronized(this){
+			if(state == State.HALF_OPEN && permit != Permit.TRIAL) return;
+			consecutiveFailures = 0;
+			if(state == State.HALF_OPEN){
+				state = State.CLOSED;
+				logger.info("Storage is available again, closing circuit breaker");
+			}
+		}
+	}
+
+	/**
+	 * Errors the storage answered with, like constraint violations, show that it is reachable and count as success.
+	 */
+	private void onFailure(@NonNull Throwable err, @NonNull Permit permit){
+		failures.increment();
+		if(err instanceof DatabaseUnavailableException) timeouts.increment();
+		if(!StorageErrors.isOutage(err)){
+			onSuccess(permit);
+			return;
+		}
+		synchronized(this){
+			if(state == State.HALF_OPEN && permit != Permit.TRIAL) return;
+			consecutiveFailures++;
+			if(state == State.HALF_OPEN || state == State.CLOSED && consecutiveFailures >= failureThreshold){
+				if(state == State.CLOSED) logger.warn("Opening circuit breaker after {} failed storage operations", consecutiveFailures, err);
+				state = State.OPEN;
+				openedAt = System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * A trial operation that got cancelled says nothing about the storage, the next operation gets to try instead.
+	 */
+	private void onCancel(@NonNull Permit permit){
+		if(permit != Permit.TRIAL) return;
+		synchronized(this){
+			if(state == State.HALF_OPEN) state = State.OPEN;
+		}
+	}
+
+	/**
+	 * @param operation The operation to execute
+	 * @param timeout   The time the operation may take
+	 * @return A {@link Mono} emitting the result of the operation, or a {@link DatabaseUnavailableException} if the
+	 * breaker is open or the operation timed out
+	 */
+	@NonNull
+	public <T> Mono<T> protect(@NonNull Mono<T> operation, @NonNull Duration timeout){
+		return Mono.defer(() -> {
+			Permit permit = tryAcquire();
+			if(permit == Permit.REJECTED){
+				rejected.increment();
+				return Mono.error(new DatabaseUnavailableException("Circuit breaker is open"));
+			}
+			calls.increment();
+			return operation
+					.timeout(timeout, Mono.error(() -> new DatabaseUnavailableException("Storage operation timed out after " + timeout.toMillis() + " ms")))
+					.doOnSuccess(value -> onSuccess(permit))
+					.doOnError(err -> onFailure(err, permit))
+					.doOnCancel(() -> onCancel(permit));
+		});
+	}
+
+	/**
+	 * @param operation The operation to execute
+	 * @param timeout   The time the first and every further element may take
+	 * @return A {@link Flux} emitting the results of the operation, or a {@link DatabaseUnavailableException} if the
+	 * breaker is open or the operation timed out
+	 */
+	@NonNull
+	public <T> Flux<T> protectMany(@NonNull Flux<T> operation, @NonNull Duration timeout){
+		return Flux.defer(() -> {
+			Permit permit = tryAcquire();
+			if(permit == Permit.REJECTED){
+				rejected.increment();
+				return Flux.error(new DatabaseUnavailableException("Circuit breaker is open"));
+			}
+			calls.increment();
+			return operation
+					.timeout(Mono.delay(timeout), element -> Mono.delay(timeout), Flux.error(() -> new DatabaseUnavailableException("Storage operation timed out after " + timeout.toMillis() + " ms")))
+					.doOnComplete(() -> onSuccess(permit))
+					.doOnError(err -> onFailure(err, permit))
+					.doOnCancel(() -> onCancel(permit));
+		});
+	}
+
+	@NonNull public State getState(){ return state; }
+	/**
+	 * @return The amount of operations that got executed
+	 */
+	public long getCalls(){ return calls.sum(); }
+	/**
+	 * @return The amount of executed operations that failed, including timeouts and errors not counting towards
+	 * opening the breaker
+	 */
+	public long getFailures(){ return failures.sum(); }
+	/**
+	 * @return The amount of executed operations that timed out
+	 */
+	public long getTimeouts(){ return timeouts.sum(); }
+	/**
+	 * @return The amount of operations that got rejected because the breaker was open
+	 */
+	public long getRejected(){ return rejected.sum(); }
+
+	@Override
+	public String toString(){
+		return "CircuitBreaker{state=" + state + ", calls=" + getCalls() + ", failures=" + getFailures() + ", timeouts=" + getTimeouts() + ", rejected=" + getRejected() + "}";
+	}
+
+}
@@ -0,0 +1,27 @@
+package icu.taminaminam.spideybot.data;
+
+import io.r2dbc.spi.Row;
+import reactor.util.annotation.NonNull;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the columns the {@code ofRow} method of an entity reads, in the order of their index.
+ * <p>
+ * Queries build their column list from this annotation, see {@link Rows#columnList(Class)}, so {@code ofRow} can read
+ * every value by index instead of looking up its name. {@link Query} checks the names against the metadata of the
+ * first result, so a mismatch fails loudly instead of silently mixing up columns.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Columns {
+	
+	/**
+	 * @return The names of the columns, the first one is read from index {@code 0} of the {@link Row}
+	 */
+	@NonNull String[] value();
+	
+}
@@ -6,6 +6,7 @@ import io.r2dbc.spi.Row;
 import reactor.util.annotation.NonNull;
 import reactor.util.annotation.Nullable;
 
+@Columns({"userId", "isDev", "isOwner", "isListed", "devRole", "status"})
 public class DBDev {
 
     public static final DBDev defaultDev = new DBDev(Snowflake.of(0), true, false, true, "junior Dev", "Active");
@@ -18,7 +19,7 @@ public class DBDev {
     private final String status;
 
 
-    private DBDev(@NonNull Snowflake id, @NonNull boolean isDev, @NonNull boolean isOwner, @NonNull boolean isListed, @NonNull String devRole, @NonNull String status){
+    DBDev(@NonNull Snowflake id, @NonNull boolean isDev, @NonNull boolean isOwner, @NonNull boolean isListed, @NonNull String devRole, @NonNull String status){
         this.id = id;
         this.isDev = isDev;
         this.isOwner = isOwner;
@@ -35,18 +36,18 @@ public class DBDev {
     @NonNull public String getDevRole() { return this.devRole; }
     @NonNull public String getStatus() { return this.status; }
     /**
-     * @param row The {@link Row} to get the data from
+     * @param row The {@link Row} to get the data from, with the {@link Columns} of this class
      * @return A new {@link DBDev} based on the values of the {@link Row}
      */
     @NonNull
     public static DBDev ofRow(@NonNull Row row){
         return new DBDev(
-                Snowflake.of(row.get("userId", Integer.class)),
-                row.get("isDev", Boolean.class),
-                row.get("isOwner", Boolean.class),
-                row.get("isListed", Boolean.class),
-                row.get("devRole", String.class),
-                row.get("status", String.class)
+                Snowflake.of(Rows.getLong(row, 0)),
+                Rows.getBoolean(row, 1),
+                Rows.getBoolean(row, 2),
+                Rows.getBoolean(row, 3),
+                Rows.getString(row, 4, defaultDev.getDevRole()),
+                Rows.getString(row, 5, defaultDev.getStatus())
         );
     }
 
@@ -5,6 +5,7 @@ import discord4j.common.util.Snowflake;
 import io.r2dbc.spi.Row;
 import reactor.util.annotation.NonNull;
 
+@Columns({"guildId", "prefix", "language"})
 public class DBGuild {
 	
 	public static final DBGuild defaultGuild = new DBGuild(Snowflake.of(0), BotUtils.DEFAULT_PREFIX, "en");
@@ -13,7 +14,7 @@ public class DBGuild {
 	private final String prefix;
 	private final String language;
 	
-	private DBGuild(@NonNull Snowflake id, @NonNull String prefix, @NonNull String language){
+	DBGuild(@NonNull Snowflake id, @NonNull String prefix, @NonNull String language){
 		this.id = id;
 		this.prefix = prefix;
 		this.language = language;
@@ -24,15 +25,15 @@ public class DBGuild {
 	@NonNull public String getLanguage() { return language; }
 	
 	/**
-	 * @param row The {@link Row} to get the data from
+	 * @param row The {@link Row} to get the data from, with the {@link Columns} of this class
 	 * @return A new {@link DBGuild} based on the values of the {@link Row}
 	 */
 	@NonNull
 	public static DBGuild ofRow(@NonNull Row row){
 		return new DBGuild(
-				Snowflake.of(row.get("guildId", Integer.class)),
-				row.get("prefix", String.class),
-				row.get("language", String.class)
+				Snowflake.of(Rows.getLong(row, 0)),
+				Rows.getString(row, 1, defaultGuild.getPrefix()),
+				Rows.getString(row, 2, defaultGuild.getLanguage())
 		);
 	}
 	
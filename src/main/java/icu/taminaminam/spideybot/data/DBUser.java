@@ -5,6 +5,7 @@ import discord4j.common.util.Snowflake;
 import io.r2dbc.spi.Row;
 import reactor.util.annotation.NonNull;
 
+@Columns({"userId", "prefix", "language"})
 public class DBUser {
 	
 	public static final DBUser defaultUser = new DBUser(Snowflake.of(0), BotUtils.DEFAULT_PREFIX, "en");
@@ -13,7 +14,7 @@ public class DBUser {
 	private final String prefix;
 	private final String language;
 	
-	private DBUser(@NonNull Snowflake id, @NonNull String prefix, @NonNull String language){
+	DBUser(@NonNull Snowflake id, @NonNull String prefix, @NonNull String language){
 		this.id = id;
 		this.prefix = prefix;
 		this.language = language;
@@ -24,15 +25,15 @@ public class DBUser {
 	@NonNull public String getLanguage() { return language; }
 	
 	/**
-	 * @param row The {@link Row} to get the data from
+	 * @param row The {@link Row} to get the data from, with the {@link Columns} of this class
 	 * @return A new {@link DBUser} based on the values of the {@link Row}
 	 */
 	@NonNull
 	public static DBUser ofRow(@NonNull Row row){
 		return new DBUser(
-				Snowflake.of(row.get("userId", Integer.class)),
-				row.get("prefix", String.class),
-				row.get("language", String.class)
+				Snowflake.of(Rows.getLong(row, 0)),
+				Rows.getString(row, 1, defaultUser.getPrefix()),
+				Rows.getString(row, 2, defaultUser.getLanguage())
 		);
 	}
 	
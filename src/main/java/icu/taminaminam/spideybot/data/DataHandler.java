@@ -2,14 +2,8 @@ package icu.taminaminam.spideybot.data;
 
 import icu.taminaminam.spideybot.commands.PermissionManager;
 import icu.taminaminam.spideybot.main.Credentials;
+import icu.taminaminam.spideybot.utils.exceptions.BotException;
 import discord4j.common.util.Snowflake;
-import io.r2dbc.pool.ConnectionPool;
-import io.r2dbc.pool.ConnectionPoolConfiguration;
-import io.r2dbc.postgresql.PostgresqlConnectionConfiguration;
-import io.r2dbc.postgresql.PostgresqlConnectionFactory;
-import io.r2dbc.spi.Connection;
-import io.r2dbc.spi.Result;
-import io.r2dbc.spi.ValidationDepth;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import reactor.core.publisher.Flux;
@@ -17,132 +11,151 @@ import reactor.core.publisher.Mono;
 import reactor.util.annotation.NonNull;
 import reactor.util.annotation.Nullable;
 
-import java.time.Duration;
-import java.util.Objects;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
 import java.util.Optional;
-import java.util.function.Function;
 
 public class DataHandler {
 
 	private static final Logger logger = LogManager.getLogger("DataHandler");
 
-	private static final ConnectionPool pool;
+	private static final Storage storage;
+	private static final CircuitBreaker breaker = new CircuitBreaker(Credentials.DB_BREAKER_FAILURE_THRESHOLD, Credentials.DB_BREAKER_OPEN_DURATION);
+	private static final WriteBehindQueue writeBehind;
+	private static final KnownUsers knownUsers;
 
 	static {
-		PostgresqlConnectionFactory connectionFactory = new PostgresqlConnectionFactory(PostgresqlConnectionConfiguration.builder()
-				.host(Credentials.SQL_HOST)
-				.port(Credentials.SQL_PORT)
-				.username(Objects.requireNonNull(Credentials.SQL_USERNAME))
-				.password(Credentials.SQL_PASSWORD)
-				.database(Credentials.SQL_DATABASE)
-				.connectTimeout(Duration.ofSeconds(3))
-				.build()
-		);
-		// TODO: adjust max pool size
-		ConnectionPoolConfiguration configuration = ConnectionPoolConfiguration.builder(connectionFactory)
-				.maxSize(10)
-				.build();
-		pool = new ConnectionPool(configuration);
+		StorageType storageType = StorageType.of(Credentials.STORAGE_TYPE);
+		logger.info("Using {} storage", storageType.getName());
+		storage = createStorage(storageType);
+		writeBehind = new WriteBehindQueue(Credentials.WRITE_BEHIND_INTERVAL, Credentials.WRITE_BEHIND_MAX_BATCH,
+				(table, rows) -> write(storage.writeBatch(table, rows)));
+		writeBehind.start();
+		knownUsers = new KnownUsers(Credentials.KNOWN_USERS_RECENT_SIZE, Credentials.KNOWN_USERS_EXPECTED, Credentials.USER_INSERT_MAX_BATCH,
+				Credentials.USER_INSERT_DELAY, userIds -> writeMany(storage.initializeUsers(userIds)).then());
+	}
+
+	@NonNull
+	private static Storage createStorage(@NonNull StorageType type){
+		if(type == StorageType.MEMORY) return new MemoryStorage(Credentials.STORAGE_MEMORY_LATENCY);
+		else if(type == StorageType.FILE) return new FileStorage(Paths.get(Credentials.STORAGE_FILE));
+		else return new PostgresStorage();
+	}
+
+	/**
+	 * @return The {@link Storage} all data is read from and written to
+	 */
+	@NonNull
+	public static Storage getStorage(){
+		return storage;
 	}
 
 	/**
-	 * Gets one of the {@link Connection}s inside {@link #pool}.
+	 * Writes all pending settings updates and disconnects from the {@link Storage} afterwards.
 	 *
-	 * @return A database connection
+	 * @return An empty {@link Mono}
 	 */
 	@NonNull
-	private static Mono<Connection> getConnection(){
-		return pool.create();
+	public static Mono<Void> disconnect(){
+		return Mono.fromRunnable(DevRoster::stop).then(writeBehind.close()).then(storage.disconnect());
 	}
 
+	/**
+	 * @return A {@link Flux} emitting changes other processes made to the {@link Storage}, which cached entries
+	 * should get dropped for
+	 */
 	@NonNull
-	private static <T> Mono<T> useConnection(Function<Connection, Mono<T>> function){
-		return getConnection().flatMap(con -> function.apply(con)
-				.flatMap(item -> Mono.from(con.validate(ValidationDepth.LOCAL))
-						.flatMap(validation -> validation ? Mono.from(con.close()).thenReturn(item) : Mono.just(item))
-				)
-		);
+	public static Flux<Invalidation> getInvalidations(){
+		return storage.getInvalidations();
 	}
 
-	public static Mono<Void> disconnect(){
-		return pool.disposeLater();
+	/**
+	 * @return The {@link WriteBehindQueue} all settings updates go through, mainly to read its metrics
+	 */
+	@NonNull
+	public static WriteBehindQueue getWriteBehindQueue(){
+		return writeBehind;
+	}
+
+	/**
+	 * @return The {@link KnownUsers} deciding which users {@link #ensureUser(Snowflake)} has to insert, mainly to read
+	 * its metrics
+	 */
+	@NonNull
+	public static KnownUsers getKnownUsers(){
+		return knownUsers;
+	}
+
+	/**
+	 * @return The {@link CircuitBreaker} every storage operation goes through, mainly to read its metrics
+	 */
+	@NonNull
+	public static CircuitBreaker getCircuitBreaker(){
+		return breaker;
+	}
+
+	/**
+	 * Callers should fall back to cached or default values for these errors instead of failing, the storage is
+	 * expected to be back soon.
+	 *
+	 * @param err The error of a storage operation
+	 * @return Whether the operation failed because the storage is unavailable
+	 */
+	public static boolean isUnavailable(@NonNull Throwable err){
+		return err instanceof DatabaseUnavailableException;
+	}
+
+	@NonNull
+	private static <T> Mono<T> read(@NonNull Mono<T> operation){
+		return breaker.protect(operation, Credentials.DB_READ_TIMEOUT);
+	}
+
+	@NonNull
+	private static <T> Flux<T> readMany(@NonNull Flux<T> operation){
+		return breaker.protectMany(operation, Credentials.DB_READ_TIMEOUT);
+	}
+
+	@NonNull
+	private static <T> Mono<T> write(@NonNull Mono<T> operation){
+		return breaker.protect(operation, Credentials.DB_WRITE_TIMEOUT);
 	}
 
-	private enum Tables {
-		GUILDS("guilds"),
-		USERS("users"),
-		PERMISSIONS("permissions"),
-		DEVS("devs")
+	@NonNull
+	private static <T> Flux<T> writeMany(@NonNull Flux<T> operation){
+		return breaker.protectMany(operation, Credentials.DB_WRITE_TIMEOUT);
+	}
+
+	enum Tables {
+		GUILDS("guilds", "guildId"),
+		USERS("users", "userId"),
+		PERMISSIONS("permissions", "guildId"),
+		DEVS("devs", "userId")
 		;
 		private final String name;
-		Tables(@NonNull String name){
+		private final String keyColumn;
+		Tables(@NonNull String name, @NonNull String keyColumn){
 			this.name = name;
+			this.keyColumn = keyColumn;
 		}
 		/**
 		 * @return The name of the table in the database
 		 */
 		@NonNull public String getName() { return name; }
+		/**
+		 * @return The name of the column rows are looked up by
+		 */
+		@NonNull public String getKeyColumn() { return keyColumn; }
 	}
 
 	/**
-	 * Creates all missing tables.
+	 * Prepares the {@link Storage}, e.g. by creating all missing tables, and loads the {@link DevRoster}.
 	 *
 	 * @return An empty {@link Mono}
 	 */
 	@NonNull
 	public static Mono<Void> initialize(){
-		String createGuildsTable = "CREATE TABLE IF NOT EXISTS " + Tables.GUILDS.getName() + " (" +
-				"guildId BIGINT," +
-				"prefix VARCHAR(10)," +
-				"language VARCHAR(5)," +
-				"PRIMARY KEY(guildId)" +
-				")";
-		String createUsersTable = "CREATE TABLE IF NOT EXISTS " + Tables.USERS.getName() + " (" +
-				"userId BIGINT," +
-				"prefix VARCHAR(25)," +
-				"language VARCHAR(5)," +
-				"PRIMARY KEY(userId)" +
-				")";
-		String createPermissionsTable = "CREATE TABLE IF NOT EXISTS " + Tables.PERMISSIONS.getName() + " (" +
-				"permissionName TEXT," +
-				"guildId BIGINT," +
-				"targetId BIGINT," +
-				"isUser BOOLEAN," +
-				"isWhitelist BOOLEAN," +
-				"PRIMARY KEY(permissionName, guildId, targetId, isUser)," +
-				"CONSTRAINT permissions_guildid_fkey " +
-					"FOREIGN KEY (guildid) " +
-						"REFERENCES " + Tables.GUILDS.getName() +"(guildId) " +
-						"ON UPDATE CASCADE " +
-						"ON DELETE CASCADE," +
-				"CONSTRAINT permissions_targetid_fkey " +
-					"FOREIGN KEY (targetid) " +
-						"REFERENCES " + Tables.USERS.getName() +"(userid) " +
-						"ON UPDATE CASCADE " +
-						"ON DELETE CASCADE" +
-				")";
-		//devs table to identify "Bot Owners" and Devs
-		String createDevsTable = "CREATE TABLE IF NOT EXISTS " + Tables.DEVS.getName() + " (" +
-				"userId BIGINT," +
-				"isDev BOOLEAN," +
-				"isOwner BOOLEAN," +
-				"isListed BOOLEAN," +
-				"devRole TEXT," +
-				"status TEXT," +
-				"PRIMARY KEY(userId)," +
-				"CONSTRAINT devsTable_userId " +
-					"FOREIGN KEY(userId)" +
-						"REFERENCES " + Tables.USERS.getName() + "(userId) " +
-						"ON DELETE CASCADE" +
-				")";
-
-		return useConnection(con -> Mono.from(con.createBatch()
-				.add(createGuildsTable)
-				.add(createUsersTable)
-				.add(createPermissionsTable)
-				.add(createDevsTable)
-				.execute()
-		).then());
+		return storage.initialize().then(DevRoster.start());
 	}
 
 	/**
@@ -154,14 +167,19 @@ public class DataHandler {
 	 */
 	@NonNull
 	public static Mono<Boolean> initializeGuild(@NonNull Snowflake guildId){
-		return getConnection().flatMap(con -> Mono.from(con.createStatement("INSERT INTO " + Tables.GUILDS.getName() + " (guildId, prefix, language) VALUES ($1, $2, $3) ON CONFLICT DO NOTHING")
-				.bind("$1", guildId.asLong())
-				.bind("$2", DBGuild.defaultGuild.getPrefix())
-				.bind("$3", DBGuild.defaultGuild.getLanguage())
-				.execute())
-				.flatMapMany(Result::getRowsUpdated).next()
-				.map(i -> i > 0)
-		);
+		return write(storage.initializeGuild(guildId));
+	}
+
+	/**
+	 * Puts the default values into the database for all provided IDs using a single statement. Guilds that are
+	 * already saved are left untouched.
+	 *
+	 * @param guildIds The IDs of the guilds that should get put into the database
+	 * @return A {@link Flux} emitting the IDs of all guilds that got newly inserted
+	 */
+	@NonNull
+	public static Flux<Snowflake> initializeGuilds(@NonNull Collection<Snowflake> guildIds){
+		return writeMany(storage.initializeGuilds(guildIds));
 	}
 
 	/**
@@ -173,14 +191,32 @@ public class DataHandler {
 	 */
 	@NonNull
 	public static Mono<Boolean> initializeUser(@NonNull Snowflake userId){
-		return getConnection().flatMap(con -> Mono.from(con.createStatement("INSERT INTO " + Tables.USERS.getName() + " (userId, prefix, language) VALUES ($1, $2, $3) ON CONFLICT DO NOTHING")
-				.bind("$1", userId.asLong())
-				.bind("$2", DBUser.defaultUser.getPrefix())
-				.bind("$3", DBUser.defaultUser.getLanguage())
-				.execute())
-				.flatMapMany(Result::getRowsUpdated).next()
-				.map(i -> i > 0)
-		);
+		return write(storage.initializeUser(userId)).doOnSuccess(inserted -> knownUsers.add(userId.asLong()));
+	}
+
+	/**
+	 * Puts the default values into the database for all provided IDs using a single statement. Users that are
+	 * already saved are left untouched.
+	 *
+	 * @param userIds The IDs of the users that should get put into the database
+	 * @return A {@link Flux} emitting the IDs of all users that got newly inserted
+	 */
+	@NonNull
+	public static Flux<Snowflake> initializeUsers(@NonNull Collection<Snowflake> userIds){
+		return writeMany(storage.initializeUsers(userIds))
+				.doOnComplete(() -> userIds.forEach(userId -> knownUsers.add(userId.asLong())));
+	}
+
+	/**
+	 * Makes sure the user is stored, without asking the database if the user is known to be stored already. Users
+	 * that are not known get inserted together with others, see {@link KnownUsers}.
+	 *
+	 * @param userId The ID of the user that should get put into the database
+	 * @return A {@link Mono} completing once the user is stored, or right away while the storage is unavailable
+	 */
+	@NonNull
+	public static Mono<Void> ensureUser(@NonNull Snowflake userId){
+		return knownUsers.ensureStored(userId.asLong()).onErrorResume(DataHandler::isUnavailable, err -> Mono.empty());
 	}
 
 	/**
@@ -191,27 +227,50 @@ public class DataHandler {
 	 */
 	@NonNull
 	public static Mono<DBGuild> getGuild(@NonNull Snowflake guildId){
-		return getConnection().flatMap(con -> Mono.from(con.createStatement("SELECT * FROM " + Tables.GUILDS.getName() + " WHERE guildId=$1 LIMIT 1")
-				.bind("$1", guildId.asLong())
-				.execute())
-				.flatMap(result -> Mono.from(result.map((row, rowMetadata) -> DBGuild.ofRow(row))))
-		);
+		return read(storage.getGuild(guildId)).map(DataHandler::withPendingUpdates);
+	}
+
+	/**
+	 * Retrieves the stored data of all guilds with the provided IDs with a single query.
+	 *
+	 * @param guildIds The IDs of the guilds to get the data from
+	 * @return A {@link Flux} emitting the {@link DBGuild} of every stored guild as soon as it got read
+	 */
+	@NonNull
+	public static Flux<DBGuild> getGuilds(@NonNull Collection<Snowflake> guildIds){
+		return readMany(storage.getGuilds(guildIds)).map(DataHandler::withPendingUpdates);
 	}
 
-	public static Mono<Void> setGuildPrefix(Snowflake guildId, String prefix){
-		return useConnection(con -> Mono.from(con.createStatement("UPDATE " + Tables.GUILDS.getName() + " SET prefix=$1 WHERE guildId=$2")
-				.bind("$1", prefix)
-				.bind("$2", guildId.asLong())
-				.execute()
-		).flatMapMany(Result::getRowsUpdated).then());
+	/**
+	 * Queues a change of the guild prefix, see {@link WriteBehindQueue}.
+	 *
+	 * @param guildId The ID of the guild
+	 * @param prefix  The new prefix
+	 * @return A {@link Mono} that completes once the change got queued
+	 */
+	@NonNull
+	public static Mono<Void> setGuildPrefix(@NonNull Snowflake guildId, @NonNull String prefix){
+		return Mono.fromRunnable(() -> writeBehind.enqueue(WriteBehindQueue.Column.GUILD_PREFIX, guildId.asLong(), prefix));
 	}
 
-	public static Mono<Void> setGuildLanguage(Snowflake guildId, String language){
-		return useConnection(con -> Mono.from(con.createStatement("UPDATE " + Tables.GUILDS.getName() + " SET language=$1 WHERE guildId=$2")
-				.bind("$1", language)
-				.bind("$2", guildId.asLong())
-				.execute()
-		).flatMapMany(Result::getRowsUpdated).then());
+	/**
+	 * @param guild Whether the prefix belongs to a guild or to a user
+	 * @return The maximum length of a prefix that can be stored
+	 */
+	public static int getMaxPrefixLength(boolean guild){
+		return (guild ? WriteBehindQueue.Column.GUILD_PREFIX : WriteBehindQueue.Column.USER_PREFIX).getMaxLength();
+	}
+
+	/**
+	 * Queues a change of the guild language, see {@link WriteBehindQueue}.
+	 *
+	 * @param guildId  The ID of the guild
+	 * @param language The new language
+	 * @return A {@link Mono} that completes once the change got queued
+	 */
+	@NonNull
+	public static Mono<Void> setGuildLanguage(@NonNull Snowflake guildId, @NonNull String language){
+		return Mono.fromRunnable(() -> writeBehind.enqueue(WriteBehindQueue.Column.GUILD_LANGUAGE, guildId.asLong(), language));
 	}
 
 	/**
@@ -222,27 +281,33 @@ public class DataHandler {
 	 */
 	@NonNull
 	public static Mono<DBUser> getUser(@NonNull Snowflake userId){
-		return getConnection().flatMap(con -> Mono.from(con.createStatement("SELECT * FROM " + Tables.USERS.getName() + " WHERE userId=$1 LIMIT 1")
-				.bind("$1", userId.asLong())
-				.execute())
-				.flatMap(result -> Mono.from(result.map((row, rowMetadata) -> DBUser.ofRow(row))))
-		);
+		return read(storage.getUser(userId))
+				.doOnNext(user -> knownUsers.add(user.getId().asLong()))
+				.map(DataHandler::withPendingUpdates);
 	}
 
-	public static Mono<Void> setUserPrefix(Snowflake userId, String prefix){
-		return useConnection(con -> Mono.from(con.createStatement("UPDATE " + Tables.USERS.getName() + " SET prefix=$1 WHERE userId=$2")
-				.bind("$1", prefix)
-				.bind("$2", userId.asLong())
-				.execute()
-		).flatMapMany(Result::getRowsUpdated).then());
+	/**
+	 * Queues a change of the user prefix, see {@link WriteBehindQueue}.
+	 *
+	 * @param userId The ID of the user
+	 * @param prefix The new prefix
+	 * @return A {@link Mono} that completes once the change got queued
+	 */
+	@NonNull
+	public static Mono<Void> setUserPrefix(@NonNull Snowflake userId, @NonNull String prefix){
+		return Mono.fromRunnable(() -> writeBehind.enqueue(WriteBehindQueue.Column.USER_PREFIX, userId.asLong(), prefix));
 	}
 
-	public static Mono<Void> setUserLanguage(Snowflake userId, String language){
-		return useConnection(con -> Mono.from(con.createStatement("UPDATE " + Tables.USERS.getName() + " SET language=$1 WHERE userId=$2")
-				.bind("$1", language)
-				.bind("$2", userId.asLong())
-				.execute()
-		).flatMapMany(Result::getRowsUpdated).then());
+	/**
+	 * Queues a change of the user language, see {@link WriteBehindQueue}.
+	 *
+	 * @param userId   The ID of the user
+	 * @param language The new language
+	 * @return A {@link Mono} that completes once the change got queued
+	 */
+	@NonNull
+	public static Mono<Void> setUserLanguage(@NonNull Snowflake userId, @NonNull String language){
+		return Mono.fromRunnable(() -> writeBehind.enqueue(WriteBehindQueue.Column.USER_LANGUAGE, userId.asLong(), language));
 	}
 
 	/**
@@ -254,12 +319,7 @@ public class DataHandler {
 	 */
 	@NonNull
 	public static Flux<PermissionManager.CommandPermission> getPermissions(@NonNull String permName, @NonNull Snowflake guildId){
-		return getConnection().flatMapMany(con -> Flux.from(con.createStatement("SELECT * FROM " + Tables.PERMISSIONS.getName() + " WHERE permissionName=$1 AND guildId=$2")
-				.bind("$1", permName)
-				.bind("$2", guildId.asLong())
-				.execute())
-				.flatMap(result -> Mono.from(result.map((row, rowMetadata) -> PermissionManager.CommandPermission.ofRow(row))))
-		);
+		return readMany(storage.getPermissions(permName, guildId));
 	}
 
 	/**
@@ -271,42 +331,28 @@ public class DataHandler {
 	 */
 	@NonNull
 	public static Mono<Boolean> addDevNoParams(@NonNull Snowflake userId){
-		return getConnection().flatMap(con -> Mono.from(con.createStatement("INSERT INTO " + Tables.DEVS.getName() + " (userId, isDev, isOwner, isListed, devRole, status) VALUES ($1, $2, $3, $4, $5, $6) ON CONFLICT DO NOTHING")
-				.bind("$1", userId.asLong())
-				.bind("$2", DBDev.defaultDev.isDev())
-				.bind("$3", DBDev.defaultDev.isOwner())
-				.bind("$4", DBDev.defaultDev.isListed())
-				.bind("$5", DBDev.defaultDev.getDevRole())
-				.bind("$6", DBDev.defaultDev.getStatus())
-				.execute())
-				.flatMapMany(Result::getRowsUpdated).next()
-				.map(i -> i > 0)
-		);
+		return write(storage.addDev(new DBDev(userId, DBDev.defaultDev.isDev(), DBDev.defaultDev.isOwner(), DBDev.defaultDev.isListed(), DBDev.defaultDev.getDevRole(), DBDev.defaultDev.getStatus())))
+				.flatMap(added -> DevRoster.tryRefresh().thenReturn(added));
 	}
 
 	/**
+	 * Puts the dev into the database. Nothing happens if the dev is already saved.
 	 *
-	 * @param userId The ID of the user that should get put into the database.
-	 * @param isDev
-	 * @param isOwner
-	 * @param isListed
-	 * @param devRole
+	 * @param userId   The ID of the user that should get put into the database.
+	 * @param isDev    Whether the user is a dev
+	 * @param isOwner  Whether the user is a bot owner
+	 * @param isListed Whether the dev should be listed
+	 * @param devRole  The role of the dev, {@link DBDev#defaultDev}'s role if {@code null}
+	 * @param status   The status of the dev, {@link DBDev#defaultDev}'s status if {@code null}
 	 * @return A {@link Mono} that upon success emits {@code true} if the user got inserted into the database or
 	 * {@code false} if the user was already saved.
 	 */
 	@NonNull
-	public static Mono<Boolean> addDev(@NonNull Snowflake userId, @Nullable boolean isDev, @Nullable boolean isOwner, @Nullable boolean isListed, @Nullable String devRole, @Nullable String status){
-		return getConnection().flatMap(con -> Mono.from(con.createStatement("INSERT INTO " + Tables.DEVS.getName() + " (userId, isDev, isOwner, isListed, devRole, status) VALUES ($1, $2, $3, $4, $5, $6) ON CONFLICT DO NOTHING")
-				.bind("$1", userId.asLong())
-				.bind("$2", Optional.ofNullable(isDev).orElse(DBDev.defaultDev.isDev()))
-				.bind("$3", Optional.ofNullable(isOwner).orElse(DBDev.defaultDev.isOwner()))
-				.bind("$4", Optional.ofNullable(isListed).orElse(DBDev.defaultDev.isListed()))
-				.bind("$5", Optional.ofNullable(devRole).orElse(DBDev.defaultDev.getDevRole()))
-				.bind("$6", Optional.ofNullable(status).orElse(DBDev.defaultDev.getStatus()))
-				.execute())
-				.flatMapMany(Result::getRowsUpdated).next()
-				.map(i -> i > 0)
-		);
+	public static Mono<Boolean> addDev(@NonNull Snowflake userId, boolean isDev, boolean isOwner, boolean isListed, @Nullable String devRole, @Nullable String status){
+		return write(storage.addDev(new DBDev(userId, isDev, isOwner, isListed,
+				Optional.ofNullable(devRole).orElse(DBDev.defaultDev.getDevRole()),
+				Optional.ofNullable(status).orElse(DBDev.defaultDev.getStatus())
+		))).flatMap(added -> DevRoster.tryRefresh().thenReturn(added));
 	}
 
 	/**
@@ -317,66 +363,146 @@ public class DataHandler {
 	 */
 	@NonNull
 	public static Mono<DBDev> getDev(@NonNull Snowflake userId){
-		return getConnection().flatMap(con -> Mono.from(con.createStatement("SELECT * FROM " + Tables.DEVS.getName() + " WHERE userId=$1 LIMIT 1")
-				.bind("$1", userId.asLong())
-				.execute())
-				.flatMap(result -> Mono.from(result.map((row, rowMetadata) -> DBDev.ofRow(row))))
-		);
+		return read(storage.getDev(userId)).map(DataHandler::withPendingUpdates);
 	}
 
+	/**
+	 * @return A {@link Flux} emitting every stored {@link DBDev}
+	 */
+	@NonNull
 	public static Flux<DBDev> getAllDevs(){
-		return getConnection().flatMapMany(
-				con -> Flux.from(
-						con.createStatement("SELECT * FROM " + Tables.DEVS.getName())
-								.execute()
-				).flatMap(
-						result -> Mono.from(
-								result.map(
-										(row, rowMetadata) -> DBDev.ofRow(row)
-								)
-						)
-				)
-		);
+		return readMany(storage.getAllDevs()).map(DataHandler::withPendingUpdates);
+	}
+
+	/**
+	 * Queues a change of the dev flag, see {@link WriteBehindQueue}.
+	 *
+	 * @param userId The ID of the dev
+	 * @param isDev  Whether the user is a dev
+	 * @return A {@link Mono} that completes once the change got queued and the {@link DevRoster} got refreshed, a
+	 * failed refresh only gets logged
+	 */
+	@NonNull
+	public static Mono<Void> setIsDev(@NonNull Snowflake userId, boolean isDev){
+		return Mono.fromRunnable(() -> writeBehind.enqueue(WriteBehindQueue.Column.DEV_IS_DEV, userId.asLong(), isDev))
+				.then(DevRoster.tryRefresh());
+	}
+
+	/**
+	 * Queues a change of the owner flag, see {@link WriteBehindQueue}.
+	 *
+	 * @param userId  The ID of the dev
+	 * @param isOwner Whether the user is a bot owner
+	 * @return A {@link Mono} that completes once the change got queued and the {@link DevRoster} got refreshed, a
+	 * failed refresh only gets logged
+	 */
+	@NonNull
+	public static Mono<Void> setIsOwner(@NonNull Snowflake userId, boolean isOwner){
+		return Mono.fromRunnable(() -> writeBehind.enqueue(WriteBehindQueue.Column.DEV_IS_OWNER, userId.asLong(), isOwner))
+				.then(DevRoster.tryRefresh());
 	}
 
-	public static Mono<Void> setIsDev(Snowflake userId, boolean isDev){
-		return useConnection(con -> Mono.from(con.createStatement("UPDATE " + Tables.DEVS.getName() + " SET isDev=$1 WHERE userId=$2")
-				.bind("$1", isDev)
-				.bind("$2", userId.asLong())
-				.execute()
-		).flatMapMany(Result::getRowsUpdated).then());
+	/**
+	 * Queues a change of the listed flag, see {@link WriteBehindQueue}.
+	 *
+	 * @param userId   The ID of the dev
+	 * @param isListed Whether the dev should be listed
+	 * @return A {@link Mono} that completes once the change got queued and the {@link DevRoster} got refreshed, a
+	 * failed refresh only gets logged
+	 */
+	@NonNull
+	public static Mono<Void> setIsListed(@NonNull Snowflake userId, boolean isListed){
+		return Mono.fromRunnable(() -> writeBehind.enqueue(WriteBehindQueue.Column.DEV_IS_LISTED, userId.asLong(), isListed))
+				.then(DevRoster.tryRefresh());
 	}
 
-	public static Mono<Void> setIsOwner(Snowflake userId, boolean isOwner){
-		return useConnection(con -> Mono.from(con.createStatement("UPDATE " + Tables.DEVS.getName() + " SET isOwner=$1 WHERE userId=$2")
-				.bind("$1", isOwner)
-				.bind("$2", userId.asLong())
-				.execute()
-		).flatMapMany(Result::getRowsUpdated).then());
+	/**
+	 * Queues a change of the dev role, see {@link WriteBehindQueue}.
+	 *
+	 * @param userId  The ID of the dev
+	 * @param devRole The new role
+	 * @return A {@link Mono} that completes once the change got queued and the {@link DevRoster} got refreshed, a
+	 * failed refresh only gets logged
+	 */
+	@NonNull
+	public static Mono<Void> setdevRole(@NonNull Snowflake userId, @NonNull String devRole){
+		return Mono.fromRunnable(() -> writeBehind.enqueue(WriteBehindQueue.Column.DEV_ROLE, userId.asLong(), devRole))
+				.then(DevRoster.tryRefresh());
 	}
 
-	public static Mono<Void> setIsListed(Snowflake userId, boolean isListed){
-		return useConnection(con -> Mono.from(con.createStatement("UPDATE " + Tables.DEVS.getName() + " SET isListed=$1 WHERE userId=$2")
-				.bind("$1", isListed)
-				.bind("$2", userId.asLong())
-				.execute()
-		).flatMapMany(Result::getRowsUpdated).then());
+	/**
+	 * Queues a change of the dev status, see {@link WriteBehindQueue}.
+	 *
+	 * @param userId The ID of the dev
+	 * @param status The new status
+	 * @return A {@link Mono} that completes once the change got queued and the {@link DevRoster} got refreshed, a
+	 * failed refresh only gets logged
+	 */
+	@NonNull
+	public static Mono<Void> setStatus(@NonNull Snowflake userId, @NonNull String status){
+		return Mono.fromRunnable(() -> writeBehind.enqueue(WriteBehindQueue.Column.DEV_STATUS, userId.asLong(), status))
+				.then(DevRoster.tryRefresh());
 	}
 
-	public static Mono<Void> setdevRole(Snowflake userId, String devRole){
-		return useConnection(con -> Mono.from(con.createStatement("UPDATE " + Tables.DEVS.getName() + " SET devRole=$1 WHERE userId=$2")
-				.bind("$1", devRole)
-				.bind("$2", userId.asLong())
-				.execute()
-		).flatMapMany(Result::getRowsUpdated).then());
+	/**
+	 * Writes every table into files inside {@code directory}, after writing all pending settings updates. See
+	 * {@link BulkTransfer} for the format.
+	 *
+	 * @param requesterId The ID of the user requesting the export, has to be a bot owner
+	 * @param directory   The directory to write the files to
+	 * @return A {@link Flux} emitting a {@link BulkTransfer.Result} after every table
+	 */
+	@NonNull
+	public static Flux<BulkTransfer.Result> exportData(@NonNull Snowflake requesterId, @NonNull Path directory){
+		if(!DevRoster.isOwner(requesterId)) return Flux.error(BotException.notExecutable("exception.requiresbotowner"));
+		return writeBehind.flush().thenMany(BulkTransfer.exportAll(storage, directory));
+	}
+
+	/**
+	 * Inserts the rows of an export made with {@link #exportData(Snowflake, Path)}. Rows that already exist are left
+	 * untouched.
+	 *
+	 * @param requesterId The ID of the user requesting the import, has to be a bot owner
+	 * @param directory   The directory containing the exported files
+	 * @return A {@link Flux} emitting a {@link BulkTransfer.Result} after every table
+	 */
+	@NonNull
+	public static Flux<BulkTransfer.Result> importData(@NonNull Snowflake requesterId, @NonNull Path directory){
+		if(!DevRoster.isOwner(requesterId)) return Flux.error(BotException.notExecutable("exception.requiresbotowner"));
+		return BulkTransfer.importAll(storage, directory).concatWith(DevRoster.refresh().then(Mono.empty()));
+	}
+
+	@NonNull
+	private static DBGuild withPendingUpdates(@NonNull DBGuild guild){
+		long id = guild.getId().asLong();
+		if(!writeBehind.hasPending(Tables.GUILDS, id)) return guild;
+		return new DBGuild(guild.getId(),
+				writeBehind.getPending(WriteBehindQueue.Column.GUILD_PREFIX, id, guild.getPrefix()),
+				writeBehind.getPending(WriteBehindQueue.Column.GUILD_LANGUAGE, id, guild.getLanguage())
+		);
 	}
 
-	public static Mono<Void> setStatus(Snowflake userId, String status){
-		return useConnection(con -> Mono.from(con.createStatement("UPDATE " + Tables.DEVS.getName() + " SET status=$1 WHERE userId=$2")
-				.bind("$1", status)
-				.bind("$2", userId.asLong())
-				.execute()
-		).flatMapMany(Result::getRowsUpdated).then());
+	@NonNull
+	private static DBUser withPendingUpdates(@NonNull DBUser user){
+		long id = user.getId().asLong();
+		if(!writeBehind.hasPending(Tables.USERS, id)) return user;
+		return new DBUser(user.getId(),
+				writeBehind.getPending(WriteBehindQueue.Column.USER_PREFIX, id, user.getPrefix()),
+				writeBehind.getPending(WriteBehindQueue.Column.USER_LANGUAGE, id, user.getLanguage())
+		);
+	}
+
+	@NonNull
+	private static DBDev withPendingUpdates(@NonNull DBDev dev){
+		long id = dev.getId().asLong();
+		if(!writeBehind.hasPending(Tables.DEVS, id)) return dev;
+		return new DBDev(dev.getId(),
+				writeBehind.getPending(WriteBehindQueue.Column.DEV_IS_DEV, id, dev.isDev()),
+				writeBehind.getPending(WriteBehindQueue.Column.DEV_IS_OWNER, id, dev.isOwner()),
+				writeBehind.getPending(WriteBehindQueue.Column.DEV_IS_LISTED, id, dev.isListed()),
+				writeBehind.getPending(WriteBehindQueue.Column.DEV_ROLE, id, dev.getDevRole()),
+				writeBehind.getPending(WriteBehindQueue.Column.DEV_STATUS, id, dev.getStatus())
+		);
 	}
 
 }
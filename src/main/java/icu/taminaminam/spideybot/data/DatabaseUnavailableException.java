@@ -0,0 +1,15 @@
+package icu.taminaminam.spideybot.data;
+
+import reactor.util.annotation.NonNull;
+
+/**
+ * Thrown by {@link DataHandler} operations that were not executed because the {@link CircuitBreaker} is open, or
+ * that took longer than their timeout.
+ */
+public class DatabaseUnavailableException extends RuntimeException {
+
+	DatabaseUnavailableException(@NonNull String message){
+		super(message, null, false, false);
+	}
+
+}
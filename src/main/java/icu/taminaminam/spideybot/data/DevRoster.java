@@ -0,0 +1,169 @@
+package icu.taminaminam.spideybot.data;
+
+import icu.taminaminam.spideybot.main.Credentials;
+import icu.taminaminam.spideybot.utils.BotUtils;
+import discord4j.common.util.Snowflake;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * All devs and bot owners, kept in memory so checking them never needs a database round trip.
+ * <p>
+ * The whole devs table gets loaded into an immutable {@link Snapshot} which gets replaced after every change made
+ * through {@link DataHandler}, after changes of other processes and every {@link Credentials#DEV_ROSTER_REFRESH}.
+ * The users in {@link BotUtils#botOwners} are always considered owners, so a new database still has an owner.
+ */
+public final class DevRoster {
+
+	private static final Logger logger = LogManager.getLogger("DevRoster");
+
+	private DevRoster(){}
+
+	private static volatile Snapshot snapshot = Snapshot.of(Collections.emptyList());
+	private static Disposable refresher = Disposables.disposed();
+
+	/**
+	 * An immutable open addressing hash table of devs by user ID.
+	 */
+	private static final class Snapshot {
+		private final long[] keys;
+		private final DBDev[] values;
+		private final int mask;
+		private final List<DBDev> devs;
+
+		private Snapshot(@NonNull List<DBDev> devs){
+			int capacity = Integer.highestOneBit(Math.max(4, devs.size() * 2 - 1)) << 1;
+			this.keys = new long[capacity];
+			this.values = new DBDev[capacity];
+			this.mask = capacity - 1;
+			for(DBDev dev : devs){
+				int slot = slot(dev.getId().asLong());
+				values[slot] = dev;
+				keys[slot] = dev.getId().asLong();
+			}
+			this.devs = devs;
+		}
+
+		@NonNull
+		static Snapshot of(@NonNull List<DBDev> devs){
+			DBDev[] sorted = devs.toArray(new DBDev[0]);
+			Arrays.sort(sorted, Comparator.comparingLong(dev -> dev.getId().asLong()));
+			return new Snapshot(Collections.unmodifiableList(Arrays.asList(sorted)));
+		}
+
+		/**
+		 * @return The slot containing {@code userId}, or the empty slot it would get stored in
+		 */
+		private int slot(long userId){
+			int slot = (int)(userId ^ (userId >>> 32)) * 0x9E3779B9 & mask;
+			while(values[slot] != null && keys[slot] != userId) slot = (slot + 1) & mask;
+			return slot;
+		}
+
+		@Nullable
+		DBDev get(long userId){
+			return values[slot(userId)];
+		}
+	}
+
+	/**
+	 * Loads the roster and keeps refreshing it until {@link #stop()} gets called.
+	 *
+	 * @return A {@link Mono} completing once the roster got loaded for the first time
+	 */
+	@NonNull
+	static Mono<Void> start(){
+		return refresh().doOnSuccess(nothing -> {
+			refresher.dispose();
+			refresher = Flux.merge(
+					Flux.interval(Credentials.DEV_ROSTER_REFRESH).map(tick -> true),
+					DataHandler.getInvalidations().map(invalidation -> invalidation.getKind() == Invalidation.Kind.DEV)
+			)
+					.filter(refresh -> refresh)
+					.onBackpressureDrop()
+					.concatMap(refresh -> tryRefresh(), 1)
+					.subscribe();
+		});
+	}
+
+	static void stop(){
+		refresher.dispose();
+	}
+
+	/**
+	 * Loads the whole devs table and replaces the roster with it.
+	 *
+	 * @return A {@link Mono} completing once the new roster is in use
+	 */
+	@NonNull
+	public static Mono<Void> refresh(){
+		return DataHandler.getAllDevs()
+				.collectList()
+				.doOnNext(devs -> {
+					snapshot = Snapshot.of(devs);
+					logger.debug("Loaded {} devs", devs.size());
+				})
+				.then();
+	}
+
+	/**
+	 * Like {@link #refresh()}, but keeps the current roster if the devs could not be loaded, for changes that already
+	 * got stored and should not fail because of the roster. The next periodic refresh picks them up.
+	 *
+	 * @return A {@link Mono} completing once the new roster is in use or the refresh failed
+	 */
+	@NonNull
+	static Mono<Void> tryRefresh(){
+		return refresh().onErrorResume(err -> {
+			logger.warn("Could not refresh dev roster", err);
+			return Mono.empty();
+		});
+	}
+
+	/**
+	 * @param userId The ID of the user
+	 * @return The stored dev, {@code null} if the user is no dev
+	 */
+	@Nullable
+	public static DBDev getDev(@NonNull Snowflake userId){
+		return snapshot.get(userId.asLong());
+	}
+
+	/**
+	 * @param userId The ID of the user
+	 * @return Whether the user is a bot owner, either stored in the devs table or listed in {@link BotUtils#botOwners}
+	 */
+	public static boolean isOwner(@NonNull Snowflake userId){
+		DBDev dev = snapshot.get(userId.asLong());
+		return dev != null && dev.isOwner() || BotUtils.botOwners.contains(userId);
+	}
+
+	/**
+	 * @param userId The ID of the user
+	 * @return Whether the user is a dev or a bot owner
+	 */
+	public static boolean isDev(@NonNull Snowflake userId){
+		DBDev dev = snapshot.get(userId.asLong());
+		return dev != null && (dev.isDev() || dev.isOwner()) || BotUtils.botOwners.contains(userId);
+	}
+
+	/**
+	 * @return All stored devs ordered by ID, without the ones only listed in {@link BotUtils#botOwners}
+	 */
+	@NonNull
+	public static List<DBDev> getDevs(){
+		return snapshot.devs;
+	}
+
+}
@@ -14,13 +14,15 @@ import discord4j.core.object.entity.Member;
 import discord4j.core.object.entity.Role;
 import discord4j.core.object.entity.channel.GuildChannel;
 import discord4j.core.object.entity.channel.TextChannel;
-import discord4j.core.util.PermissionUtil;
+import discord4j.rest.util.Permission;
 import discord4j.rest.util.PermissionSet;
+import icu.taminaminam.spideybot.utils.LongObjectMap;
 import reactor.core.publisher.Mono;
 import reactor.util.annotation.NonNull;
 import reactor.util.annotation.Nullable;
 
 import java.util.*;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -48,7 +50,7 @@ public class DiscordCache {
 				client.on(NewsChannelDeleteEvent.class).map(NewsChannelDeleteEvent::getChannel).doOnNext(DiscordCache::removeChannel),
 				client.on(StoreChannelDeleteEvent.class).map(StoreChannelDeleteEvent::getChannel).doOnNext(DiscordCache::removeChannel),
 				
-				client.on(MemberChunkEvent.class).map(MemberChunkEvent::getMembers).doOnNext(members -> members.forEach(DiscordCache::addMember)),
+				client.on(MemberChunkEvent.class).map(MemberChunkEvent::getMembers).doOnNext(DiscordCache::addMembers),
 				client.on(MemberJoinEvent.class).map(MemberJoinEvent::getMember).doOnNext(DiscordCache::addMember),
 				client.on(MemberUpdateEvent.class).doOnNext(event -> addMember(event.getGuildId(), event.getMemberId(), event.getCurrentRoles())),
 				client.on(MemberLeaveEvent.class).doOnNext(event -> removeMember(event.getGuildId(), event.getUser().getId())),
@@ -65,7 +67,50 @@ public class DiscordCache {
 		);
 	}
 	
-	private static final Map<Long, MinimalGuild> guilds = new HashMap<>();
+	private static final int SEGMENTS = 64;
+	
+	/**
+	 * The cached guilds, split into {@link #SEGMENTS} tables by guild ID. A table only changes when a guild gets
+	 * added or removed, which creates a new table for the segment, so reading one never needs a lock.
+	 */
+	private static final Segment[] segments = new Segment[SEGMENTS];
+	static {
+		for(int i = 0; i < SEGMENTS; i++) segments[i] = new Segment();
+	}
+	
+	private static final class Segment {
+		private volatile LongObjectMap<GuildRef> guilds = new LongObjectMap<>();
+	}
+	
+	/**
+	 * The latest snapshot of a guild. Snapshots are never changed, event handlers build the next one from the current
+	 * and swap it in, so readers never see a half applied event and can keep using a snapshot for as long as they like.
+	 */
+	private static final class GuildRef {
+		private volatile MinimalGuild snapshot;
+		private GuildRef(@NonNull MinimalGuild snapshot){
+			this.snapshot = snapshot;
+		}
+		/**
+		 * Concurrent updates of the same guild are applied one after another.
+		 */
+		private synchronized void update(@NonNull UnaryOperator<MinimalGuild> change){
+			snapshot = change.apply(snapshot);
+		}
+	}
+	
+	/**
+	 * @return Bits of the snowflake that are spread well enough to pick a table by
+	 */
+	private static int spread(long snowflake){
+		// the lowest bits of a snowflake are a per process counter, the shift mixes in the worker and timestamp bits
+		return (int)(snowflake ^ (snowflake >>> 22));
+	}
+	
+	@NonNull
+	private static Segment segmentOf(long guildId){
+		return segments[spread(guildId) & (SEGMENTS - 1)];
+	}
 	
 	/**
 	 * Gets the cached {@link MinimalGuild}.
@@ -75,182 +120,636 @@ public class DiscordCache {
 	 */
 	@NonNull
 	public static Optional<MinimalGuild> getGuild(@NonNull Snowflake guildId){
-		return Optional.ofNullable(guilds.get(guildId.asLong()));
+		GuildRef ref = segmentOf(guildId.asLong()).guilds.get(guildId.asLong());
+		return ref == null ? Optional.empty() : Optional.of(ref.snapshot);
+	}
+	
+	/**
+	 * Replaces the snapshot of a cached guild, nothing happens if the guild is not cached.
+	 *
+	 * @param guildId The ID of the guild
+	 * @param change  Creates the next snapshot from the current one
+	 */
+	private static void update(@NonNull Snowflake guildId, @NonNull UnaryOperator<MinimalGuild> change){
+		GuildRef ref = segmentOf(guildId.asLong()).guilds.get(guildId.asLong());
+		if(ref != null) ref.update(change);
+	}
+	
+	@NonNull
+	private static long[] toSortedArray(@NonNull Set<Snowflake> ids){
+		long[] array = new long[ids.size()];
+		int i = 0;
+		for(Snowflake id : ids) array[i++] = id.asLong();
+		Arrays.sort(array);
+		return array;
 	}
 	
 	private static void addChannel(@NonNull GuildChannel channel){
-		getGuild(channel.getGuildId()).ifPresent(guild -> guild.addChannel(new MinimalChannel(channel.getId(), channel.getPermissionOverwrites(), channel instanceof TextChannel && ((TextChannel)channel).isNsfw())));
+		Set<ExtendedPermissionOverwrite> overwrites = channel.getPermissionOverwrites();
+		long everyoneAllow = 0;
+		long everyoneDeny = 0;
+		List<PermissionOverwrite> roleOverwrites = new ArrayList<>();
+		List<PermissionOverwrite> memberOverwrites = new ArrayList<>();
+		for(PermissionOverwrite overwrite : overwrites){
+			if(overwrite.getType() == PermissionOverwrite.Type.MEMBER) memberOverwrites.add(overwrite);
+			else if(overwrite.getTargetId().equals(channel.getGuildId())){
+				everyoneAllow = overwrite.getAllowed().getRawValue();
+				everyoneDeny = overwrite.getDenied().getRawValue();
+			}
+			else roleOverwrites.add(overwrite);
+		}
+		memberOverwrites.sort(Comparator.comparingLong(overwrite -> overwrite.getTargetId().asLong()));
+		MinimalChannel minimalChannel = new MinimalChannel(channel.getId().asLong(), channel instanceof TextChannel && ((TextChannel)channel).isNsfw(),
+				everyoneAllow, everyoneDeny,
+				roleOverwrites.stream().mapToLong(overwrite -> overwrite.getTargetId().asLong()).toArray(),
+				roleOverwrites.stream().mapToLong(overwrite -> overwrite.getAllowed().getRawValue()).toArray(),
+				roleOverwrites.stream().mapToLong(overwrite -> overwrite.getDenied().getRawValue()).toArray(),
+				memberOverwrites.stream().mapToLong(overwrite -> overwrite.getTargetId().asLong()).toArray(),
+				memberOverwrites.stream().mapToLong(overwrite -> overwrite.getAllowed().getRawValue()).toArray(),
+				memberOverwrites.stream().mapToLong(overwrite -> overwrite.getDenied().getRawValue()).toArray(),
+				0
+		);
+		update(channel.getGuildId(), guild -> guild.withChannel(minimalChannel));
 	}
 	private static void removeChannel(@NonNull GuildChannel channel){
-		getGuild(channel.getGuildId()).ifPresent(guild -> guild.removeChannel(channel.getId()));
+		update(channel.getGuildId(), guild -> guild.withoutChannel(channel.getId().asLong()));
 	}
 	public static void addMember(@NonNull Member member){
 		addMember(member.getGuildId(), member.getId(), member.getRoleIds());
 	}
 	private static void addMember(@NonNull Snowflake guildId, @NonNull Snowflake userId, @NonNull Set<Snowflake> roleIds){
-		getGuild(guildId).ifPresent(guild -> guild.addMember(new MinimalMember(userId, roleIds)));
+		GuildRef ref = segmentOf(guildId.asLong()).guilds.get(guildId.asLong());
+		if(ref == null) return;
+		long[] sorted = toSortedArray(roleIds);
+		// this runs for every message, most of the time nothing changed and the guild does not need to get locked
+		if(Arrays.equals(ref.snapshot.members.get(userId.asLong()), sorted)) return;
+		LongObjectMap<long[]> added = new LongObjectMap<>(1);
+		added.put(userId.asLong(), sorted);
+		ref.update(guild -> guild.withMembers(added));
+	}
+	/**
+	 * Adds all members with a single new snapshot per guild instead of one per member.
+	 */
+	private static void addMembers(@NonNull Collection<Member> members){
+		members.stream()
+				.collect(Collectors.groupingBy(Member::getGuildId))
+				.forEach((guildId, guildMembers) -> {
+					LongObjectMap<long[]> added = new LongObjectMap<>(guildMembers.size());
+					guildMembers.forEach(member -> added.put(member.getId().asLong(), toSortedArray(member.getRoleIds())));
+					update(guildId, guild -> guild.withMembers(added));
+				});
 	}
 	private static void removeMember(@NonNull Snowflake guildId, @NonNull Snowflake userId){
-		getGuild(guildId).ifPresent(guild -> guild.removeMember(userId));
+		update(guildId, guild -> guild.withoutMember(userId.asLong()));
+	}
+	@NonNull
+	private static MinimalRole toMinimalRole(@NonNull Role role){
+		return new MinimalRole(role.getRawPosition(), role.getGuildId().asLong(), role.getId().asLong(), role.getPermissions().getRawValue(), 0);
 	}
 	private static void addRole(@NonNull Role role){
-		getGuild(role.getGuildId()).ifPresent(guild -> guild.addRole(new MinimalRole(role.getRawPosition(), role.getGuildId(), role.getId(), role.getPermissions())));
+		MinimalRole minimalRole = toMinimalRole(role);
+		update(role.getGuildId(), guild -> guild.withRoles(Collections.singletonList(minimalRole)));
 	}
 	private static void removeRole(@NonNull Snowflake guildId, @NonNull Snowflake roleId){
-		getGuild(guildId).ifPresent(guild -> guild.removeRole(roleId));
+		update(guildId, guild -> guild.withoutRole(roleId.asLong()));
 	}
 	private static void removeGuild(@NonNull Snowflake guildId){
-		guilds.remove(guildId.asLong());
+		Segment segment = segmentOf(guildId.asLong());
+		synchronized(segment){
+			if(!segment.guilds.containsKey(guildId.asLong())) return;
+			LongObjectMap<GuildRef> copy = segment.guilds.copy();
+			copy.remove(guildId.asLong());
+			segment.guilds = copy;
+		}
+	}
+	private static void putGuild(@NonNull MinimalGuild guild){
+		Segment segment = segmentOf(guild.id);
+		synchronized(segment){
+			GuildRef ref = segment.guilds.get(guild.id);
+			if(ref != null){
+				ref.update(previous -> guild);
+				return;
+			}
+			LongObjectMap<GuildRef> copy = segment.guilds.copy();
+			copy.put(guild.id, new GuildRef(guild));
+			segment.guilds = copy;
+		}
 	}
 	@NonNull private static Mono<Void> addGuild(@NonNull Guild guild){
-		MinimalGuild minimalGuild = new MinimalGuild(
-				guild.getId(),
-				guild.getOwnerId(),
-				new HashMap<>(),
-				new HashMap<>(),
-				new HashMap<>()
-		);
+		MinimalGuild minimalGuild = new MinimalGuild(guild.getId().asLong(), guild.getOwnerId().asLong());
 		return Mono.when(
 				guild.getSelfMember().doOnNext(DiscordCache::addMember),
-				Mono.fromRunnable(() -> guilds.put(guild.getId().asLong(), minimalGuild)),
-				guild.getRoles().doOnNext(role -> minimalGuild.addRole(new MinimalRole(role.getRawPosition(), role.getGuildId(), role.getId(), role.getPermissions())))
+				Mono.fromRunnable(() -> putGuild(minimalGuild)),
+				guild.getRoles()
+						.map(DiscordCache::toMinimalRole)
+						.collectList()
+						.doOnNext(roles -> update(guild.getId(), cached -> cached.withRoles(roles)))
 		);
 	}
 	
+	/**
+	 * The order of roles in the role hierarchy, lowest first
+	 */
+	private static final Comparator<MinimalRole> ROLE_ORDER = Comparator.comparingInt(MinimalRole::getRawPosition).thenComparingLong(role -> role.id);
+	
+	/**
+	 * The distinct role sets of the members of a guild. Most members of a big guild have one of a few role
+	 * combinations, so members with the same roles share one array. Only used while holding the lock of the guild's
+	 * {@link GuildRef}, the arrays themselves are never changed.
+	 */
+	private static final class RoleSets {
+		/**
+		 * Stops sharing arrays with old members instead of keeping combinations nobody has anymore forever
+		 */
+		private static final int MAX_SETS = 4096;
+		private static final long[] EMPTY = new long[0];
+		private final Map<RoleSetKey, long[]> sets = new HashMap<>();
+		
+		/**
+		 * @param roleIds Sorted role IDs
+		 * @return An array with the same role IDs, shared with every other member having these roles
+		 */
+		@NonNull
+		private long[] intern(@NonNull long[] roleIds){
+			if(roleIds.length == 0) return EMPTY;
+			long[] shared = sets.get(new RoleSetKey(roleIds));
+			if(shared != null) return shared;
+			if(sets.size() >= MAX_SETS) sets.clear();
+			sets.put(new RoleSetKey(roleIds), roleIds);
+			return roleIds;
+		}
+	}
+	
+	private static final class RoleSetKey {
+		private final long[] roleIds;
+		private final int hash;
+		private RoleSetKey(@NonNull long[] roleIds){
+			this.roleIds = roleIds;
+			this.hash = Arrays.hashCode(roleIds);
+		}
+		@Override public int hashCode(){ return hash; }
+		@Override public boolean equals(Object other){
+			return other instanceof RoleSetKey && Arrays.equals(roleIds, ((RoleSetKey)other).roleIds);
+		}
+	}
+	
+	/**
+	 * The sorted role IDs of the members of a guild by member ID, split into {@link #CHUNKS} tables by member ID so a
+	 * change only copies the table of the changed member. Never changed once created, like the snapshots holding it.
+	 */
+	private static final class MemberTable {
+		private static final int CHUNKS = 64;
+		private static final MemberTable EMPTY = new MemberTable(Collections.nCopies(CHUNKS, null), 0);
+		/**
+		 * {@code null} for chunks without members
+		 */
+		private final List<LongObjectMap<long[]>> chunks;
+		private final int size;
+		private MemberTable(@NonNull List<LongObjectMap<long[]>> chunks, int size){
+			this.chunks = chunks;
+			this.size = size;
+		}
+		private static int chunkOf(long memberId){
+			return spread(memberId) & (CHUNKS - 1);
+		}
+		@Nullable
+		private long[] get(long memberId){
+			LongObjectMap<long[]> chunk = chunks.get(chunkOf(memberId));
+			return chunk == null ? null : chunk.get(memberId);
+		}
+		/**
+		 * @param added    The sorted role IDs of the added members by member ID
+		 * @param roleSets Shares the arrays of members with the same roles
+		 * @return The table with the added members, this table if all of them are cached with the same roles already
+		 */
+		@NonNull
+		private MemberTable with(@NonNull LongObjectMap<long[]> added, @NonNull RoleSets roleSets){
+			boolean[] changed = new boolean[CHUNKS];
+			boolean[] anyChanged = {false};
+			added.forEach((memberId, roleIds) -> {
+				if(!Arrays.equals(get(memberId), roleIds)) changed[chunkOf(memberId)] = anyChanged[0] = true;
+			});
+			if(!anyChanged[0]) return this;
+			List<LongObjectMap<long[]>> copy = new ArrayList<>(chunks);
+			for(int i = 0; i < CHUNKS; i++){
+				if(changed[i]) copy.set(i, chunks.get(i) == null ? new LongObjectMap<>() : chunks.get(i).copy());
+			}
+			int[] size = {this.size};
+			added.forEach((memberId, roleIds) -> {
+				int chunk = chunkOf(memberId);
+				if(changed[chunk] && copy.get(chunk).put(memberId, roleSets.intern(roleIds)) == null) size[0]++;
+			});
+			return new MemberTable(copy, size[0]);
+		}
+		@NonNull
+		private MemberTable without(long memberId){
+			int chunk = chunkOf(memberId);
+			LongObjectMap<long[]> members = chunks.get(chunk);
+			if(members == null || !members.containsKey(memberId)) return this;
+			List<LongObjectMap<long[]>> copy = new ArrayList<>(chunks);
+			LongObjectMap<long[]> changed = members.copy();
+			changed.remove(memberId);
+			copy.set(chunk, changed.isEmpty() ? null : changed);
+			return new MemberTable(copy, size - 1);
+		}
+	}
+	
+	/**
+	 * Remembers computed permissions of the members of a guild, shared by all snapshots of the guild. Every snapshot
+	 * has a higher version than the one before, and roles, channels and the guild itself are stamped with the version
+	 * in which they last changed in a way that affects permissions. A remembered value is valid for a snapshot as long
+	 * as nothing it was computed from got stamped after it, and as long as the member still has the same role array.
+	 * <p>
+	 * Values are kept in a fixed table where each member and channel has one slot, a collision just replaces the
+	 * previous value. The entries are immutable, so the table is read and written without locks.
+	 */
+	private static final class PermissionMemo {
+		private static final int SLOTS = 256;
+		private final Memo[] slots = new Memo[SLOTS];
+		
+		private static int slot(long memberId, long channelId){
+			return (int)((memberId * 31 + channelId) * 0x9E3779B97F4A7C15L >>> 56) & (SLOTS - 1);
+		}
+		@Nullable
+		private Memo get(long memberId, long channelId){
+			Memo memo = slots[slot(memberId, channelId)];
+			return memo != null && memo.memberId == memberId && memo.channelId == channelId ? memo : null;
+		}
+		private void put(@NonNull Memo memo){
+			slots[slot(memo.memberId, memo.channelId)] = memo;
+		}
+	}
+	
+	private static final class Memo {
+		private final long memberId;
+		/**
+		 * {@code 0} for base permissions
+		 */
+		private final long channelId;
+		private final long[] roleIds;
+		private final long version;
+		private final long permissions;
+		private Memo(long memberId, long channelId, @NonNull long[] roleIds, long version, long permissions){
+			this.memberId = memberId;
+			this.channelId = channelId;
+			this.roleIds = roleIds;
+			this.version = version;
+			this.permissions = permissions;
+		}
+	}
+	
 	public static class MinimalRole {
 		private final int position;
-		private final Snowflake guildId;
-		private final Snowflake id;
-		private final PermissionSet permissions;
-		private MinimalRole(int position, @NonNull Snowflake guildId, @NonNull Snowflake id, @NonNull PermissionSet permissions){
+		private final long guildId;
+		private final long id;
+		private final long permissions;
+		/**
+		 * The version of the guild in which the permissions of the role last changed, see {@link PermissionMemo}
+		 */
+		private final long version;
+		private MinimalRole(int position, long guildId, long id, long permissions, long version){
 			this.position = position;
 			this.guildId = guildId;
 			this.id = id;
 			this.permissions = permissions;
+			this.version = version;
+		}
+		@NonNull
+		private MinimalRole at(long version){
+			return new MinimalRole(position, guildId, id, permissions, version);
 		}
 		public int getRawPosition(){ return position; }
-		@NonNull public Snowflake getGuildId(){ return guildId; }
-		@NonNull public Snowflake getId(){ return id; }
-		@NonNull public PermissionSet getPermissions(){ return permissions; }
+		@NonNull public Snowflake getGuildId(){ return Snowflake.of(guildId); }
+		@NonNull public Snowflake getId(){ return Snowflake.of(id); }
+		@NonNull public PermissionSet getPermissions(){ return PermissionSet.of(permissions); }
+		/**
+		 * @return Whether this is the {@code @everyone} role, which every member has
+		 */
+		public boolean isEveryone(){ return id == guildId; }
 	}
 	
+	/**
+	 * An immutable snapshot of a guild. Changing it creates a new snapshot that shares every table but the changed one.
+	 */
 	public static class MinimalGuild {
-		private final Snowflake id;
-		private final Snowflake ownerId;
-		private final Map<Long, MinimalRole> roles;
-		private final Map<Long, MinimalChannel> channels;
-		private final Map<Long, MinimalMember> members;
-		private MinimalGuild(@NonNull Snowflake id, @NonNull Snowflake ownerId, @Nullable Map<Long, MinimalRole> roles,
-												 @Nullable Map<Long, MinimalChannel> channels, @Nullable Map<Long, MinimalMember> members){
+		private final long id;
+		private final long ownerId;
+		private final long version;
+		/**
+		 * The version in which something changed that can affect the permissions of every member, like the order of
+		 * the roles
+		 */
+		private final long guildVersion;
+		private final LongObjectMap<MinimalRole> roles;
+		/**
+		 * All roles in {@link #ROLE_ORDER}
+		 */
+		private final MinimalRole[] orderedRoles;
+		/**
+		 * The channels, with their role overwrites ordered like {@link #orderedRoles}
+		 */
+		private final LongObjectMap<MinimalChannel> channels;
+		/**
+		 * See {@link RoleSets}
+		 */
+		private final MemberTable members;
+		/**
+		 * Shared by all snapshots of the guild
+		 */
+		private final RoleSets roleSets;
+		/**
+		 * Shared by all snapshots of the guild
+		 */
+		private final PermissionMemo memo;
+		MinimalGuild(long id, long ownerId){
+			this(id, ownerId, 0, 0, new LongObjectMap<>(), new MinimalRole[0], new LongObjectMap<>(), MemberTable.EMPTY, new RoleSets(), new PermissionMemo());
+		}
+		private MinimalGuild(long id, long ownerId, long version, long guildVersion, @NonNull LongObjectMap<MinimalRole> roles, @NonNull MinimalRole[] orderedRoles,
+		                     @NonNull LongObjectMap<MinimalChannel> channels, @NonNull MemberTable members, @NonNull RoleSets roleSets,
+		                     @NonNull PermissionMemo memo){
 			this.id = id;
 			this.ownerId = ownerId;
-			this.roles = roles == null ? new HashMap<>() : roles;
-			this.channels = channels == null ? new HashMap<>() : channels;
-			this.members = members == null ? new HashMap<>() : members;
-			this.members.values().forEach(member -> member.guild = this);
+			this.version = version;
+			this.guildVersion = guildVersion;
+			this.roles = roles;
+			this.orderedRoles = orderedRoles;
+			this.channels = channels;
+			this.members = members;
+			this.roleSets = roleSets;
+			this.memo = memo;
 		}
-		@NonNull public Snowflake getId(){ return id; }
-		@NonNull public Snowflake getOwnerId(){ return ownerId; }
+		@NonNull public Snowflake getId(){ return Snowflake.of(id); }
+		@NonNull public Snowflake getOwnerId(){ return Snowflake.of(ownerId); }
 		/**
-		 *
-		 * @return
+		 * @return All cached roles, lowest first
 		 */
 		@NonNull public Stream<MinimalRole> getRoles(){
-			return roles.values().stream()
-					.sorted(Comparator.comparing(MinimalRole::getRawPosition).thenComparing(MinimalRole::getId));
+			return Arrays.stream(orderedRoles);
 		}
 		@NonNull public Optional<MinimalChannel> getChannel(@NonNull Snowflake channelId){
 			return Optional.ofNullable(channels.get(channelId.asLong()));
 		}
+		/**
+		 * @param memberId The ID of the member
+		 * @return The member as of this snapshot, so everything read through it is consistent
+		 */
 		@NonNull public Optional<MinimalMember> getMember(@NonNull Snowflake memberId){
-			return Optional.ofNullable(members.get(memberId.asLong()));
+			long[] roleIds = members.get(memberId.asLong());
+			return roleIds == null ? Optional.empty() : Optional.of(new MinimalMember(this, memberId.asLong(), roleIds));
 		}
 		@NonNull public Optional<MinimalRole> getRole(@NonNull Snowflake roleId){
 			return Optional.ofNullable(roles.get(roleId.asLong()));
 		}
-		private void addMember(@NonNull MinimalMember member){
-			member.guild = this;
-			members.put(member.getId().asLong(), member);
+		/**
+		 * @return The amount of cached members
+		 */
+		public int getMemberCount(){
+			return members.size;
+		}
+		/**
+		 * @param added The sorted role IDs of the added members by member ID, the arrays must not be changed afterwards
+		 * @return The snapshot with the added members, this snapshot if they are all cached with the same roles already
+		 */
+		@NonNull
+		MinimalGuild withMembers(@NonNull LongObjectMap<long[]> added){
+			MemberTable copy = members.with(added, roleSets);
+			if(copy == members) return this;
+			return new MinimalGuild(id, ownerId, version + 1, guildVersion, roles, orderedRoles, channels, copy, roleSets, memo);
+		}
+		/**
+		 * Moves the added roles to their place in {@link #orderedRoles}. The role overwrites of all channels only get
+		 * ordered again if that changed the order, not for changed permissions. Changed permissions of a role only stamp
+		 * the role, unless it is {@code @everyone}.
+		 */
+		@NonNull
+		private MinimalGuild withRoles(@NonNull Collection<MinimalRole> added){
+			LongObjectMap<MinimalRole> copy = roles.copy();
+			List<MinimalRole> ordered = new ArrayList<>(Arrays.asList(orderedRoles));
+			boolean reordered = false;
+			boolean everyoneChanged = false;
+			for(MinimalRole addedRole : added){
+				MinimalRole previous = copy.get(addedRole.id);
+				boolean permissionsChanged = previous == null || previous.permissions != addedRole.permissions;
+				MinimalRole role = addedRole.at(permissionsChanged ? version + 1 : previous.version);
+				copy.put(role.id, role);
+				everyoneChanged |= permissionsChanged && role.isEveryone();
+				if(previous != null && previous.position == role.position){
+					ordered.set(Collections.binarySearch(ordered, previous, ROLE_ORDER), role);
+					continue;
+				}
+				if(previous != null) ordered.remove(Collections.binarySearch(ordered, previous, ROLE_ORDER));
+				ordered.add(-Collections.binarySearch(ordered, role, ROLE_ORDER) - 1, role);
+				reordered = true;
+			}
+			return new MinimalGuild(id, ownerId, version + 1, reordered || everyoneChanged ? version + 1 : guildVersion, copy, ordered.toArray(new MinimalRole[0]),
+					reordered ? reorderChannels(copy) : channels, members, roleSets, memo);
+		}
+		@NonNull
+		private MinimalGuild withChannel(@NonNull MinimalChannel channel){
+			LongObjectMap<MinimalChannel> copy = channels.copy();
+			copy.put(channel.id, channel.orderedBy(roles, version + 1));
+			return new MinimalGuild(id, ownerId, version + 1, guildVersion, roles, orderedRoles, copy, members, roleSets, memo);
 		}
-		private void addRole(@NonNull MinimalRole role){
-			roles.put(role.getId().asLong(), role);
+		@NonNull
+		private MinimalGuild withoutMember(long userId){
+			MemberTable copy = members.without(userId);
+			if(copy == members) return this;
+			return new MinimalGuild(id, ownerId, version + 1, guildVersion, roles, orderedRoles, channels, copy, roleSets, memo);
 		}
-		private void addChannel(@NonNull MinimalChannel channel){
-			channels.put(channel.getId().asLong(), channel);
+		@NonNull
+		private MinimalGuild withoutRole(long roleId){
+			MinimalRole role = roles.get(roleId);
+			if(role == null) return this;
+			LongObjectMap<MinimalRole> copy = roles.copy();
+			copy.remove(roleId);
+			List<MinimalRole> ordered = new ArrayList<>(Arrays.asList(orderedRoles));
+			ordered.remove(Collections.binarySearch(ordered, role, ROLE_ORDER));
+			// members keep the ID of a deleted role until they get updated, so the role cannot be stamped
+			return new MinimalGuild(id, ownerId, version + 1, version + 1, copy, ordered.toArray(new MinimalRole[0]), reorderChannels(copy), members, roleSets, memo);
 		}
-		private void removeMember(@NonNull Snowflake userId){
-			members.remove(userId.asLong());
+		@NonNull
+		private MinimalGuild withoutChannel(long channelId){
+			if(!channels.containsKey(channelId)) return this;
+			LongObjectMap<MinimalChannel> copy = channels.copy();
+			copy.remove(channelId);
+			return new MinimalGuild(id, ownerId, version + 1, guildVersion, roles, orderedRoles, copy, members, roleSets, memo);
 		}
-		private void removeRole(@NonNull Snowflake roleId){
-			roles.remove(roleId.asLong());
+		@NonNull
+		private LongObjectMap<MinimalChannel> reorderChannels(@NonNull LongObjectMap<MinimalRole> roles){
+			LongObjectMap<MinimalChannel> reordered = new LongObjectMap<>(channels.size());
+			channels.forEach((channelId, channel) -> reordered.put(channelId, channel.orderedBy(roles, channel.version)));
+			return reordered;
 		}
-		private void removeChannel(@NonNull Snowflake channelId){
-			channels.remove(channelId.asLong());
+		/**
+		 * @param memo    A remembered value
+		 * @param roleIds The current role IDs of the member
+		 * @param channel The channel the value is for, {@code null} for base permissions
+		 * @return Whether the value is still correct in this snapshot
+		 */
+		private boolean isValid(@NonNull Memo memo, @NonNull long[] roleIds, @Nullable MinimalChannel channel){
+			if(memo.roleIds != roleIds || memo.version > version || guildVersion > memo.version) return false;
+			if(channel != null && channel.version > memo.version) return false;
+			for(long roleId : roleIds){
+				MinimalRole role = roles.get(roleId);
+				if(role != null && role.version > memo.version) return false;
+			}
+			return true;
 		}
 	}
 	
+	/**
+	 * A channel with its permission overwrites compiled into raw permission values. Role overwrites are ordered like
+	 * the roles they belong to, member overwrites by member ID.
+	 */
 	public static class MinimalChannel {
-		private final Snowflake id;
-		private final Set<ExtendedPermissionOverwrite> permissionOverwrites;
+		private final long id;
 		private final boolean nsfw;
-		private MinimalChannel(@NonNull Snowflake id, @NonNull Set<ExtendedPermissionOverwrite> permissionOverwrites, boolean nsfw){
+		private final long everyoneAllow;
+		private final long everyoneDeny;
+		private final long[] roleIds;
+		private final long[] roleAllows;
+		private final long[] roleDenies;
+		private final long[] memberIds;
+		private final long[] memberAllows;
+		private final long[] memberDenies;
+		/**
+		 * The version of the guild in which the channel last changed, see {@link PermissionMemo}
+		 */
+		private final long version;
+		private MinimalChannel(long id, boolean nsfw, long everyoneAllow, long everyoneDeny, @NonNull long[] roleIds, @NonNull long[] roleAllows,
+		                       @NonNull long[] roleDenies, @NonNull long[] memberIds, @NonNull long[] memberAllows, @NonNull long[] memberDenies, long version){
 			this.id = id;
-			this.permissionOverwrites = permissionOverwrites;
 			this.nsfw = nsfw;
+			this.everyoneAllow = everyoneAllow;
+			this.everyoneDeny = everyoneDeny;
+			this.roleIds = roleIds;
+			this.roleAllows = roleAllows;
+			this.roleDenies = roleDenies;
+			this.memberIds = memberIds;
+			this.memberAllows = memberAllows;
+			this.memberDenies = memberDenies;
+			this.version = version;
 		}
-		@NonNull public Snowflake getId(){ return id; }
-		@NonNull public Set<ExtendedPermissionOverwrite> getPermissionOverwrites(){ return permissionOverwrites; }
+		@NonNull public Snowflake getId(){ return Snowflake.of(id); }
 		public boolean isNsfw() { return nsfw; }
+		/**
+		 * @param roles   The roles of the guild
+		 * @param version The version to stamp the channel with
+		 * @return This channel with its role overwrites in {@link #ROLE_ORDER}, overwrites of roles that are not cached
+		 * come first
+		 */
+		@NonNull
+		private MinimalChannel orderedBy(@NonNull LongObjectMap<MinimalRole> roles, long version){
+			Integer[] order = new Integer[roleIds.length];
+			for(int i = 0; i < order.length; i++) order[i] = i;
+			Arrays.sort(order, Comparator.<Integer>comparingInt(i -> {
+				MinimalRole role = roles.get(roleIds[i]);
+				return role == null ? Integer.MIN_VALUE : role.position;
+			}).thenComparingLong(i -> roleIds[i]));
+			long[] orderedIds = new long[order.length];
+			long[] orderedAllows = new long[order.length];
+			long[] orderedDenies = new long[order.length];
+			for(int i = 0; i < order.length; i++){
+				orderedIds[i] = roleIds[order[i]];
+				orderedAllows[i] = roleAllows[order[i]];
+				orderedDenies[i] = roleDenies[order[i]];
+			}
+			return new MinimalChannel(id, nsfw, everyoneAllow, everyoneDeny, orderedIds, orderedAllows, orderedDenies, memberIds, memberAllows, memberDenies, version);
+		}
 	}
 	
+	/**
+	 * A member as of the {@link MinimalGuild} snapshot it got read from.
+	 */
 	public static class MinimalMember {
-		private MinimalGuild guild;
-		private final Snowflake id;
-		private final Set<Snowflake> roleIds;
-		private MinimalMember(@NonNull Snowflake id, @NonNull Set<Snowflake> roleIds){
-			this.guild = null;
+		private static final long ALL_PERMISSIONS = PermissionSet.all().getRawValue();
+		private static final long ADMINISTRATOR = Permission.ADMINISTRATOR.getValue();
+		
+		private final MinimalGuild guild;
+		private final long id;
+		/**
+		 * Sorted and shared with other members, see {@link RoleSets}
+		 */
+		private final long[] roleIds;
+		private MinimalMember(@NonNull MinimalGuild guild, long id, @NonNull long[] roleIds){
+			this.guild = guild;
 			this.id = id;
 			this.roleIds = roleIds;
 		}
 		@NonNull public MinimalGuild getGuild(){ return guild; }
-		@NonNull public Snowflake getId(){ return id; }
+		@NonNull public Snowflake getId(){ return Snowflake.of(id); }
 		/**
-		 *
-		 * @return
+		 * @param roleId The ID of the role
+		 * @return Whether the member has the role, {@code @everyone} does not count
+		 */
+		public boolean hasRole(long roleId){
+			return Arrays.binarySearch(roleIds, roleId) >= 0;
+		}
+		/**
+		 * @return The cached roles of the member including {@code @everyone}, lowest first
 		 */
 		@NonNull public Stream<MinimalRole> getRoles(){
-			return guild.getRoles()
-					.filter(role -> role.getId().equals(role.getGuildId()) || roleIds.contains(role.getId()));
+			return guild.getRoles().filter(role -> role.isEveryone() || hasRole(role.id));
 		}
 		/**
-		 *
-		 * @return
+		 * @return The raw value of {@link #getBasePermissions()}
+		 */
+		public long getRawBasePermissions(){
+			Memo memo = guild.memo.get(id, 0);
+			if(memo != null && guild.isValid(memo, roleIds, null)) return memo.permissions;
+			long permissions = computeBasePermissions();
+			guild.memo.put(new Memo(id, 0, roleIds, guild.version, permissions));
+			return permissions;
+		}
+		private long computeBasePermissions(){
+			if(guild.ownerId == id) return ALL_PERMISSIONS;
+			MinimalRole everyone = guild.roles.get(guild.id);
+			long permissions = everyone == null ? 0 : everyone.permissions;
+			for(long roleId : roleIds){
+				MinimalRole role = guild.roles.get(roleId);
+				if(role != null) permissions |= role.permissions;
+			}
+			return permissions;
+		}
+		/**
+		 * @return The permissions of the member granted by their roles, all if they own the guild
 		 */
 		@NonNull public PermissionSet getBasePermissions(){
-			if(guild.getOwnerId().equals(id)) return PermissionSet.all();
-			return PermissionUtil.computeBasePermissions(PermissionSet.none(), getRoles().map(MinimalRole::getPermissions).collect(Collectors.toList()));
+			return PermissionSet.of(getRawBasePermissions());
 		}
 		/**
+		 * Applies the overwrites of the channel to the base permissions like Discord does: {@code @everyone} first,
+		 * then the roles of the member from the lowest to the highest and the member last.
 		 *
-		 * @param channelId
-		 * @return
+		 * @param channelId The ID of the channel
+		 * @return The raw value of {@link #getEffectivePermissions(Snowflake)}
 		 */
-		@NonNull public PermissionSet getEffectivePermissions(@NonNull Snowflake channelId){
-			if(guild.getOwnerId().equals(id)) return PermissionSet.all();
-			PermissionSet basePermissions = getBasePermissions();
-			List<Snowflake> sortedRoleIds = getRoles().map(MinimalRole::getId).collect(Collectors.toList());
-			MinimalChannel channel = guild.getChannel(channelId).orElse(null);
-			if(channel != null){
-				List<PermissionOverwrite> overwrites = channel.getPermissionOverwrites().stream()
-						.filter(overwrite -> overwrite.getRoleId().map(roleIds::contains).orElse(false))
-						.sorted(Comparator.comparingInt(overwrite -> sortedRoleIds.indexOf(overwrite.getTargetId())))
-						.collect(Collectors.toList());
-				PermissionOverwrite memberOverwrite = channel.getPermissionOverwrites().stream()
-						.filter(overwrite -> overwrite.getMemberId().map(id::equals).orElse(false))
-						.findAny().orElse(null);
-				return PermissionUtil.computePermissions(getBasePermissions(), null, overwrites, memberOverwrite);
+		public long getRawEffectivePermissions(long channelId){
+			MinimalChannel channel = guild.channels.get(channelId);
+			if(channel == null) return getRawBasePermissions();
+			Memo memo = guild.memo.get(id, channelId);
+			if(memo != null && guild.isValid(memo, roleIds, channel)) return memo.permissions;
+			long permissions = computeEffectivePermissions(channel);
+			guild.memo.put(new Memo(id, channelId, roleIds, guild.version, permissions));
+			return permissions;
+		}
+		private long computeEffectivePermissions(@NonNull MinimalChannel channel){
+			long permissions = getRawBasePermissions();
+			if((permissions & ADMINISTRATOR) != 0) return ALL_PERMISSIONS;
+			permissions = permissions & ~channel.everyoneDeny | channel.everyoneAllow;
+			for(int i = 0; i < channel.roleIds.length; i++){
+				if(hasRole(channel.roleIds[i])) permissions = permissions & ~channel.roleDenies[i] | channel.roleAllows[i];
 			}
-			return basePermissions;
+			int member = Arrays.binarySearch(channel.memberIds, id);
+			if(member >= 0) permissions = permissions & ~channel.memberDenies[member] | channel.memberAllows[member];
+			return permissions;
+		}
+		/**
+		 * @param channelId The ID of the channel
+		 * @return The permissions of the member in the channel, the base permissions if the channel is not cached
+		 */
+		@NonNull public PermissionSet getEffectivePermissions(@NonNull Snowflake channelId){
+			return PermissionSet.of(getRawEffectivePermissions(channelId.asLong()));
 		}
 	}
 	
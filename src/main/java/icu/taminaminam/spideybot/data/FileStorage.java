@@ -0,0 +1,236 @@
+package icu.taminaminam.spideybot.data;
+
+import discord4j.common.util.Snowflake;
+import icu.taminaminam.spideybot.commands.PermissionManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A {@link MemoryStorage} that persists every change to an append-only file on the local disk, for deployments with a
+ * single bot process and no database server.
+ * <p>
+ * The file is a sequence of records, each containing the complete new state of one guild, user or dev, or one added
+ * permission. On startup
+ * the file gets replayed and then compacted so it only contains the latest record of every entry.
+ * <p>
+ * Changes are serialized while the map entry is locked, so records of the same entry are queued in the order they
+ * got applied, and written by a single writer thread. No file I/O happens inside the map lock or on the threads of
+ * the callers.
+ */
+public class FileStorage extends MemoryStorage {
+
+	private static final Logger logger = LogManager.getLogger("FileStorage");
+
+	private static final byte GUILD_RECORD = 1;
+	private static final byte USER_RECORD = 2;
+	private static final byte DEV_RECORD = 3;
+	private static final byte PERMISSION_RECORD = 4;
+
+	private final Path file;
+	/**
+	 * Only accessed on {@link #writer}
+	 */
+	@Nullable private DataOutputStream out = null;
+	private final Scheduler writer = Schedulers.newSingle("FileStorage", true);
+	private final Queue<byte[]> records = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param file The file all data is stored in. It gets created if it does not exist.
+	 */
+	FileStorage(@NonNull Path file){
+		super(Duration.ZERO);
+		this.file = file;
+	}
+
+	@NonNull
+	@Override
+	public Mono<Void> initialize(){
+		return Mono.<Void>fromRunnable(() -> {
+			try {
+				if(Files.exists(file)) replay();
+				compact();
+				logger.info("Loaded {} guilds, {} users and {} devs from {}", guilds.size(), users.size(), devs.size(), file);
+			} catch (IOException ex){
+				throw new UncheckedIOException(ex);
+			}
+		}).subscribeOn(writer);
+	}
+
+	@NonNull
+	@Override
+	public Mono<Void> disconnect(){
+		return Mono.<Void>fromRunnable(() -> {
+			try {
+				drain();
+				compact();
+				close();
+			} catch (IOException ex){
+				throw new UncheckedIOException(ex);
+			}
+		}).subscribeOn(writer).doFinally(signal -> writer.dispose());
+	}
+
+	/**
+	 * Reads all records of {@link #file}. A truncated record at the end, e.g. because the process got killed while
+	 * writing it, gets ignored.
+	 */
+	private void replay() throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))){
+			while(true){
+				int type = in.read();
+				if(type == -1) break;
+				Snowflake id = Snowflake.of(in.readLong());
+				if(type == GUILD_RECORD){
+					guilds.put(id.asLong(), new DBGuild(id, in.readUTF(), in.readUTF()));
+				}else if(type == USER_RECORD){
+					users.put(id.asLong(), new DBUser(id, in.readUTF(), in.readUTF()));
+				}else if(type == DEV_RECORD){
+					devs.put(id.asLong(), new DBDev(id, in.readBoolean(), in.readBoolean(), in.readBoolean(), in.readUTF(), in.readUTF()));
+				}else if(type == PERMISSION_RECORD){
+					String permissionName = in.readUTF();
+					Snowflake targetId = Snowflake.of(in.readLong());
+					boolean isUser = in.readBoolean();
+					insertPermission(id.asLong(), permissionName, PermissionManager.CommandPermission.of(targetId, in.readBoolean(), isUser));
+				}else{
+					throw new IOException("Unknown record type " + type + " in " + file);
+				}
+			}
+		} catch (EOFException ex){
+			logger.warn("Ignoring truncated record at the end of {}", file);
+		}
+	}
+
+	/**
+	 * Writes the current state into a new file, replaces {@link #file} with it and keeps appending to it.
+	 */
+	private void compact() throws IOException {
+		close();
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try(DataOutputStream snapshot = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))){
+			for(DBGuild guild : guilds.values()) writeGuild(snapshot, guild);
+			for(DBUser user : users.values()) writeUser(snapshot, user);
+			for(DBDev dev : devs.values()) writeDev(snapshot, dev);
+			for(Map.Entry<Queries.PermissionKey, List<PermissionManager.CommandPermission>> entry : permissions.entrySet()){
+				for(PermissionManager.CommandPermission permission : entry.getValue()){
+					writePermission(snapshot, entry.getKey().getGuildId(), entry.getKey().getPermissionName(), permission);
+				}
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile(), true)));
+	}
+
+	private void close() throws IOException {
+		if(out != null) out.close();
+		out = null;
+	}
+
+	private static void writeGuild(@NonNull DataOutputStream out, @NonNull DBGuild guild) throws IOException {
+		out.writeByte(GUILD_RECORD);
+		out.writeLong(guild.getId().asLong());
+		out.writeUTF(guild.getPrefix());
+		out.writeUTF(guild.getLanguage());
+	}
+
+	private static void writeUser(@NonNull DataOutputStream out, @NonNull DBUser user) throws IOException {
+		out.writeByte(USER_RECORD);
+		out.writeLong(user.getId().asLong());
+		out.writeUTF(user.getPrefix());
+		out.writeUTF(user.getLanguage());
+	}
+
+	private static void writeDev(@NonNull DataOutputStream out, @NonNull DBDev dev) throws IOException {
+		out.writeByte(DEV_RECORD);
+		out.writeLong(dev.getId().asLong());
+		out.writeBoolean(dev.isDev());
+		out.writeBoolean(dev.isOwner());
+		out.writeBoolean(dev.isListed());
+		out.writeUTF(dev.getDevRole());
+		out.writeUTF(dev.getStatus());
+	}
+
+	private static void writePermission(@NonNull DataOutputStream out, long guildId, @NonNull String permissionName, @NonNull PermissionManager.CommandPermission permission) throws IOException {
+		out.writeByte(PERMISSION_RECORD);
+		out.writeLong(guildId);
+		out.writeUTF(permissionName);
+		out.writeLong(permission.getTargetId().asLong());
+		out.writeBoolean(permission.isUser());
+		out.writeBoolean(permission.isWhitelist());
+	}
+
+	@FunctionalInterface
+	private interface RecordWriter {
+		void write(@NonNull DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Serializes a record and hands it to {@link #writer}. Records queued before {@link #initialize()} only live in
+	 * memory until the next compaction.
+	 */
+	private void append(@NonNull RecordWriter recordWriter){
+		if(writer.isDisposed()) return;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			recordWriter.write(new DataOutputStream(bytes));
+		} catch (IOException ex){
+			throw new UncheckedIOException(ex);
+		}
+		records.add(bytes.toByteArray());
+		try {
+			writer.schedule(this::drain);
+		} catch (RejectedExecutionException ex){
+			// disconnected in the meantime, the file is closed already
+		}
+	}
+
+	/**
+	 * Writes all queued records and flushes them to the file, only called on {@link #writer}.
+	 */
+	private void drain(){
+		if(records.isEmpty()) return;
+		try {
+			byte[] record;
+			while((record = records.poll()) != null) if(out != null) out.write(record);
+			if(out != null) out.flush();
+		} catch (IOException ex){
+			logger.error("Could not write to {}", file, ex);
+		}
+	}
+
+	@Override
+	protected void onGuildChanged(@NonNull DBGuild guild){
+		append(out -> writeGuild(out, guild));
+	}
+
+	@Override
+	protected void onUserChanged(@NonNull DBUser user){
+		append(out -> writeUser(out, user));
+	}
+
+	@Override
+	protected void onDevChanged(@NonNull DBDev dev){
+		append(out -> writeDev(out, dev));
+	}
+
+	@Override
+	protected void onPermissionAdded(long guildId, @NonNull String permissionName, @NonNull PermissionManager.CommandPermission permission){
+		append(out -> writePermission(out, guildId, permissionName, permission));
+	}
+
+}
@@ -0,0 +1,155 @@
+package icu.taminaminam.spideybot.data;
+
+import icu.taminaminam.spideybot.utils.metrics.LatencyHistogram;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Sends a second copy of a read if the first one takes longer than most reads do, and uses whichever answers first.
+ * The slower copy gets cancelled, which releases its connection.
+ * <p>
+ * The delay before the copy is the configured percentile of the reads measured during the last {@link #rotate()}
+ * interval, so it follows the current load. Without enough measured reads nothing gets copied. Every read earns a
+ * fraction of a copy according to the budget and every copy spends a whole one, so at most that share of reads gets
+ * copied, with a few saved up for bursts.
+ */
+public final class HedgedReads {
+
+	/**
+	 * The amount of reads an interval needs before its percentile is trusted
+	 */
+	private static final int MIN_SAMPLES = 100;
+	/**
+	 * One copy, in the unit the budget is counted in
+	 */
+	private static final long HEDGE_COST = 1000;
+	private static final long MAX_SAVED = 10 * HEDGE_COST;
+
+	private final boolean enabled;
+	private final double percentile;
+	private final long earnedPerRead;
+	private volatile LatencyHistogram current = new LatencyHistogram();
+	private volatile long thresholdNanos = 0;
+	private final AtomicLong balance = new AtomicLong();
+	private final LongAdder reads = new LongAdder();
+	private final LongAdder issued = new LongAdder();
+	private final LongAdder won = new LongAdder();
+	private final LongAdder overBudget = new LongAdder();
+
+	/**
+	 * @param enabled    Whether reads get copied at all, otherwise they are only passed through
+	 * @param percentile The percentile of read latencies after which a copy gets sent, between {@code 0} and
+	 *                   {@code 100}
+	 * @param budget     The maximum share of reads that get copied in percent
+	 */
+	HedgedReads(boolean enabled, double percentile, double budget){
+		this.enabled = enabled;
+		this.percentile = percentile;
+		this.earnedPerRead = Math.round(HEDGE_COST * Math.min(100, Math.max(0, budget)) / 100);
+	}
+
+	/**
+	 * Starts a new measuring interval, the reads of the finished one decide the delay until the next call.
+	 */
+	void rotate(){
+		LatencyHistogram finished = current;
+		current = new LatencyHistogram();
+		thresholdNanos = finished.getCount() < MIN_SAMPLES ? 0 : finished.getPercentile(percentile).toNanos();
+	}
+
+	private boolean trySpend(){
+		long saved;
+		do{
+			saved = balance.get();
+			if(saved < HEDGE_COST){
+				overBudget.increment();
+				return false;
+			}
+		}while(!balance.compareAndSet(saved, saved - HEDGE_COST));
+		issued.increment();
+		return true;
+	}
+
+	private long startRead(){
+		reads.increment();
+		long saved;
+		while((saved = balance.get()) < MAX_SAVED && !balance.compareAndSet(saved, Math.min(MAX_SAVED, saved + earnedPerRead)));
+		return System.nanoTime();
+	}
+
+	/**
+	 * @param read Creates a new read each time it gets called
+	 * @return A {@link Mono} emitting the result of the first read that completed
+	 */
+	@NonNull
+	<T> Mono<T> read(@NonNull Supplier<Mono<T>> read){
+		if(!enabled) return read.get();
+		return Mono.defer(() -> {
+			long threshold = thresholdNanos;
+			LatencyHistogram latencies = current;
+			long start = startRead();
+			// cancelled reads record how long they ran until then, so slow reads still count once copies win
+			Mono<T> first = read.get().doFinally(signal -> latencies.record(System.nanoTime() - start));
+			if(threshold <= 0) return first;
+			Mono<T> copy = Mono.delay(Duration.ofNanos(threshold))
+					.flatMap(tick -> trySpend() ? read.get().doOnSuccess(result -> won.increment()) : Mono.<T>never())
+					// the first read may still succeed, its error would end the read anyway
+					.onErrorResume(err -> Mono.never());
+			return Mono.first(first, copy);
+		});
+	}
+
+	/**
+	 * @param read Creates a new read each time it gets called
+	 * @return A {@link Flux} emitting the results of the read that emitted first
+	 */
+	@NonNull
+	<T> Flux<T> readMany(@NonNull Supplier<Flux<T>> read){
+		if(!enabled) return read.get();
+		return Flux.defer(() -> {
+			long threshold = thresholdNanos;
+			LatencyHistogram latencies = current;
+			long start = startRead();
+			Flux<T> first = read.get().doFinally(signal -> latencies.record(System.nanoTime() - start));
+			if(threshold <= 0) return first;
+			Flux<T> copy = Mono.delay(Duration.ofNanos(threshold))
+					.flatMapMany(tick -> trySpend() ? read.get().doOnComplete(won::increment) : Flux.<T>never())
+					.onErrorResume(err -> Flux.never());
+			return Flux.first(first, copy);
+		});
+	}
+
+	/**
+	 * @return The delay after which a read gets copied, {@link Duration#ZERO} while nothing gets copied
+	 */
+	@NonNull public Duration getThreshold(){ return Duration.ofNanos(thresholdNanos); }
+	/**
+	 * @return The amount of reads that could have been copied
+	 */
+	public long getReads(){ return reads.sum(); }
+	/**
+	 * @return The amount of copies that got sent
+	 */
+	public long getIssued(){ return issued.sum(); }
+	/**
+	 * @return The amount of copies that answered before the read they copied
+	 */
+	public long getWon(){ return won.sum(); }
+	/**
+	 * @return The amount of slow reads that did not get copied because the budget was spent
+	 */
+	public long getOverBudget(){ return overBudget.sum(); }
+
+	@Override
+	public String toString(){
+		return "HedgedReads{threshold=" + getThreshold().toMillis() + "ms, reads=" + getReads() + ", issued=" + getIssued() +
+				", won=" + getWon() + ", overBudget=" + getOverBudget() + "}";
+	}
+
+}
@@ -0,0 +1,62 @@
+package icu.taminaminam.spideybot.data;
+
+import reactor.util.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Tells caches that entries got changed by another process sharing the same {@link Storage}, see
+ * {@link DataHandler#getInvalidations()}.
+ */
+public final class Invalidation {
+
+	public enum Kind {
+		GUILD,
+		USER,
+		DEV
+	}
+
+	private static final long[] ALL = new long[0];
+
+	private final Kind kind;
+	private final long[] ids;
+
+	private Invalidation(@NonNull Kind kind, @NonNull long[] ids){
+		this.kind = kind;
+		this.ids = ids;
+	}
+
+	/**
+	 * @param kind The kind of the changed entries
+	 * @param ids  The IDs of the changed entries
+	 * @return The new {@link Invalidation}
+	 */
+	@NonNull
+	public static Invalidation of(@NonNull Kind kind, @NonNull long... ids){
+		return new Invalidation(kind, ids);
+	}
+
+	/**
+	 * Used when changes might have been missed, e.g. after the connection delivering them got lost.
+	 *
+	 * @param kind The kind of the entries
+	 * @return An {@link Invalidation} of every entry of that kind
+	 */
+	@NonNull
+	public static Invalidation all(@NonNull Kind kind){
+		return new Invalidation(kind, ALL);
+	}
+
+	@NonNull public Kind getKind(){ return kind; }
+	/**
+	 * @return The IDs of the changed entries, empty if {@link #isAll()}
+	 */
+	@NonNull public long[] getIds(){ return ids; }
+	public boolean isAll(){ return ids == ALL; }
+
+	@Override
+	public String toString(){
+		return "Invalidation{kind=" + kind + ", ids=" + (isAll() ? "all" : Arrays.toString(ids)) + "}";
+	}
+
+}
@@ -0,0 +1,195 @@
+package icu.taminaminam.spideybot.data;
+
+import discord4j.common.util.Snowflake;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Remembers which users are stored, so making sure a user is stored usually does not need the database at all.
+ * <p>
+ * Users are looked up in a direct mapped table of recently seen IDs first, where a newer ID simply replaces the one
+ * in its slot, and then in a bloom filter of all IDs seen since startup. The bloom filter can wrongly claim a user is
+ * stored, which the missing row handling of {@link icu.taminaminam.spideybot.utils.BotUtils} repairs on first use.
+ * <p>
+ * Users that are not known get collected for at most the configured delay and then inserted with a single
+ * statement, everyone waiting for one of them completes once that batch is written.
+ */
+public final class KnownUsers {
+
+	private static final Logger logger = LogManager.getLogger("KnownUsers");
+
+	private static final int BLOOM_HASHES = 7;
+	/**
+	 * Bits per expected user for a false positive rate of about 1% with {@link #BLOOM_HASHES} hashes
+	 */
+	private static final int BLOOM_BITS_PER_USER = 10;
+
+	private final AtomicLongArray recent;
+	private final int recentMask;
+	private final AtomicLongArray bloom;
+	private final long bloomMask;
+	private final int maxBatchSize;
+	private final Duration maxDelay;
+	private final Function<Collection<Snowflake>, Mono<Void>> inserter;
+	@Nullable private Batch pending = null;
+	/**
+	 * The batch every queued user is part of until it got written, so a user is never inserted twice at once
+	 */
+	private final Map<Long, Batch> queuedUsers = new HashMap<>();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder queued = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+
+	/**
+	 * @param recentSize    The amount of slots for recently seen users
+	 * @param expectedUsers The amount of users the bloom filter is sized for
+	 * @param maxBatchSize  The maximum amount of users inserted with one statement
+	 * @param maxDelay      The maximum time a user waits for more users to insert together with
+	 * @param inserter      Inserts the users that are not stored yet, skipping the existing ones
+	 */
+	KnownUsers(int recentSize, long expectedUsers, int maxBatchSize, @NonNull Duration maxDelay, @NonNull Function<Collection<Snowflake>, Mono<Void>> inserter){
+		int recentSlots = Integer.highestOneBit(Math.max(16, recentSize - 1)) << 1;
+		this.recent = new AtomicLongArray(recentSlots);
+		this.recentMask = recentSlots - 1;
+		long bloomBits = Long.highestOneBit(Math.max(1024, expectedUsers * BLOOM_BITS_PER_USER - 1)) << 1;
+		this.bloom = new AtomicLongArray(Math.toIntExact(bloomBits >>> 6));
+		this.bloomMask = bloomBits - 1;
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+		this.maxDelay = maxDelay;
+		this.inserter = inserter;
+	}
+
+	private static long hash(long id){
+		long h = id * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 31);
+	}
+
+	/**
+	 * @param userId The ID of the user
+	 * @return Whether the user is known to be stored, with a small chance of being wrong for users not seen recently
+	 */
+	boolean isKnown(long userId){
+		long h = hash(userId);
+		if(recent.get((int)h & recentMask) == userId) return true;
+		// double hashing, the second hash is made odd so it never repeats a bit before all others got used
+		long h2 = Long.rotateLeft(h, 32) | 1;
+		for(int i = 0; i < BLOOM_HASHES; i++){
+			long bit = (h + i * h2) & bloomMask;
+			if((bloom.get((int)(bit >>> 6)) & (1L << bit)) == 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param userId The ID of a user that is stored
+	 */
+	void add(long userId){
+		long h = hash(userId);
+		recent.set((int)h & recentMask, userId);
+		long h2 = Long.rotateLeft(h, 32) | 1;
+		for(int i = 0; i < BLOOM_HASHES; i++){
+			long bit = (h + i * h2) & bloomMask;
+			int index = (int)(bit >>> 6);
+			long mask = 1L << bit;
+			long word;
+			while(((word = bloom.get(index)) & mask) == 0 && !bloom.compareAndSet(index, word, word | mask));
+		}
+	}
+
+	/**
+	 * @param userId The ID of the user
+	 * @return A {@link Mono} completing once the user is stored, immediately if the user is known
+	 */
+	@NonNull
+	Mono<Void> ensureStored(long userId){
+		return Mono.defer(() -> {
+			if(isKnown(userId)){
+				skipped.increment();
+				return Mono.empty();
+			}
+			Batch full = null;
+			Batch batch;
+			synchronized(this){
+				Batch queuedIn = queuedUsers.get(userId);
+				if(queuedIn != null) return queuedIn.done;
+				queued.increment();
+				if(pending == null){
+					Batch created = new Batch();
+					pending = created;
+					Mono.delay(maxDelay).subscribe(tick -> flush(created));
+				}
+				batch = pending;
+				batch.userIds.add(Snowflake.of(userId));
+				queuedUsers.put(userId, batch);
+				if(batch.userIds.size() >= maxBatchSize) full = batch;
+			}
+			if(full != null) flush(full);
+			return batch.done;
+		});
+	}
+
+	private void flush(@NonNull Batch batch){
+		List<Snowflake> userIds;
+		synchronized(this){
+			if(batch.flushed) return;
+			batch.flushed = true;
+			if(pending == batch) pending = null;
+			userIds = new ArrayList<>(batch.userIds);
+		}
+		batches.increment();
+		inserter.apply(userIds).subscribe(null, err -> {
+			logger.warn("Could not insert {} users", userIds.size(), err);
+			dequeue(userIds);
+			batch.done.onError(err);
+		}, () -> {
+			userIds.forEach(userId -> add(userId.asLong()));
+			dequeue(userIds);
+			batch.done.onComplete();
+		});
+	}
+
+	private synchronized void dequeue(@NonNull List<Snowflake> userIds){
+		userIds.forEach(userId -> queuedUsers.remove(userId.asLong()));
+	}
+
+	/**
+	 * @return The amount of users that did not need to be inserted because they were known
+	 */
+	public long getSkipped(){ return skipped.sum(); }
+	/**
+	 * @return The amount of users that were queued for insertion
+	 */
+	public long getQueued(){ return queued.sum(); }
+	/**
+	 * @return The amount of insert statements
+	 */
+	public long getBatches(){ return batches.sum(); }
+
+	@Override
+	public String toString(){
+		return "KnownUsers{skipped=" + getSkipped() + ", queued=" + getQueued() + ", batches=" + getBatches() + "}";
+	}
+
+	private static final class Batch {
+		private final Set<Snowflake> userIds = new LinkedHashSet<>();
+		private final MonoProcessor<Void> done = MonoProcessor.create();
+		private boolean flushed = false;
+	}
+
+}
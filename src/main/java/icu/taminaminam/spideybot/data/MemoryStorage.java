@@ -0,0 +1,317 @@
+package icu.taminaminam.spideybot.data;
+
+import icu.taminaminam.spideybot.commands.PermissionManager;
+import discord4j.common.util.Snowflake;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link Storage} that keeps everything in {@link ConcurrentHashMap}s. Entries are immutable and get replaced
+ * atomically, so no locks are needed. The change hooks run inside the atomic replacement, so subclasses see the
+ * changes of one entry in the order they happened.
+ * <p>
+ * Every operation can be delayed by a fixed latency to simulate a database in load tests.
+ */
+public class MemoryStorage implements Storage {
+
+	private final Duration latency;
+
+	protected final ConcurrentMap<Long, DBGuild> guilds = new ConcurrentHashMap<>();
+	protected final ConcurrentMap<Long, DBUser> users = new ConcurrentHashMap<>();
+	protected final ConcurrentMap<Long, DBDev> devs = new ConcurrentHashMap<>();
+	protected final ConcurrentMap<Queries.PermissionKey, List<PermissionManager.CommandPermission>> permissions = new ConcurrentHashMap<>();
+
+	/**
+	 * @param latency The time every operation should get delayed by, {@link Duration#ZERO} to disable
+	 */
+	MemoryStorage(@NonNull Duration latency){
+		this.latency = latency;
+	}
+
+	@NonNull
+	private <T> Mono<T> delayed(@NonNull Mono<T> mono){
+		return latency.isZero() ? mono : Mono.delay(latency).then(mono);
+	}
+
+	@NonNull
+	private <T> Flux<T> delayed(@NonNull Flux<T> flux){
+		return latency.isZero() ? flux : Mono.delay(latency).thenMany(flux);
+	}
+
+	/**
+	 * Gets called after a guild got inserted or changed, before any other change of the same guild can happen.
+	 *
+	 * @param guild The new state of the guild
+	 */
+	protected void onGuildChanged(@NonNull DBGuild guild){}
+
+	/**
+	 * Gets called after a user got inserted or changed, before any other change of the same user can happen.
+	 *
+	 * @param user The new state of the user
+	 */
+	protected void onUserChanged(@NonNull DBUser user){}
+
+	/**
+	 * Gets called after a dev got inserted or changed, before any other change of the same dev can happen.
+	 *
+	 * @param dev The new state of the dev
+	 */
+	protected void onDevChanged(@NonNull DBDev dev){}
+
+	/**
+	 * Gets called after a permission got inserted, before any other permission of the same command in the same guild
+	 * can get inserted.
+	 *
+	 * @param guildId        The ID of the guild
+	 * @param permissionName The name of the permission
+	 * @param permission     The inserted permission
+	 */
+	protected void onPermissionAdded(long guildId, @NonNull String permissionName, @NonNull PermissionManager.CommandPermission permission){}
+
+	@NonNull
+	@Override
+	public Mono<Void> initialize(){
+		return Mono.empty();
+	}
+
+	@NonNull
+	@Override
+	public Mono<Void> disconnect(){
+		return Mono.empty();
+	}
+
+	private boolean insertGuild(long guildId){
+		return insertGuild(new DBGuild(Snowflake.of(guildId), DBGuild.defaultGuild.getPrefix(), DBGuild.defaultGuild.getLanguage()));
+	}
+
+	private boolean insertGuild(@NonNull DBGuild guild){
+		return guilds.compute(guild.getId().asLong(), (k, old) -> {
+			if(old != null) return old;
+			onGuildChanged(guild);
+			return guild;
+		}) == guild;
+	}
+
+	@NonNull
+	@Override
+	public Mono<Boolean> initializeGuild(@NonNull Snowflake guildId){
+		return delayed(Mono.fromSupplier(() -> insertGuild(guildId.asLong())));
+	}
+
+	@NonNull
+	@Override
+	public Flux<Snowflake> initializeGuilds(@NonNull Collection<Snowflake> guildIds){
+		return delayed(Flux.fromIterable(guildIds).filter(guildId -> insertGuild(guildId.asLong())));
+	}
+
+	private boolean insertUser(long userId){
+		return insertUser(new DBUser(Snowflake.of(userId), DBUser.defaultUser.getPrefix(), DBUser.defaultUser.getLanguage()));
+	}
+
+	private boolean insertUser(@NonNull DBUser user){
+		return users.compute(user.getId().asLong(), (k, old) -> {
+			if(old != null) return old;
+			onUserChanged(user);
+			return user;
+		}) == user;
+	}
+
+	@NonNull
+	@Override
+	public Mono<Boolean> initializeUser(@NonNull Snowflake userId){
+		return delayed(Mono.fromSupplier(() -> insertUser(userId.asLong())));
+	}
+
+	@NonNull
+	@Override
+	public Flux<Snowflake> initializeUsers(@NonNull Collection<Snowflake> userIds){
+		return delayed(Flux.fromIterable(userIds).filter(userId -> insertUser(userId.asLong())));
+	}
+
+	@NonNull
+	@Override
+	public Mono<DBGuild> getGuild(@NonNull Snowflake guildId){
+		return delayed(Mono.fromSupplier(() -> guilds.get(guildId.asLong())));
+	}
+
+	@NonNull
+	@Override
+	public Flux<DBGuild> getGuilds(@NonNull Collection<Snowflake> guildIds){
+		return delayed(Flux.fromIterable(guildIds)
+				.<DBGuild>handle((guildId, sink) -> {
+					DBGuild guild = guilds.get(guildId.asLong());
+					if(guild != null) sink.next(guild);
+				}));
+	}
+
+	@NonNull
+	@Override
+	public Mono<DBUser> getUser(@NonNull Snowflake userId){
+		return delayed(Mono.fromSupplier(() -> users.get(userId.asLong())));
+	}
+
+	@NonNull
+	@Override
+	public Flux<PermissionManager.CommandPermission> getPermissions(@NonNull String permName, @NonNull Snowflake guildId){
+		return delayed(Flux.defer(() -> Flux.fromIterable(permissions.getOrDefault(new Queries.PermissionKey(guildId.asLong(), permName), Collections.emptyList()))));
+	}
+
+	@NonNull
+	@Override
+	public Mono<Boolean> addDev(@NonNull DBDev dev){
+		return delayed(Mono.fromSupplier(() -> insertDev(dev)));
+	}
+
+	private boolean insertDev(@NonNull DBDev dev){
+		return devs.compute(dev.getId().asLong(), (k, old) -> {
+			if(old != null) return old;
+			onDevChanged(dev);
+			return dev;
+		}) == dev;
+	}
+
+	/**
+	 * @return Whether there was no permission for the same target yet
+	 */
+	protected boolean insertPermission(long guildId, @NonNull String permissionName, @NonNull PermissionManager.CommandPermission permission){
+		boolean[] inserted = {false};
+		permissions.compute(new Queries.PermissionKey(guildId, permissionName), (k, old) -> {
+			List<PermissionManager.CommandPermission> current = old == null ? Collections.emptyList() : old;
+			for(PermissionManager.CommandPermission existing : current){
+				if(existing.getTargetId().equals(permission.getTargetId()) && existing.isUser() == permission.isUser()) return old;
+			}
+			List<PermissionManager.CommandPermission> added = new ArrayList<>(current);
+			added.add(permission);
+			onPermissionAdded(guildId, permissionName, permission);
+			inserted[0] = true;
+			return Collections.unmodifiableList(added);
+		});
+		return inserted[0];
+	}
+
+	@NonNull
+	@Override
+	public Mono<DBDev> getDev(@NonNull Snowflake userId){
+		return delayed(Mono.fromSupplier(() -> devs.get(userId.asLong())));
+	}
+
+	@NonNull
+	@Override
+	public Flux<DBDev> getAllDevs(){
+		return delayed(Flux.defer(() -> Flux.fromIterable(devs.values())));
+	}
+
+	@NonNull
+	@Override
+	public Mono<Void> writeBatch(@NonNull DataHandler.Tables table, @NonNull Map<Long, Object[]> rows){
+		return delayed(Mono.fromRunnable(() -> rows.forEach((key, row) -> {
+			if(table == DataHandler.Tables.GUILDS){
+				guilds.computeIfPresent(key, (k, old) -> {
+					DBGuild guild = new DBGuild(old.getId(),
+							valueOr(row, WriteBehindQueue.Column.GUILD_PREFIX, old.getPrefix()),
+							valueOr(row, WriteBehindQueue.Column.GUILD_LANGUAGE, old.getLanguage())
+					);
+					onGuildChanged(guild);
+					return guild;
+				});
+			}else if(table == DataHandler.Tables.USERS){
+				users.computeIfPresent(key, (k, old) -> {
+					DBUser user = new DBUser(old.getId(),
+							valueOr(row, WriteBehindQueue.Column.USER_PREFIX, old.getPrefix()),
+							valueOr(row, WriteBehindQueue.Column.USER_LANGUAGE, old.getLanguage())
+					);
+					onUserChanged(user);
+					return user;
+				});
+			}else if(table == DataHandler.Tables.DEVS){
+				devs.computeIfPresent(key, (k, old) -> {
+					DBDev dev = new DBDev(old.getId(),
+							valueOr(row, WriteBehindQueue.Column.DEV_IS_DEV, old.isDev()),
+							valueOr(row, WriteBehindQueue.Column.DEV_IS_OWNER, old.isOwner()),
+							valueOr(row, WriteBehindQueue.Column.DEV_IS_LISTED, old.isListed()),
+							valueOr(row, WriteBehindQueue.Column.DEV_ROLE, old.getDevRole()),
+							valueOr(row, WriteBehindQueue.Column.DEV_STATUS, old.getStatus())
+					);
+					onDevChanged(dev);
+					return dev;
+				});
+			}
+		})));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T valueOr(@NonNull Object[] row, @NonNull WriteBehindQueue.Column column, @Nullable T fallback){
+		Object value = row[column.ordinal()];
+		return value == null ? fallback : (T)value;
+	}
+
+	@NonNull
+	@Override
+	public Flux<Object[]> exportRows(@NonNull DataHandler.Tables table){
+		return delayed(Flux.defer(() -> {
+			switch(table){
+				case GUILDS:
+					return Flux.fromIterable(guilds.values())
+							.map(guild -> new Object[]{guild.getId().asLong(), guild.getPrefix(), guild.getLanguage()});
+				case USERS:
+					return Flux.fromIterable(users.values())
+							.map(user -> new Object[]{user.getId().asLong(), user.getPrefix(), user.getLanguage()});
+				case PERMISSIONS:
+					return Flux.fromIterable(permissions.entrySet())
+							.concatMap(entry -> Flux.fromIterable(entry.getValue())
+									.map(permission -> new Object[]{entry.getKey().getPermissionName(), entry.getKey().getGuildId(),
+											permission.getTargetId().asLong(), permission.isUser(), permission.isWhitelist()}));
+				default:
+					return Flux.fromIterable(devs.values())
+							.map(dev -> new Object[]{dev.getId().asLong(), dev.isDev(), dev.isOwner(), dev.isListed(), dev.getDevRole(), dev.getStatus()});
+			}
+		}));
+	}
+
+	@NonNull
+	@Override
+	public Mono<Long> importRows(@NonNull DataHandler.Tables table, @NonNull List<Object[]> rows){
+		return delayed(Mono.fromSupplier(() -> rows.stream().filter(row -> insertRow(table, row)).count()));
+	}
+
+	/**
+	 * @param row The values ordered by {@link BulkTransfer#columnsOf}, missing values get the defaults
+	 * @return Whether the row got inserted
+	 */
+	private boolean insertRow(@NonNull DataHandler.Tables table, @NonNull Object[] row){
+		switch(table){
+			case GUILDS:
+				return insertGuild(new DBGuild(Snowflake.of((Long)row[0]),
+						valueOr(row, 1, DBGuild.defaultGuild.getPrefix()), valueOr(row, 2, DBGuild.defaultGuild.getLanguage())));
+			case USERS:
+				return insertUser(new DBUser(Snowflake.of((Long)row[0]),
+						valueOr(row, 1, DBUser.defaultUser.getPrefix()), valueOr(row, 2, DBUser.defaultUser.getLanguage())));
+			case PERMISSIONS:
+				return insertPermission((Long)row[1], (String)row[0],
+						PermissionManager.CommandPermission.of(Snowflake.of((Long)row[2]), valueOr(row, 4, true), valueOr(row, 3, false)));
+			default:
+				return insertDev(new DBDev(Snowflake.of((Long)row[0]),
+						valueOr(row, 1, DBDev.defaultDev.isDev()), valueOr(row, 2, DBDev.defaultDev.isOwner()), valueOr(row, 3, DBDev.defaultDev.isListed()),
+						valueOr(row, 4, DBDev.defaultDev.getDevRole()), valueOr(row, 5, DBDev.defaultDev.getStatus())));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T valueOr(@NonNull Object[] row, int index, @NonNull T fallback){
+		Object value = row[index];
+		return value == null ? fallback : (T)value;
+	}
+
+}
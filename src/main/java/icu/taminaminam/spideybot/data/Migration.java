@@ -0,0 +1,57 @@
+package icu.taminaminam.spideybot.data;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.Result;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One step of the database schema. Migrations are applied once, in the order of their version, see
+ * {@link Migrations}.
+ */
+final class Migration {
+
+	private final int version;
+	private final String description;
+	private final List<String> statements;
+
+	/**
+	 * @param version     The version of the schema after this migration, has to be unique and greater than the one
+	 *                    of the migration before
+	 * @param description A short description stored together with the version
+	 * @param statements  The statements to execute, in order
+	 */
+	Migration(int version, @NonNull String description, @NonNull String... statements){
+		this.version = version;
+		this.description = description;
+		this.statements = Collections.unmodifiableList(Arrays.asList(statements));
+	}
+
+	int getVersion(){ return version; }
+	@NonNull String getDescription(){ return description; }
+	@NonNull List<String> getStatements(){ return statements; }
+
+	/**
+	 * Executes all statements. The caller is responsible for the transaction.
+	 *
+	 * @param con The connection to execute the statements on
+	 * @return An empty {@link Mono}
+	 */
+	@NonNull
+	Mono<Void> execute(@NonNull Connection con){
+		return Flux.fromIterable(statements)
+				.concatMap(sql -> Flux.from(con.createStatement(sql).execute()).flatMap(Result::getRowsUpdated))
+				.then();
+	}
+
+	@Override
+	public String toString(){
+		return "Migration{version=" + version + ", description='" + description + "'}";
+	}
+
+}
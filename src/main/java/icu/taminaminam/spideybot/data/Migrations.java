@@ -0,0 +1,206 @@
+package icu.taminaminam.spideybot.data;
+
+import io.r2dbc.spi.Connection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * All versions of the database schema and the runner applying them.
+ * <p>
+ * Applied versions are stored in {@link #VERSION_TABLE}. Every pending migration runs in its own transaction that
+ * also records its version, so a failing migration leaves the schema at the previous version. Nodes starting at the
+ * same time serialize on an advisory lock, which is also held while creating {@link #VERSION_TABLE}, so every
+ * migration is applied exactly once.
+ * <p>
+ * Migrations must never be changed once they got released, add a new one instead.
+ */
+final class Migrations {
+
+	private static final Logger logger = LogManager.getLogger("Migrations");
+
+	private Migrations(){}
+
+	static final String VERSION_TABLE = "schema_version";
+	/**
+	 * The key of the advisory lock held while applying a migration, any value unique within the database works
+	 */
+	private static final long LOCK_KEY = 0x5370696465794dL;
+	/**
+	 * The amount of hash partitions of the permissions table
+	 */
+	static final int PERMISSION_PARTITIONS = 8;
+
+	private static final String PERMISSIONS = DataHandler.Tables.PERMISSIONS.getName();
+
+	private static final Query<Void, Void> CREATE_VERSION_TABLE = Query.update(
+			"CREATE TABLE IF NOT EXISTS " + VERSION_TABLE + " (" +
+					"version INTEGER PRIMARY KEY," +
+					"description TEXT NOT NULL," +
+					"appliedAt TIMESTAMPTZ NOT NULL DEFAULT now()" +
+					")",
+			(statement, nothing) -> {}
+	);
+
+	private static final Query<Void, Boolean> LOCK = Query.select(
+			"SELECT pg_advisory_xact_lock(" + LOCK_KEY + ")",
+			(statement, nothing) -> {},
+			row -> true
+	);
+
+	private static final Query<Integer, Boolean> IS_APPLIED = Query.select(
+			"SELECT EXISTS (SELECT 1 FROM " + VERSION_TABLE + " WHERE version=$1)",
+			(statement, version) -> statement.bind(0, version),
+			row -> Boolean.TRUE.equals(row.get(0, Boolean.class))
+	);
+
+	private static final Query<Migration, Void> RECORD_VERSION = Query.update(
+			"INSERT INTO " + VERSION_TABLE + " (version, description) VALUES ($1, $2)",
+			(statement, migration) -> statement.bind(0, migration.getVersion()).bind(1, migration.getDescription())
+	);
+
+	/**
+	 * Every migration, ordered by version.
+	 */
+	static final List<Migration> ALL = Collections.unmodifiableList(Arrays.asList(
+			new Migration(1, "Initial tables",
+					// the tables existed before there were migrations, so this only creates what is missing
+					"CREATE TABLE IF NOT EXISTS " + DataHandler.Tables.GUILDS.getName() + " (" +
+							"guildId BIGINT," +
+							"prefix VARCHAR(10)," +
+							"language VARCHAR(5)," +
+							"PRIMARY KEY(guildId)" +
+							")",
+					"CREATE TABLE IF NOT EXISTS " + DataHandler.Tables.USERS.getName() + " (" +
+							"userId BIGINT," +
+							"prefix VARCHAR(25)," +
+							"language VARCHAR(5)," +
+							"PRIMARY KEY(userId)" +
+							")",
+					"CREATE TABLE IF NOT EXISTS " + PERMISSIONS + " (" +
+							"permissionName TEXT," +
+							"guildId BIGINT," +
+							"targetId BIGINT," +
+							"isUser BOOLEAN," +
+							"isWhitelist BOOLEAN," +
+							"PRIMARY KEY(permissionName, guildId, targetId, isUser)," +
+							"CONSTRAINT permissions_guildid_fkey " +
+								"FOREIGN KEY (guildid) " +
+									"REFERENCES " + DataHandler.Tables.GUILDS.getName() + "(guildId) " +
+									"ON UPDATE CASCADE " +
+									"ON DELETE CASCADE," +
+							"CONSTRAINT permissions_targetid_fkey " +
+								"FOREIGN KEY (targetid) " +
+									"REFERENCES " + DataHandler.Tables.USERS.getName() + "(userid) " +
+									"ON UPDATE CASCADE " +
+									"ON DELETE CASCADE" +
+							")",
+					//devs table to identify "Bot Owners" and Devs
+					"CREATE TABLE IF NOT EXISTS " + DataHandler.Tables.DEVS.getName() + " (" +
+							"userId BIGINT," +
+							"isDev BOOLEAN," +
+							"isOwner BOOLEAN," +
+							"isListed BOOLEAN," +
+							"devRole TEXT," +
+							"status TEXT," +
+							"PRIMARY KEY(userId)," +
+							"CONSTRAINT devsTable_userId " +
+								"FOREIGN KEY(userId)" +
+									"REFERENCES " + DataHandler.Tables.USERS.getName() + "(userId) " +
+									"ON DELETE CASCADE" +
+							")"
+			),
+			new Migration(2, "Partition permissions by guild", partitionPermissions()),
+			new Migration(3, "Index permissions by target",
+					// deleting a user cascades to the permissions targeting them, which would scan every partition otherwise
+					"CREATE INDEX IF NOT EXISTS permissions_targetid_idx ON " + PERMISSIONS + " (targetId)"
+			)
+	));
+
+	/**
+	 * Replaces the permissions table with one that is hash partitioned by guild. Its primary key starts with
+	 * {@code (guildId, permissionName)}, the predicate of {@link Queries#GET_PERMISSIONS}, so every lookup is a single
+	 * index range scan on a single partition.
+	 */
+	@NonNull
+	private static String[] partitionPermissions(){
+		String partitioned = PERMISSIONS + "_partitioned";
+		List<String> statements = new ArrayList<>();
+		statements.add("CREATE TABLE " + partitioned + " (" +
+				"permissionName TEXT NOT NULL," +
+				"guildId BIGINT NOT NULL," +
+				"targetId BIGINT NOT NULL," +
+				"isUser BOOLEAN NOT NULL," +
+				"isWhitelist BOOLEAN," +
+				"PRIMARY KEY(guildId, permissionName, targetId, isUser)," +
+				"CONSTRAINT permissions_guildid_fkey " +
+					"FOREIGN KEY (guildid) " +
+						"REFERENCES " + DataHandler.Tables.GUILDS.getName() + "(guildId) " +
+						"ON UPDATE CASCADE " +
+						"ON DELETE CASCADE," +
+				"CONSTRAINT permissions_targetid_fkey " +
+					"FOREIGN KEY (targetid) " +
+						"REFERENCES " + DataHandler.Tables.USERS.getName() + "(userid) " +
+						"ON UPDATE CASCADE " +
+						"ON DELETE CASCADE" +
+				") PARTITION BY HASH (guildId)");
+		for(int i = 0; i < PERMISSION_PARTITIONS; i++){
+			statements.add("CREATE TABLE " + PERMISSIONS + "_p" + i + " PARTITION OF " + partitioned +
+					" FOR VALUES WITH (MODULUS " + PERMISSION_PARTITIONS + ", REMAINDER " + i + ")");
+		}
+		statements.add("INSERT INTO " + partitioned + " (permissionName, guildId, targetId, isUser, isWhitelist) " +
+				"SELECT permissionName, guildId, targetId, isUser, isWhitelist FROM " + PERMISSIONS);
+		statements.add("DROP TABLE " + PERMISSIONS);
+		statements.add("ALTER TABLE " + partitioned + " RENAME TO " + PERMISSIONS);
+		return statements.toArray(new String[0]);
+	}
+
+	/**
+	 * Applies all pending migrations in order.
+	 *
+	 * @param con The connection to apply the migrations on. It must not be used by anything else meanwhile.
+	 * @return A {@link Mono} emitting the amount of applied migrations
+	 */
+	@NonNull
+	static Mono<Integer> apply(@NonNull Connection con){
+		return Flux.fromIterable(ALL).concatMap(migration -> apply(con, migration))
+				.filter(applied -> applied)
+				.count()
+				.map(Long::intValue)
+				.doOnNext(count -> {
+					if(count > 0) logger.info("Applied {} migrations, schema is at version {}", count, ALL.get(ALL.size() - 1).getVersion());
+				});
+	}
+
+	/**
+	 * Applies a single migration in its own transaction unless it already got applied.
+	 *
+	 * @return A {@link Mono} emitting whether the migration got applied
+	 */
+	@NonNull
+	private static Mono<Boolean> apply(@NonNull Connection con, @NonNull Migration migration){
+		// another node might have applied the migration while this one waited for the lock, so check after locking.
+		// The version table is created under the lock as well, concurrent CREATE TABLE IF NOT EXISTS can still collide.
+		Mono<Boolean> run = LOCK.execute(con, null)
+				.then(CREATE_VERSION_TABLE.executeUpdate(con, null))
+				.then(IS_APPLIED.execute(con, migration.getVersion()).single())
+				.flatMap(applied -> applied ? Mono.just(false) : migration.execute(con)
+						.then(RECORD_VERSION.executeUpdate(con, migration))
+						.doOnNext(rows -> logger.info("Applied {}", migration))
+						.thenReturn(true)
+				);
+		return Mono.from(con.beginTransaction())
+				.then(run)
+				.flatMap(applied -> Mono.from(con.commitTransaction()).thenReturn(applied))
+				.onErrorResume(err -> Mono.from(con.rollbackTransaction())
+						.then(Mono.error(new IllegalStateException("Could not apply " + migration, err))));
+	}
+
+}
@@ -0,0 +1,130 @@
+package icu.taminaminam.spideybot.data;
+
+import io.r2dbc.postgresql.PostgresqlConnectionFactory;
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Receives the changes other processes write to the database, so several shard processes can share one database
+ * without serving stale settings.
+ * <p>
+ * {@link PostgresStorage#writeBatch(DataHandler.Tables, java.util.Map)} sends a {@code NOTIFY} on the channel of the
+ * changed kind of entry, with the ID of the sending process and the changed IDs as payload. This listener keeps a
+ * dedicated connection outside of the pool listening on all channels. Notifications are not stored by the server, so
+ * every time the connection got (re)established everything gets invalidated to pick up changes that might have been
+ * missed meanwhile.
+ */
+class NotificationListener {
+
+	private static final Logger logger = LogManager.getLogger("NotificationListener");
+
+	private static final String CHANNEL_PREFIX = "spideybot_";
+	private static final Duration MIN_BACKOFF = Duration.ofSeconds(1);
+	private static final Duration MAX_BACKOFF = Duration.ofMinutes(1);
+	/**
+	 * The maximum amount of IDs in a single notification, which keeps the payload below the limit of 8000 bytes
+	 */
+	static final int IDS_PER_NOTIFICATION = 300;
+
+	/**
+	 * Identifies this process in the notifications it sends, to ignore them when they come back
+	 */
+	static final String NODE_ID = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+	private final PostgresqlConnectionFactory connectionFactory;
+
+	/**
+	 * @param connectionFactory Creates the connection used for listening
+	 */
+	NotificationListener(@NonNull PostgresqlConnectionFactory connectionFactory){
+		this.connectionFactory = connectionFactory;
+	}
+
+	/**
+	 * @param table The table that got changed
+	 * @return The kind of entries stored in that table, {@code null} if changes of it are not published
+	 */
+	@Nullable
+	static Invalidation.Kind kindOf(@NonNull DataHandler.Tables table){
+		if(table == DataHandler.Tables.GUILDS) return Invalidation.Kind.GUILD;
+		else if(table == DataHandler.Tables.USERS) return Invalidation.Kind.USER;
+		else if(table == DataHandler.Tables.DEVS) return Invalidation.Kind.DEV;
+		else return null;
+	}
+
+	/**
+	 * @param kind The kind of the changed entries
+	 * @return The channel changes of that kind get published on
+	 */
+	@NonNull
+	static String channelOf(@NonNull Invalidation.Kind kind){
+		return CHANNEL_PREFIX + kind.name().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Connects, listens on all channels and reconnects with increasing delays whenever the connection gets lost.
+	 *
+	 * @return A {@link Flux} emitting the changes of other processes, which never completes
+	 */
+	@NonNull
+	Flux<Invalidation> listen(){
+		return Flux.usingWhen(connectionFactory.create(),
+				con -> Flux.fromArray(Invalidation.Kind.values())
+						.concatMap(kind -> con.createStatement("LISTEN " + channelOf(kind)).execute())
+						.flatMap(PostgresqlResult::getRowsUpdated)
+						.doOnComplete(() -> logger.info("Listening for changes of other processes"))
+						.thenMany(Flux.concat(
+								// resync, changes before the LISTEN might not have been seen
+								Flux.fromArray(Invalidation.Kind.values()).map(Invalidation::all),
+								con.getNotifications().concatMap(this::parse)
+						)),
+				con -> con.close(),
+				(con, err) -> con.close(),
+				con -> con.close()
+		)
+				.concatWith(Mono.error(() -> new IllegalStateException("Listener connection got closed")))
+				.retryWhen(Retry.backoff(Long.MAX_VALUE, MIN_BACKOFF)
+						.maxBackoff(MAX_BACKOFF)
+						// start over with the minimum delay after the connection was up again
+						.transientErrors(true)
+						.doBeforeRetry(signal -> logger.warn("Lost listener connection, reconnecting", signal.failure()))
+				);
+	}
+
+	/**
+	 * @param notification A notification with a payload of the form {@code node:id,id,...}
+	 * @return A {@link Mono} emitting the {@link Invalidation}, empty if it got sent by this process or is invalid
+	 */
+	@NonNull
+	private Mono<Invalidation> parse(@NonNull Notification notification){
+		Invalidation.Kind kind = Arrays.stream(Invalidation.Kind.values())
+				.filter(k -> channelOf(k).equals(notification.getName()))
+				.findAny().orElse(null);
+		String payload = notification.getParameter();
+		if(kind == null || payload == null) return Mono.empty();
+		int separator = payload.indexOf(':');
+		if(separator < 0 || payload.regionMatches(0, NODE_ID, 0, separator) && separator == NODE_ID.length()) return Mono.empty();
+		try {
+			long[] ids = Arrays.stream(payload.substring(separator + 1).split(","))
+					.mapToLong(Long::parseLong)
+					.toArray();
+			return Mono.just(Invalidation.of(kind, ids));
+		} catch (NumberFormatException ex){
+			logger.warn("Ignoring invalid notification on {}: {}", notification.getName(), payload);
+			return Mono.empty();
+		}
+	}
+
+}
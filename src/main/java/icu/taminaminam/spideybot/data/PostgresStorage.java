@@ -0,0 +1,548 @@
+package icu.taminaminam.spideybot.data;
+
+import icu.taminaminam.spideybot.commands.PermissionManager;
+import icu.taminaminam.spideybot.main.Credentials;
+import icu.taminaminam.spideybot.utils.metrics.LatencyHistogram;
+import discord4j.common.util.Snowflake;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.pool.PoolMetrics;
+import io.r2dbc.postgresql.PostgresqlConnectionConfiguration;
+import io.r2dbc.postgresql.PostgresqlConnectionFactory;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.reactivestreams.Publisher;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The {@link Storage} backed by the PostgreSQL database configured in {@link Credentials}, accessed through pools
+ * of R2DBC connections.
+ * <p>
+ * Writes use their own pool on the primary, so they never wait for reads and the other way around. Reads are spread
+ * over the read replicas in {@link Credentials#SQL_REPLICAS} if there are any, except for rows that got written
+ * within {@link Credentials#SQL_REPLICA_FRESHNESS}, which the replicas might not have received yet, see
+ * {@link RecentWrites}. Without replicas, or if a replica cannot be reached, reads use the primary.
+ */
+public class PostgresStorage implements Storage {
+
+	private static final Logger logger = LogManager.getLogger("PostgresStorage");
+
+	private static final Duration POOL_MONITOR_INTERVAL = Duration.ofSeconds(30);
+	private static final Duration POOL_ADJUST_INTERVAL = Duration.ofSeconds(5);
+	private static final int PREPARED_STATEMENT_CACHE_SIZE = 64;
+
+	private final ConnectionPool pool;
+	private final ConnectionPool writePool;
+	private final List<ConnectionPool> replicaPools;
+	private final AtomicInteger nextReplica = new AtomicInteger();
+	private final RecentWrites recentWrites = new RecentWrites(Credentials.SQL_REPLICA_FRESHNESS);
+	private final LongAdder primaryReads = new LongAdder();
+	private final LongAdder replicaReads = new LongAdder();
+	private final LongAdder replicaFailures = new LongAdder();
+	private final HedgedReads hedgedReads = new HedgedReads(Credentials.SQL_HEDGED_READS, Credentials.SQL_HEDGE_PERCENTILE, Credentials.SQL_HEDGE_BUDGET);
+	private final NotificationListener notificationListener;
+	private final DirectProcessor<Invalidation> invalidations = DirectProcessor.create();
+	private final FluxSink<Invalidation> invalidationSink = invalidations.sink();
+	private Disposable listening = Disposables.disposed();
+	private final AdaptivePoolLimit poolLimit;
+	private final LatencyHistogram acquireLatency = new LatencyHistogram();
+	private final Disposable poolMonitor;
+
+	PostgresStorage(){
+		PostgresqlConnectionFactory connectionFactory = createConnectionFactory(Credentials.SQL_HOST, Credentials.SQL_PORT);
+		notificationListener = new NotificationListener(connectionFactory);
+		int minSize = Math.max(1, Credentials.SQL_POOL_MIN_SIZE);
+		int maxSize = Math.max(minSize, Credentials.SQL_POOL_MAX_SIZE);
+		ConnectionPoolConfiguration configuration = ConnectionPoolConfiguration.builder(connectionFactory)
+				.initialSize(minSize)
+				.maxSize(maxSize)
+				.maxIdleTime(Credentials.SQL_POOL_MAX_IDLE_TIME)
+				.build();
+		pool = new ConnectionPool(configuration);
+		int writeSize = Math.max(1, Credentials.SQL_WRITE_POOL_SIZE);
+		writePool = new ConnectionPool(ConnectionPoolConfiguration.builder(connectionFactory)
+				.initialSize(1)
+				.maxSize(writeSize)
+				.maxIdleTime(Credentials.SQL_POOL_MAX_IDLE_TIME)
+				.build());
+		replicaPools = Credentials.SQL_REPLICAS.stream()
+				.map(replica -> {
+					int colon = replica.lastIndexOf(':');
+					String host = colon < 0 ? replica : replica.substring(0, colon);
+					int port = colon < 0 ? Credentials.SQL_PORT : Integer.parseInt(replica.substring(colon + 1));
+					return new ConnectionPool(ConnectionPoolConfiguration.builder(createConnectionFactory(host, port))
+							.initialSize(1)
+							.maxSize(Math.max(1, Credentials.SQL_REPLICA_POOL_SIZE))
+							.maxIdleTime(Credentials.SQL_POOL_MAX_IDLE_TIME)
+							.build());
+				})
+				.collect(Collectors.toList());
+		// without adaptive sizing the limit stays at the pool size and never makes anyone wait
+		poolLimit = new AdaptivePoolLimit(minSize, maxSize, Credentials.SQL_POOL_ADAPTIVE ? minSize : maxSize, Credentials.SQL_POOL_TARGET_WAIT);
+		Disposable monitor = Flux.interval(POOL_MONITOR_INTERVAL).subscribe(tick -> monitorPool());
+		if(Credentials.SQL_POOL_ADAPTIVE){
+			Disposable adjuster = Flux.interval(POOL_ADJUST_INTERVAL)
+					.subscribe(tick -> poolLimit.adjust(getPoolMetrics().map(PoolMetrics::idleSize).orElse(0)));
+			poolMonitor = Disposables.composite(monitor, adjuster);
+		}else{
+			poolMonitor = monitor;
+		}
+	}
+
+	@NonNull
+	private static PostgresqlConnectionFactory createConnectionFactory(@NonNull String host, int port){
+		return new PostgresqlConnectionFactory(PostgresqlConnectionConfiguration.builder()
+				.host(host)
+				.port(port)
+				.username(Objects.requireNonNull(Credentials.SQL_USERNAME))
+				.password(Credentials.SQL_PASSWORD)
+				.database(Credentials.SQL_DATABASE)
+				.connectTimeout(Duration.ofSeconds(3))
+				// statements in Queries never change, so the prepared statements of each connection get reused
+				.preparedStatementCacheQueries(PREPARED_STATEMENT_CACHE_SIZE)
+				// notices when the otherwise silent listener connection dies
+				.tcpKeepAlive(true)
+				.build()
+		);
+	}
+
+	/**
+	 * A connection together with the {@link AdaptivePoolLimit.Permit} that allowed using it, if its pool is limited.
+	 */
+	private static class Lease {
+		private final Connection connection;
+		@Nullable private final AdaptivePoolLimit.Permit permit;
+		private Lease(@NonNull Connection connection, @Nullable AdaptivePoolLimit.Permit permit){
+			this.connection = connection;
+			this.permit = permit;
+		}
+		@NonNull
+		private Mono<Void> release(){
+			return Mono.from(connection.close()).doFinally(signal -> {
+				if(permit != null) permit.release();
+			});
+		}
+	}
+
+	/**
+	 * Waits for {@link #poolLimit} to allow another connection, gets one of the {@link Connection}s inside
+	 * {@link #pool} and records how long that took. Callers have to release the lease themselves, so use
+	 * {@link #useConnection(Function)} or {@link #useConnectionMany(Function)} instead.
+	 *
+	 * @return A database connection
+	 */
+	@NonNull
+	private Mono<Lease> getConnection(){
+		return Mono.defer(() -> {
+			long start = System.nanoTime();
+			return poolLimit.acquire().flatMap(permit -> pool.create()
+					.map(con -> new Lease(con, permit))
+					.doOnError(err -> permit.release())
+					.doOnCancel(permit::release)
+			).doOnNext(lease -> {
+				long nanos = System.nanoTime() - start;
+				acquireLatency.record(nanos);
+				poolLimit.record(nanos);
+			});
+		});
+	}
+
+	/**
+	 * @param fresh Whether the read has to see the latest writes, which only the primary guarantees
+	 * @return A connection to a read replica, or to the primary if {@code fresh}, there are no replicas or the
+	 * replica could not be reached
+	 */
+	@NonNull
+	private Mono<Lease> getReadConnection(boolean fresh){
+		if(fresh || replicaPools.isEmpty()){
+			return getConnection().doOnNext(lease -> primaryReads.increment());
+		}
+		ConnectionPool replica = replicaPools.get(Math.floorMod(nextReplica.getAndIncrement(), replicaPools.size()));
+		return replica.create()
+				.map(con -> new Lease(con, null))
+				.doOnNext(lease -> replicaReads.increment())
+				.onErrorResume(err -> {
+					replicaFailures.increment();
+					logger.debug("Could not connect to read replica, reading from primary", err);
+					return getConnection().doOnNext(lease -> primaryReads.increment());
+				});
+	}
+
+	@NonNull
+	private Mono<Lease> getWriteConnection(){
+		return writePool.create().map(con -> new Lease(con, null));
+	}
+
+	/**
+	 * Runs {@code function} with a leased connection. The connection is released once the returned {@link Mono}
+	 * completes, errors or gets cancelled.
+	 *
+	 * @param lease    The connection to use
+	 * @param function The function using the connection
+	 * @return A {@link Mono} emitting the result of {@code function}
+	 */
+	@NonNull
+	private static <T> Mono<T> use(@NonNull Mono<Lease> lease, @NonNull Function<Connection, Mono<T>> function){
+		return Mono.usingWhen(lease, l -> function.apply(l.connection), Lease::release, (l, err) -> l.release(), Lease::release);
+	}
+
+	/**
+	 * Runs {@code function} with a leased connection. The connection is released once the returned {@link Flux}
+	 * completes, errors or gets cancelled.
+	 *
+	 * @param lease    The connection to use
+	 * @param function The function using the connection
+	 * @return A {@link Flux} emitting the results of {@code function}
+	 */
+	@NonNull
+	private static <T> Flux<T> useMany(@NonNull Mono<Lease> lease, @NonNull Function<Connection, Publisher<T>> function){
+		return Flux.usingWhen(lease, l -> function.apply(l.connection), Lease::release, (l, err) -> l.release(), Lease::release);
+	}
+
+	/**
+	 * Runs {@code function} with a pooled connection to the primary, see {@link #use(Mono, Function)}.
+	 */
+	@NonNull
+	private <T> Mono<T> useConnection(@NonNull Function<Connection, Mono<T>> function){
+		return use(getConnection(), function);
+	}
+
+	/**
+	 * Runs {@code function} with a pooled connection to the primary, see {@link #useMany(Mono, Function)}.
+	 */
+	@NonNull
+	private <T> Flux<T> useConnectionMany(@NonNull Function<Connection, Publisher<T>> function){
+		return useMany(getConnection(), function);
+	}
+
+	/**
+	 * @return The current state of the connection pool, empty if the pool does not provide metrics
+	 */
+	@NonNull
+	public Optional<PoolMetrics> getPoolMetrics(){
+		return pool.getMetrics();
+	}
+
+	/**
+	 * @return The time it took to get a connection from the pool, including the wait for a free one
+	 */
+	@NonNull
+	public LatencyHistogram getAcquireLatency(){
+		return acquireLatency;
+	}
+
+	/**
+	 * @return The amount of connections that can currently be in use at the same time
+	 */
+	public int getConnectionLimit(){
+		return poolLimit.getLimit();
+	}
+
+	/**
+	 * @return The amount of reads that used the primary
+	 */
+	public long getPrimaryReads(){
+		return primaryReads.sum();
+	}
+
+	/**
+	 * @return The amount of reads that used a read replica
+	 */
+	public long getReplicaReads(){
+		return replicaReads.sum();
+	}
+
+	/**
+	 * @return The amount of reads that used the primary because a read replica could not be reached
+	 */
+	public long getReplicaFailures(){
+		return replicaFailures.sum();
+	}
+
+	/**
+	 * @return The copies sent for slow settings and permission reads, see {@link HedgedReads}
+	 */
+	@NonNull
+	public HedgedReads getHedgedReads(){
+		return hedgedReads;
+	}
+
+	/**
+	 * Logs a warning whenever queries have to wait for a free connection, forgets expired recent writes and starts
+	 * a new interval for the delay of {@link #hedgedReads}.
+	 */
+	private void monitorPool(){
+		getPoolMetrics().filter(metrics -> metrics.pendingAcquireSize() > 0 || poolLimit.getWaiting() > 0).ifPresent(metrics ->
+				logger.warn("Connection pool saturated: acquired={}, idle={}, pending={}, max={}, limit={}, acquire latency [{}]",
+						metrics.acquiredSize(), metrics.idleSize(), metrics.pendingAcquireSize() + poolLimit.getWaiting(), metrics.getMaxAllocatedSize(), poolLimit.getLimit(), acquireLatency)
+		);
+		writePool.getMetrics().filter(metrics -> metrics.pendingAcquireSize() > 0).ifPresent(metrics ->
+				logger.warn("Write connection pool saturated: acquired={}, idle={}, pending={}, max={}",
+						metrics.acquiredSize(), metrics.idleSize(), metrics.pendingAcquireSize(), metrics.getMaxAllocatedSize())
+		);
+		if(replicaFailures.sum() > 0) logger.debug("Reads: primary={}, replica={}, replica failures={}", getPrimaryReads(), getReplicaReads(), getReplicaFailures());
+		if(hedgedReads.getIssued() > 0) logger.debug("{}", hedgedReads);
+		recentWrites.cleanUp();
+		hedgedReads.rotate();
+	}
+
+	@NonNull
+	@Override
+	public Mono<Void> disconnect(){
+		return Mono.fromRunnable(() -> {
+			poolMonitor.dispose();
+			listening.dispose();
+		}).then(Flux.concat(pool.disposeLater(), writePool.disposeLater(), Flux.fromIterable(replicaPools).concatMap(ConnectionPool::disposeLater)).then());
+	}
+
+	/**
+	 * Opens the initial connections of the pools, brings the schema up to date, see {@link Migrations}, and starts
+	 * listening for changes of other processes. Unreachable read replicas only get logged, reads use the primary
+	 * until they are reachable.
+	 *
+	 * @return An empty {@link Mono}
+	 */
+	@NonNull
+	@Override
+	public Mono<Void> initialize(){
+		Mono<Void> warmup = Mono.zip(pool.warmup(), writePool.warmup(), (read, write) -> read + write)
+				.doOnNext(count -> logger.info("Opened {} database connections", count))
+				.then();
+		Mono<Void> replicaWarmup = Flux.fromIterable(replicaPools)
+				.flatMap(replica -> replica.warmup().onErrorResume(err -> {
+					logger.warn("Could not connect to read replica", err);
+					return Mono.just(0);
+				}))
+				.reduce(0, Integer::sum)
+				.doOnNext(count -> {
+					if(!replicaPools.isEmpty()) logger.info("Opened {} connections to {} read replicas", count, replicaPools.size());
+				})
+				.then();
+		return warmup.then(use(getWriteConnection(), Migrations::apply))
+				.then(replicaWarmup)
+				.doOnSuccess(nothing -> listening = notificationListener.listen()
+						.doOnNext(this::markInvalidated)
+						.subscribe(invalidationSink::next))
+				.then();
+	}
+
+	/**
+	 * Another process changed rows, which the read replicas might not have received yet either.
+	 */
+	private void markInvalidated(@NonNull Invalidation invalidation){
+		DataHandler.Tables table = invalidation.getKind() == Invalidation.Kind.GUILD ? DataHandler.Tables.GUILDS
+				: invalidation.getKind() == Invalidation.Kind.USER ? DataHandler.Tables.USERS
+				: DataHandler.Tables.DEVS;
+		if(invalidation.isAll()) recentWrites.markAll(table);
+		else for(long id : invalidation.getIds()) recentWrites.mark(table, id);
+	}
+
+	@NonNull
+	@Override
+	public Flux<Invalidation> getInvalidations(){
+		return invalidations;
+	}
+
+	@NonNull
+	@Override
+	public Mono<Boolean> initializeGuild(@NonNull Snowflake guildId){
+		return use(getWriteConnection(), con -> Queries.INSERT_GUILD.executeUpdate(con, guildId.asLong()))
+				.doFinally(signal -> recentWrites.mark(DataHandler.Tables.GUILDS, guildId.asLong()))
+				.map(i -> i > 0);
+	}
+
+	@NonNull
+	@Override
+	public Flux<Snowflake> initializeGuilds(@NonNull Collection<Snowflake> guildIds){
+		if(guildIds.isEmpty()) return Flux.empty();
+		Long[] ids = guildIds.stream().map(Snowflake::asLong).toArray(Long[]::new);
+		return useMany(getWriteConnection(), con -> Queries.INSERT_GUILDS.execute(con, ids))
+				.doFinally(signal -> recentWrites.mark(DataHandler.Tables.GUILDS, Arrays.asList(ids)));
+	}
+
+	@NonNull
+	@Override
+	public Mono<Boolean> initializeUser(@NonNull Snowflake userId){
+		return use(getWriteConnection(), con -> Queries.INSERT_USER.executeUpdate(con, userId.asLong()))
+				.doFinally(signal -> recentWrites.mark(DataHandler.Tables.USERS, userId.asLong()))
+				.map(i -> i > 0);
+	}
+
+	@NonNull
+	@Override
+	public Flux<Snowflake> initializeUsers(@NonNull Collection<Snowflake> userIds){
+		if(userIds.isEmpty()) return Flux.empty();
+		Long[] ids = userIds.stream().map(Snowflake::asLong).toArray(Long[]::new);
+		return useMany(getWriteConnection(), con -> Queries.INSERT_USERS.execute(con, ids))
+				.doFinally(signal -> recentWrites.mark(DataHandler.Tables.USERS, Arrays.asList(ids)));
+	}
+
+	@NonNull
+	@Override
+	public Mono<DBGuild> getGuild(@NonNull Snowflake guildId){
+		boolean fresh = recentWrites.isRecent(DataHandler.Tables.GUILDS, guildId.asLong());
+		return hedgedReads.read(() -> use(getReadConnection(fresh), con -> Queries.GET_GUILD.execute(con, guildId.asLong()).next()));
+	}
+
+	@NonNull
+	@Override
+	public Flux<DBGuild> getGuilds(@NonNull Collection<Snowflake> guildIds){
+		if(guildIds.isEmpty()) return Flux.empty();
+		Long[] ids = guildIds.stream().map(Snowflake::asLong).toArray(Long[]::new);
+		boolean fresh = Arrays.stream(ids).anyMatch(id -> recentWrites.isRecent(DataHandler.Tables.GUILDS, id));
+		return useMany(getReadConnection(fresh), con -> Queries.GET_GUILDS.execute(con, ids));
+	}
+
+	@NonNull
+	@Override
+	public Mono<DBUser> getUser(@NonNull Snowflake userId){
+		boolean fresh = recentWrites.isRecent(DataHandler.Tables.USERS, userId.asLong());
+		return hedgedReads.read(() -> use(getReadConnection(fresh), con -> Queries.GET_USER.execute(con, userId.asLong()).next()));
+	}
+
+	@NonNull
+	@Override
+	public Flux<PermissionManager.CommandPermission> getPermissions(@NonNull String permName, @NonNull Snowflake guildId){
+		Queries.PermissionKey key = new Queries.PermissionKey(guildId.asLong(), permName);
+		boolean fresh = recentWrites.isRecent(DataHandler.Tables.PERMISSIONS, guildId.asLong());
+		return hedgedReads.readMany(() -> useMany(getReadConnection(fresh), con -> Queries.GET_PERMISSIONS.execute(con, key)));
+	}
+
+	@NonNull
+	@Override
+	public Mono<Boolean> addDev(@NonNull DBDev dev){
+		return use(getWriteConnection(), con -> Queries.INSERT_DEV.executeUpdate(con, dev))
+				.doFinally(signal -> recentWrites.mark(DataHandler.Tables.DEVS, dev.getId().asLong()))
+				.map(i -> i > 0);
+	}
+
+	@NonNull
+	@Override
+	public Mono<DBDev> getDev(@NonNull Snowflake userId){
+		boolean fresh = recentWrites.isRecent(DataHandler.Tables.DEVS, userId.asLong());
+		return use(getReadConnection(fresh), con -> Queries.GET_DEV.execute(con, userId.asLong()).next());
+	}
+
+	@NonNull
+	@Override
+	public Flux<DBDev> getAllDevs(){
+		return useMany(getReadConnection(recentWrites.isRecent(DataHandler.Tables.DEVS)), con -> Queries.GET_ALL_DEVS.execute(con, null));
+	}
+
+	/**
+	 * Reads the table through a cursor, so only {@link BulkTransfer#FETCH_SIZE} rows are in memory at a time.
+	 */
+	@NonNull
+	@Override
+	public Flux<Object[]> exportRows(@NonNull DataHandler.Tables table){
+		List<BulkTransfer.Column> columns = BulkTransfer.columnsOf(table);
+		String sql = "SELECT " + columns.stream().map(BulkTransfer.Column::getName).collect(Collectors.joining(", ")) + " FROM " + table.getName();
+		return useConnectionMany(con -> Flux.from(con.createStatement(sql).fetchSize(BulkTransfer.FETCH_SIZE).execute())
+				.concatMap(result -> result.map((row, rowMetadata) -> {
+					Object[] values = new Object[columns.size()];
+					for(int i = 0; i < values.length; i++) values[i] = row.get(i, columns.get(i).getType().getJavaType());
+					return values;
+				}))
+		);
+	}
+
+	/**
+	 * Inserts all rows with a single statement, binding one array per column and turning them back into rows with
+	 * {@code unnest}.
+	 */
+	@NonNull
+	@Override
+	public Mono<Long> importRows(@NonNull DataHandler.Tables table, @NonNull List<Object[]> rows){
+		if(rows.isEmpty()) return Mono.just(0L);
+		List<BulkTransfer.Column> columns = BulkTransfer.columnsOf(table);
+		StringJoiner names = new StringJoiner(", ");
+		StringJoiner arrays = new StringJoiner(", ");
+		for(int i = 0; i < columns.size(); i++){
+			names.add(columns.get(i).getName());
+			arrays.add("$" + (i + 1) + "::" + columns.get(i).getType().getArrayCast());
+		}
+		String sql = "INSERT INTO " + table.getName() + " (" + names + ") SELECT * FROM unnest(" + arrays + ") ON CONFLICT DO NOTHING";
+		return use(getWriteConnection(), con -> {
+			Statement statement = con.createStatement(sql);
+			for(int i = 0; i < columns.size(); i++){
+				BulkTransfer.Type type = columns.get(i).getType();
+				Object[] values = type == BulkTransfer.Type.BIGINT ? new Long[rows.size()] : new String[rows.size()];
+				for(int j = 0; j < values.length; j++){
+					Object value = rows.get(j)[i];
+					values[j] = type == BulkTransfer.Type.BOOLEAN && value != null ? value.toString() : value;
+				}
+				statement.bind(i, values);
+			}
+			return Flux.from(statement.execute()).flatMap(Result::getRowsUpdated).reduce(0L, (sum, updated) -> sum + updated);
+		}).doFinally(signal -> recentWrites.markAll(table));
+	}
+
+	/**
+	 * Writes the pending rows of one table with {@code UPDATE ... FROM (VALUES ...)} statements, each holding as many
+	 * rows as fit into the bind parameter limit, see {@link WriteBehindQueue#maxRowsPerStatement(DataHandler.Tables)}.
+	 * The same statements notify other processes about the updated rows, see {@link NotificationListener}.
+	 *
+	 * @param table The table to update
+	 * @param rows  The pending values by primary key, see {@link WriteBehindQueue}
+	 * @return An empty {@link Mono}
+	 */
+	@NonNull
+	@Override
+	public Mono<Void> writeBatch(@NonNull DataHandler.Tables table, @NonNull Map<Long, Object[]> rows){
+		List<Map.Entry<Long, Object[]>> entries = new ArrayList<>(rows.entrySet());
+		int rowsPerStatement = WriteBehindQueue.maxRowsPerStatement(table);
+		int statements = (entries.size() + rowsPerStatement - 1) / rowsPerStatement;
+		return use(getWriteConnection(), con -> Flux.range(0, statements)
+				.concatMap(i -> writeRows(con, table, entries.subList(i * rowsPerStatement, Math.min(entries.size(), (i + 1) * rowsPerStatement))))
+				.then()
+		).doFinally(signal -> recentWrites.mark(table, rows.keySet()));
+	}
+
+	@NonNull
+	private static Mono<Void> writeRows(@NonNull Connection con, @NonNull DataHandler.Tables table, @NonNull List<Map.Entry<Long, Object[]>> rows){
+		List<WriteBehindQueue.Column> columns = WriteBehindQueue.Column.of(table);
+		String update = WriteBehindQueue.buildUpdateStatement(table, rows.size());
+		Invalidation.Kind kind = NotificationListener.kindOf(table);
+		String sql = kind == null ? update : "WITH updated AS (" + update + " RETURNING t." + table.getKeyColumn() + " AS id) " +
+				"SELECT pg_notify('" + NotificationListener.channelOf(kind) + "', $" + (rows.size() * (columns.size() + 1) + 1) + " || ':' || string_agg(id::TEXT, ',')) " +
+				"FROM (SELECT id, (row_number() OVER ()) / " + NotificationListener.IDS_PER_NOTIFICATION + " AS chunk FROM updated) AS u GROUP BY chunk";
+		Statement statement = con.createStatement(sql);
+		int index = 0;
+		for(Map.Entry<Long, Object[]> row : rows){
+			statement.bind(index++, row.getKey());
+			for(WriteBehindQueue.Column column : columns){
+				Object value = row.getValue()[column.ordinal()];
+				if(value == null) statement.bindNull(index++, column.getType());
+				else statement.bind(index++, value);
+			}
+		}
+		if(kind == null) return Flux.from(statement.execute()).flatMap(Result::getRowsUpdated).then();
+		statement.bind(index, NotificationListener.NODE_ID);
+		return Flux.from(statement.execute()).flatMap(result -> result.map((row, rowMetadata) -> 1)).then();
+	}
+
+}
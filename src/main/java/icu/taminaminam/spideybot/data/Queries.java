@@ -0,0 +1,112 @@
+package icu.taminaminam.spideybot.data;
+
+import icu.taminaminam.spideybot.commands.PermissionManager;
+import discord4j.common.util.Snowflake;
+import reactor.util.annotation.NonNull;
+
+/**
+ * All statements {@link DataHandler} executes on the hot path. Every statement is built exactly once.
+ */
+final class Queries {
+
+	private Queries(){}
+
+	static final Query<Long, DBGuild> GET_GUILD = Query.select(DBGuild.class,
+			"FROM " + DataHandler.Tables.GUILDS.getName() + " WHERE guildId=$1",
+			(statement, guildId) -> statement.bind(0, guildId),
+			DBGuild::ofRow
+	);
+
+	static final Query<Long[], DBGuild> GET_GUILDS = Query.select(DBGuild.class,
+			"FROM " + DataHandler.Tables.GUILDS.getName() + " WHERE guildId = ANY($1)",
+			(statement, guildIds) -> statement.bind(0, guildIds),
+			DBGuild::ofRow
+	);
+
+	static final Query<Long, DBUser> GET_USER = Query.select(DBUser.class,
+			"FROM " + DataHandler.Tables.USERS.getName() + " WHERE userId=$1",
+			(statement, userId) -> statement.bind(0, userId),
+			DBUser::ofRow
+	);
+
+	static final Query<PermissionKey, PermissionManager.CommandPermission> GET_PERMISSIONS = Query.select(PermissionManager.CommandPermission.class,
+			"FROM " + DataHandler.Tables.PERMISSIONS.getName() + " WHERE guildId=$1 AND permissionName=$2",
+			(statement, key) -> statement.bind(0, key.guildId).bind(1, key.permissionName),
+			PermissionManager.CommandPermission::ofRow
+	);
+
+	static final Query<Long, DBDev> GET_DEV = Query.select(DBDev.class,
+			"FROM " + DataHandler.Tables.DEVS.getName() + " WHERE userId=$1",
+			(statement, userId) -> statement.bind(0, userId),
+			DBDev::ofRow
+	);
+
+	static final Query<Void, DBDev> GET_ALL_DEVS = Query.select(DBDev.class,
+			"FROM " + DataHandler.Tables.DEVS.getName(),
+			(statement, nothing) -> {},
+			DBDev::ofRow
+	);
+
+	static final Query<Long, Void> INSERT_GUILD = Query.update(
+			"INSERT INTO " + DataHandler.Tables.GUILDS.getName() + " (guildId, prefix, language) VALUES ($1, $2, $3) ON CONFLICT DO NOTHING",
+			(statement, guildId) -> statement.bind(0, guildId)
+					.bind(1, DBGuild.defaultGuild.getPrefix())
+					.bind(2, DBGuild.defaultGuild.getLanguage())
+	);
+
+	static final Query<Long[], Snowflake> INSERT_GUILDS = Query.select(
+			"INSERT INTO " + DataHandler.Tables.GUILDS.getName() + " (guildId, prefix, language) SELECT unnest($1::BIGINT[]), $2, $3 ON CONFLICT DO NOTHING RETURNING guildId",
+			(statement, guildIds) -> statement.bind(0, guildIds)
+					.bind(1, DBGuild.defaultGuild.getPrefix())
+					.bind(2, DBGuild.defaultGuild.getLanguage()),
+			row -> Snowflake.of(Rows.getLong(row, 0))
+	);
+
+	static final Query<Long, Void> INSERT_USER = Query.update(
+			"INSERT INTO " + DataHandler.Tables.USERS.getName() + " (userId, prefix, language) VALUES ($1, $2, $3) ON CONFLICT DO NOTHING",
+			(statement, userId) -> statement.bind(0, userId)
+					.bind(1, DBUser.defaultUser.getPrefix())
+					.bind(2, DBUser.defaultUser.getLanguage())
+	);
+
+	static final Query<Long[], Snowflake> INSERT_USERS = Query.select(
+			"INSERT INTO " + DataHandler.Tables.USERS.getName() + " (userId, prefix, language) SELECT unnest($1::BIGINT[]), $2, $3 ON CONFLICT DO NOTHING RETURNING userId",
+			(statement, userIds) -> statement.bind(0, userIds)
+					.bind(1, DBUser.defaultUser.getPrefix())
+					.bind(2, DBUser.defaultUser.getLanguage()),
+			row -> Snowflake.of(Rows.getLong(row, 0))
+	);
+
+	static final Query<DBDev, Void> INSERT_DEV = Query.update(
+			"INSERT INTO " + DataHandler.Tables.DEVS.getName() + " (userId, isDev, isOwner, isListed, devRole, status) VALUES ($1, $2, $3, $4, $5, $6) ON CONFLICT DO NOTHING",
+			(statement, dev) -> statement.bind(0, dev.getId().asLong())
+					.bind(1, dev.isDev())
+					.bind(2, dev.isOwner())
+					.bind(3, dev.isListed())
+					.bind(4, dev.getDevRole())
+					.bind(5, dev.getStatus())
+	);
+
+	/**
+	 * The parameters of {@link #GET_PERMISSIONS}.
+	 */
+	static final class PermissionKey {
+		private final long guildId;
+		private final String permissionName;
+		PermissionKey(long guildId, @NonNull String permissionName){
+			this.guildId = guildId;
+			this.permissionName = permissionName;
+		}
+		long getGuildId(){ return guildId; }
+		@NonNull String getPermissionName(){ return permissionName; }
+		@Override
+		public boolean equals(Object o){
+			return o instanceof PermissionKey && ((PermissionKey)o).guildId == guildId && ((PermissionKey)o).permissionName.equals(permissionName);
+		}
+		@Override
+		public int hashCode(){
+			return 31 * Long.hashCode(guildId) + permissionName.hashCode();
+		}
+	}
+
+}
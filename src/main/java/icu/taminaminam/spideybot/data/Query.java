@@ -0,0 +1,138 @@
+package icu.taminaminam.spideybot.data;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import io.r2dbc.spi.Statement;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A statement that gets defined once and can then be executed on any {@link Connection}.
+ * <p>
+ * The SQL string never changes, so the driver can reuse the server-side prepared statement it cached for the
+ * connection. Parameters are bound by index to avoid parsing parameter names on every execution.
+ *
+ * @param <P> The type holding the parameters of the statement
+ * @param <R> The type every returned row gets mapped to
+ */
+final class Query<P, R> {
+
+	private final String sql;
+	private final Binder<P> binder;
+	@Nullable private final RowMapper<R> mapper;
+	@Nullable private final String[] columns;
+	private volatile boolean columnsChecked = false;
+
+	private Query(@NonNull String sql, @NonNull Binder<P> binder, @Nullable RowMapper<R> mapper, @Nullable String[] columns){
+		this.sql = sql;
+		this.binder = binder;
+		this.mapper = mapper;
+		this.columns = columns;
+	}
+
+	/**
+	 * @param sql    The SQL statement using {@code $1}, {@code $2}, ... as placeholders
+	 * @param binder Binds the parameters to the statement
+	 * @param mapper Maps every returned row
+	 * @return The new {@link Query}
+	 */
+	@NonNull
+	static <P, R> Query<P, R> select(@NonNull String sql, @NonNull Binder<P> binder, @NonNull RowMapper<R> mapper){
+		return new Query<>(sql, binder, mapper, null);
+	}
+
+	/**
+	 * Selects the {@link Columns} of {@code type} in their declared order, so {@code mapper} can read them by index.
+	 *
+	 * @param type   The entity annotated with {@link Columns}
+	 * @param from   The rest of the statement after the column list, starting with {@code FROM}
+	 * @param binder Binds the parameters to the statement
+	 * @param mapper Maps every returned row, reading the columns by index
+	 * @return The new {@link Query}
+	 */
+	@NonNull
+	static <P, R> Query<P, R> select(@NonNull Class<R> type, @NonNull String from, @NonNull Binder<P> binder, @NonNull RowMapper<R> mapper){
+		return new Query<>("SELECT " + Rows.columnList(type) + " " + from, binder, mapper, Rows.columns(type));
+	}
+
+	/**
+	 * @param sql    The SQL statement using {@code $1}, {@code $2}, ... as placeholders
+	 * @param binder Binds the parameters to the statement
+	 * @return The new {@link Query} which does not return any rows
+	 */
+	@NonNull
+	static <P> Query<P, Void> update(@NonNull String sql, @NonNull Binder<P> binder){
+		return new Query<>(sql, binder, null, null);
+	}
+
+	@NonNull String getSql(){ return sql; }
+
+	@NonNull
+	private Statement prepare(@NonNull Connection con, P params){
+		Statement statement = con.createStatement(sql);
+		binder.bind(statement, params);
+		return statement;
+	}
+
+	/**
+	 * @param con    The connection to execute the statement on
+	 * @param params The parameters of the statement
+	 * @return A {@link Flux} emitting all mapped rows
+	 */
+	@NonNull
+	Flux<R> execute(@NonNull Connection con, P params){
+		if(mapper == null) return Flux.error(new IllegalStateException("Query does not return rows: " + sql));
+		return Flux.from(prepare(con, params).execute())
+				.flatMap(result -> result.map((row, rowMetadata) -> {
+					if(!columnsChecked) checkColumns(rowMetadata);
+					return mapper.map(row);
+				}));
+	}
+
+	/**
+	 * Makes sure the returned columns are the ones the mapper expects by index. Only done for the first row, the
+	 * columns of a statement never change.
+	 */
+	private void checkColumns(@NonNull RowMetadata metadata){
+		if(columns != null){
+			List<String> names = new ArrayList<>(metadata.getColumnNames());
+			if(names.size() < columns.length) throw new IllegalStateException("Expected columns " + Arrays.toString(columns) + " but got " + names + " for: " + sql);
+			for(int i = 0; i < columns.length; i++){
+				// unquoted names are folded to lower case by the database
+				if(!columns[i].equalsIgnoreCase(names.get(i))) throw new IllegalStateException("Expected columns " + Arrays.toString(columns) + " but got " + names + " for: " + sql);
+			}
+		}
+		columnsChecked = true;
+	}
+
+	/**
+	 * @param con    The connection to execute the statement on
+	 * @param params The parameters of the statement
+	 * @return A {@link Mono} emitting the amount of updated rows
+	 */
+	@NonNull
+	Mono<Integer> executeUpdate(@NonNull Connection con, P params){
+		return Flux.from(prepare(con, params).execute())
+				.flatMap(Result::getRowsUpdated)
+				.reduce(0, Integer::sum);
+	}
+
+	@FunctionalInterface
+	interface Binder<P> {
+		void bind(@NonNull Statement statement, P params);
+	}
+
+	@FunctionalInterface
+	interface RowMapper<R> {
+		@NonNull R map(@NonNull Row row);
+	}
+
+}
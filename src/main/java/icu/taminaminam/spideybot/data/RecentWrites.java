@@ -0,0 +1,96 @@
+package icu.taminaminam.spideybot.data;
+
+import reactor.util.annotation.NonNull;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers which rows got written recently, so they get read from the primary until read replicas received the
+ * change. Expired entries get removed by {@link #cleanUp()}.
+ */
+final class RecentWrites {
+
+	private final long windowNanos;
+	private final List<ConcurrentMap<Long, Long>> expiries;
+	/**
+	 * The time until which every row of a table counts as recently written, by {@link DataHandler.Tables#ordinal()}
+	 */
+	private final AtomicLongArray tableExpiries;
+
+	/**
+	 * @param window The time a written row counts as recently written
+	 */
+	RecentWrites(@NonNull Duration window){
+		this.windowNanos = window.toNanos();
+		int tables = DataHandler.Tables.values().length;
+		this.expiries = new ArrayList<>(tables);
+		for(int i = 0; i < tables; i++) expiries.add(new ConcurrentHashMap<>());
+		long now = System.nanoTime();
+		this.tableExpiries = new AtomicLongArray(tables);
+		for(int i = 0; i < tables; i++) tableExpiries.set(i, now);
+	}
+
+	/**
+	 * @param table The table that got written
+	 * @param key   The key of the written row, see {@link DataHandler.Tables#getKeyColumn()}
+	 */
+	void mark(@NonNull DataHandler.Tables table, long key){
+		if(windowNanos > 0) expiries.get(table.ordinal()).put(key, System.nanoTime() + windowNanos);
+	}
+
+	/**
+	 * @param table The table that got written
+	 * @param keys  The keys of the written rows
+	 */
+	void mark(@NonNull DataHandler.Tables table, @NonNull Collection<Long> keys){
+		if(windowNanos <= 0) return;
+		long expiry = System.nanoTime() + windowNanos;
+		ConcurrentMap<Long, Long> tableExpiry = expiries.get(table.ordinal());
+		for(Long key : keys) tableExpiry.put(key, expiry);
+	}
+
+	/**
+	 * @param table The table of which an unknown amount of rows got written
+	 */
+	void markAll(@NonNull DataHandler.Tables table){
+		tableExpiries.set(table.ordinal(), System.nanoTime() + windowNanos);
+	}
+
+	/**
+	 * @param table The table
+	 * @return Whether any row of the table got written recently
+	 */
+	boolean isRecent(@NonNull DataHandler.Tables table){
+		long now = System.nanoTime();
+		if(tableExpiries.get(table.ordinal()) - now > 0) return true;
+		for(long expiry : expiries.get(table.ordinal()).values()) if(expiry - now > 0) return true;
+		return false;
+	}
+
+	/**
+	 * @param table The table
+	 * @param key   The key of the row
+	 * @return Whether the row got written recently
+	 */
+	boolean isRecent(@NonNull DataHandler.Tables table, long key){
+		long now = System.nanoTime();
+		if(tableExpiries.get(table.ordinal()) - now > 0) return true;
+		Long expiry = expiries.get(table.ordinal()).get(key);
+		return expiry != null && expiry - now > 0;
+	}
+
+	/**
+	 * Removes all expired entries.
+	 */
+	void cleanUp(){
+		long now = System.nanoTime();
+		for(ConcurrentMap<Long, Long> tableExpiry : expiries) tableExpiry.values().removeIf(expiry -> expiry - now <= 0);
+	}
+
+}
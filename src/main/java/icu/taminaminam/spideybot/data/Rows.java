@@ -0,0 +1,71 @@
+package icu.taminaminam.spideybot.data;
+
+import io.r2dbc.spi.Row;
+import reactor.util.annotation.NonNull;
+
+/**
+ * Index based accessors for {@link Row}s, used by the {@code ofRow} methods of all entities annotated with
+ * {@link Columns}.
+ */
+public final class Rows {
+	
+	private Rows(){}
+	
+	/**
+	 * @param type An entity annotated with {@link Columns}
+	 * @return The columns of the entity
+	 * @throws IllegalArgumentException If the type is not annotated
+	 */
+	@NonNull
+	public static String[] columns(@NonNull Class<?> type){
+		Columns columns = type.getAnnotation(Columns.class);
+		if(columns == null) throw new IllegalArgumentException(type.getName() + " is not annotated with @Columns");
+		return columns.value();
+	}
+	
+	/**
+	 * @param type An entity annotated with {@link Columns}
+	 * @return The columns of the entity, separated by commas for use in a {@code SELECT} statement
+	 */
+	@NonNull
+	public static String columnList(@NonNull Class<?> type){
+		return String.join(", ", columns(type));
+	}
+	
+	/**
+	 * Reads a {@code BIGINT}, e.g. a snowflake. It gets decoded as {@link Long} and never passes through an
+	 * {@link Integer}, which would truncate it.
+	 *
+	 * @param row   The row to read from
+	 * @param index The index of the column
+	 * @return The value of the column
+	 * @throws IllegalStateException If the value is {@code NULL}
+	 */
+	public static long getLong(@NonNull Row row, int index){
+		Long value = row.get(index, Long.class);
+		if(value == null) throw new IllegalStateException("Column " + index + " is NULL");
+		return value;
+	}
+	
+	/**
+	 * @param row   The row to read from
+	 * @param index The index of the column
+	 * @return The value of the column, {@code false} if it is {@code NULL}
+	 */
+	public static boolean getBoolean(@NonNull Row row, int index){
+		return Boolean.TRUE.equals(row.get(index, Boolean.class));
+	}
+	
+	/**
+	 * @param row      The row to read from
+	 * @param index    The index of the column
+	 * @param fallback The value to return if the column is {@code NULL}
+	 * @return The value of the column
+	 */
+	@NonNull
+	public static String getString(@NonNull Row row, int index, @NonNull String fallback){
+		String value = row.get(index, String.class);
+		return value == null ? fallback : value;
+	}
+	
+}
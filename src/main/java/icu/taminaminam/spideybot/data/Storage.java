@@ -0,0 +1,115 @@
+package icu.taminaminam.spideybot.data;
+
+import icu.taminaminam.spideybot.commands.PermissionManager;
+import discord4j.common.util.Snowflake;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A place the bot data can be stored in. {@link DataHandler} uses the implementation selected by
+ * {@link icu.taminaminam.spideybot.main.Credentials#STORAGE_TYPE}.
+ */
+public interface Storage {
+	
+	/**
+	 * Prepares the storage, e.g. by creating all missing tables.
+	 *
+	 * @return An empty {@link Mono}
+	 */
+	@NonNull Mono<Void> initialize();
+	
+	/**
+	 * Releases all resources of the storage.
+	 *
+	 * @return An empty {@link Mono}
+	 */
+	@NonNull Mono<Void> disconnect();
+	
+	/**
+	 * @param guildId The ID of the guild that should get saved with the default values
+	 * @return A {@link Mono} emitting whether the guild got newly inserted
+	 */
+	@NonNull Mono<Boolean> initializeGuild(@NonNull Snowflake guildId);
+	
+	/**
+	 * @param guildIds The IDs of the guilds that should get saved with the default values
+	 * @return A {@link Flux} emitting the IDs of all guilds that got newly inserted
+	 */
+	@NonNull Flux<Snowflake> initializeGuilds(@NonNull Collection<Snowflake> guildIds);
+	
+	/**
+	 * @param userId The ID of the user that should get saved with the default values
+	 * @return A {@link Mono} emitting whether the user got newly inserted
+	 */
+	@NonNull Mono<Boolean> initializeUser(@NonNull Snowflake userId);
+	
+	/**
+	 * @param userIds The IDs of the users that should get saved with the default values
+	 * @return A {@link Flux} emitting the IDs of all users that got newly inserted
+	 */
+	@NonNull Flux<Snowflake> initializeUsers(@NonNull Collection<Snowflake> userIds);
+	
+	@NonNull Mono<DBGuild> getGuild(@NonNull Snowflake guildId);
+	
+	/**
+	 * @param guildIds The IDs of the guilds to get
+	 * @return A {@link Flux} emitting all stored guilds of the IDs, in no particular order
+	 */
+	@NonNull Flux<DBGuild> getGuilds(@NonNull Collection<Snowflake> guildIds);
+	
+	@NonNull Mono<DBUser> getUser(@NonNull Snowflake userId);
+	
+	@NonNull Flux<PermissionManager.CommandPermission> getPermissions(@NonNull String permName, @NonNull Snowflake guildId);
+	
+	/**
+	 * @param dev The dev that should get saved
+	 * @return A {@link Mono} emitting whether the dev got newly inserted
+	 */
+	@NonNull Mono<Boolean> addDev(@NonNull DBDev dev);
+	
+	@NonNull Mono<DBDev> getDev(@NonNull Snowflake userId);
+	
+	@NonNull Flux<DBDev> getAllDevs();
+	
+	/**
+	 * Writes a batch of settings updates collected by the {@link WriteBehindQueue}.
+	 *
+	 * @param table The table to update
+	 * @param rows  The pending values by primary key, indexed by {@link WriteBehindQueue.Column#ordinal()}
+	 * @return An empty {@link Mono}
+	 */
+	@NonNull Mono<Void> writeBatch(@NonNull DataHandler.Tables table, @NonNull Map<Long, Object[]> rows);
+	
+	/**
+	 * Used by {@link BulkTransfer}.
+	 *
+	 * @param table The table to read
+	 * @return A {@link Flux} emitting every row of the table, values ordered by {@link BulkTransfer#columnsOf}
+	 */
+	@NonNull Flux<Object[]> exportRows(@NonNull DataHandler.Tables table);
+	
+	/**
+	 * Used by {@link BulkTransfer}.
+	 *
+	 * @param table The table to insert into
+	 * @param rows  The rows to insert, values ordered by {@link BulkTransfer#columnsOf}
+	 * @return A {@link Mono} emitting the amount of inserted rows, rows that already exist get skipped
+	 */
+	@NonNull Mono<Long> importRows(@NonNull DataHandler.Tables table, @NonNull List<Object[]> rows);
+	
+	/**
+	 * Storages that are not shared between processes never see changes of others.
+	 *
+	 * @return A {@link Flux} emitting the changes other processes made to this storage
+	 */
+	@NonNull
+	default Flux<Invalidation> getInvalidations(){
+		return Flux.never();
+	}
+	
+}
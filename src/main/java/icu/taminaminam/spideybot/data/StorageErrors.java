@@ -0,0 +1,46 @@
+package icu.taminaminam.spideybot.data;
+
+import io.r2dbc.spi.R2dbcNonTransientException;
+import io.r2dbc.spi.R2dbcNonTransientResourceException;
+import io.r2dbc.spi.R2dbcTransientException;
+import reactor.core.Exceptions;
+import reactor.util.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Classifies the errors of {@link Storage} operations.
+ */
+final class StorageErrors {
+
+	private StorageErrors(){}
+
+	/**
+	 * @param err The error of a storage operation
+	 * @return Whether the database rejected the statement itself, e.g. because a value violates a constraint, so
+	 * executing it again will fail the same way. Lost connections do not count.
+	 */
+	static boolean isRejected(@NonNull Throwable err){
+		for(Throwable cause = Exceptions.unwrap(err); cause != null; cause = cause.getCause()){
+			if(cause instanceof R2dbcNonTransientResourceException) return false;
+			if(cause instanceof R2dbcNonTransientException) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param err The error of a storage operation
+	 * @return Whether the storage could not be reached or did not answer in time, as opposed to errors the storage
+	 * answered with
+	 */
+	static boolean isOutage(@NonNull Throwable err){
+		for(Throwable cause = Exceptions.unwrap(err); cause != null; cause = cause.getCause()){
+			if(cause instanceof DatabaseUnavailableException || cause instanceof TimeoutException) return true;
+			if(cause instanceof R2dbcTransientException || cause instanceof R2dbcNonTransientResourceException) return true;
+			if(cause instanceof IOException) return true;
+		}
+		return false;
+	}
+
+}
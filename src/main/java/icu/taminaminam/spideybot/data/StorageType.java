@@ -0,0 +1,37 @@
+package icu.taminaminam.spideybot.data;
+
+import reactor.util.annotation.NonNull;
+
+public enum StorageType {
+	/**
+	 * The PostgreSQL database configured in {@link icu.taminaminam.spideybot.main.Credentials}
+	 */
+	POSTGRES("postgres"),
+	/**
+	 * Keeps everything in memory, mainly for benchmarks and load tests
+	 */
+	MEMORY("memory"),
+	/**
+	 * Keeps everything in memory and persists it to a local file, for single node deployments
+	 */
+	FILE("file")
+	;
+	private final String name;
+	StorageType(@NonNull String name){
+		this.name = name;
+	}
+	@NonNull public String getName(){ return name; }
+	
+	/**
+	 * @param name The name of the storage type, case insensitive
+	 * @return The {@link StorageType} with the provided name
+	 * @throws IllegalArgumentException if there is no storage type with that name
+	 */
+	@NonNull
+	public static StorageType of(@NonNull String name){
+		for(StorageType type : values()){
+			if(type.name.equalsIgnoreCase(name)) return type;
+		}
+		throw new IllegalArgumentException("Unknown storage type " + name);
+	}
+}
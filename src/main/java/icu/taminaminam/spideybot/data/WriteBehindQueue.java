@@ -0,0 +1,378 @@
+package icu.taminaminam.spideybot.data;
+
+import icu.taminaminam.spideybot.utils.metrics.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.Disposable;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.util.annotation.NonNull;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Collects settings updates in memory and writes them to the database in batches.
+ * <p>
+ * Updates are coalesced per table and key, so if the same column of the same row gets changed multiple times before
+ * the next flush only the last value gets written. A flush happens every {@code interval} or as soon as
+ * {@code maxBatchSize} rows are pending, whichever comes first.
+ */
+public class WriteBehindQueue {
+
+	private static final Logger logger = LogManager.getLogger("WriteBehindQueue");
+
+	/**
+	 * All columns that can be updated through this queue.
+	 */
+	enum Column {
+		GUILD_PREFIX(DataHandler.Tables.GUILDS, "prefix", String.class, "VARCHAR", 10),
+		GUILD_LANGUAGE(DataHandler.Tables.GUILDS, "language", String.class, "VARCHAR", 5),
+		USER_PREFIX(DataHandler.Tables.USERS, "prefix", String.class, "VARCHAR", 25),
+		USER_LANGUAGE(DataHandler.Tables.USERS, "language", String.class, "VARCHAR", 5),
+		DEV_IS_DEV(DataHandler.Tables.DEVS, "isDev", Boolean.class, "BOOLEAN"),
+		DEV_IS_OWNER(DataHandler.Tables.DEVS, "isOwner", Boolean.class, "BOOLEAN"),
+		DEV_IS_LISTED(DataHandler.Tables.DEVS, "isListed", Boolean.class, "BOOLEAN"),
+		DEV_ROLE(DataHandler.Tables.DEVS, "devRole", String.class, "TEXT"),
+		DEV_STATUS(DataHandler.Tables.DEVS, "status", String.class, "TEXT")
+		;
+		private final DataHandler.Tables table;
+		private final String name;
+		private final Class<?> type;
+		private final String sqlType;
+		private final int maxLength;
+		Column(@NonNull DataHandler.Tables table, @NonNull String name, @NonNull Class<?> type, @NonNull String sqlType){
+			this(table, name, type, sqlType, 0);
+		}
+		/**
+		 * @param maxLength The maximum length of the column as declared in {@link Migrations}, {@code 0} meaning unlimited
+		 */
+		Column(@NonNull DataHandler.Tables table, @NonNull String name, @NonNull Class<?> type, @NonNull String sqlType, int maxLength){
+			this.table = table;
+			this.name = name;
+			this.type = type;
+			this.sqlType = sqlType;
+			this.maxLength = maxLength;
+		}
+		@NonNull public DataHandler.Tables getTable(){ return table; }
+		@NonNull public String getName(){ return name; }
+		@NonNull public Class<?> getType(){ return type; }
+		@NonNull public String getSqlType(){ return sqlType; }
+		public int getMaxLength(){ return maxLength; }
+		/**
+		 * @param value The value to check
+		 * @return Whether the value has the type of the column and fits into it
+		 */
+		boolean accepts(@NonNull Object value){
+			if(!type.isInstance(value)) return false;
+			return maxLength == 0 || !(value instanceof String) || ((String)value).length() <= maxLength;
+		}
+		/**
+		 * @param table The table to get the columns of
+		 * @return All columns of the table that can be updated, in declaration order
+		 */
+		@NonNull
+		static List<Column> of(@NonNull DataHandler.Tables table){
+			List<Column> columns = new ArrayList<>();
+			for(Column column : values()) if(column.table == table) columns.add(column);
+			return columns;
+		}
+	}
+
+	private final Duration interval;
+	private final int maxBatchSize;
+	private final BiFunction<DataHandler.Tables, Map<Long, Object[]>, Mono<Void>> writer;
+
+	private static final int COLUMN_COUNT = Column.values().length;
+	/**
+	 * The maximum amount of bind parameters Postgres accepts in a single statement
+	 */
+	private static final int MAX_BIND_PARAMETERS = 32767;
+
+	private Map<DataHandler.Tables, Map<Long, Object[]>> pending = new EnumMap<>(DataHandler.Tables.class);
+	private Map<DataHandler.Tables, Map<Long, Object[]>> inFlight = Collections.emptyMap();
+	private int pendingRows = 0;
+
+	private final DirectProcessor<Long> flushRequests = DirectProcessor.create();
+	private final FluxSink<Long> flushRequestSink = flushRequests.sink();
+	private Disposable flushLoop = null;
+	/**
+	 * Completes once the last started flush finished, the next flush only starts after it
+	 */
+	private Mono<Void> lastFlush = Mono.empty();
+
+	private final LatencyHistogram flushLatency = new LatencyHistogram();
+	private final AtomicLong coalescedWrites = new AtomicLong();
+	private final AtomicLong flushedRows = new AtomicLong();
+
+	/**
+	 * @param interval     The maximum time an update is held back before it gets written
+	 * @param maxBatchSize The amount of pending rows that triggers a flush before {@code interval} passed
+	 * @param writer       Writes all pending rows of one table, keyed by the primary key of the row. The values are
+	 *                     indexed by {@link Column#ordinal()}, {@code null} meaning the column is unchanged.
+	 */
+	WriteBehindQueue(@NonNull Duration interval, int maxBatchSize, @NonNull BiFunction<DataHandler.Tables, Map<Long, Object[]>, Mono<Void>> writer){
+		this.interval = interval;
+		this.maxBatchSize = maxBatchSize;
+		this.writer = writer;
+	}
+
+	/**
+	 * Starts flushing periodically. Ticks that arrive while a flush is still running get dropped.
+	 */
+	synchronized void start(){
+		if(flushLoop != null) return;
+		flushLoop = Flux.merge(Flux.interval(interval, interval), flushRequests)
+				.onBackpressureDrop()
+				.concatMap(tick -> flush(), 1)
+				.subscribe();
+	}
+
+	/**
+	 * Stops the periodic flushing and writes everything that is still pending. A flush that is already running gets
+	 * finished first.
+	 *
+	 * @return A {@link Mono} that completes once all pending updates got written
+	 */
+	@NonNull
+	Mono<Void> close(){
+		return Mono.defer(() -> {
+			synchronized(this){
+				if(flushLoop != null) flushLoop.dispose();
+				flushLoop = null;
+			}
+			return flush();
+		});
+	}
+
+	/**
+	 * Queues an update. If there already is a pending value for the same column of the same row it gets replaced.
+	 *
+	 * @param column The column that should get updated
+	 * @param key    The primary key of the row
+	 * @param value  The new value
+	 * @throws IllegalArgumentException If the value does not fit into the column, it would fail the whole batch
+	 */
+	void enqueue(@NonNull Column column, long key, @NonNull Object value){
+		if(!column.accepts(value)) throw new IllegalArgumentException("Value " + value + " does not fit into column " + column.getTable().getName() + "." + column.getName());
+		boolean full;
+		synchronized(this){
+			Object[] row = pending.computeIfAbsent(column.getTable(), t -> new HashMap<>()).get(key);
+			if(row == null){
+				row = new Object[COLUMN_COUNT];
+				pending.get(column.getTable()).put(key, row);
+				pendingRows++;
+			}else{
+				coalescedWrites.incrementAndGet();
+			}
+			row[column.ordinal()] = value;
+			full = pendingRows >= maxBatchSize;
+		}
+		if(full) flushRequestSink.next(System.nanoTime());
+	}
+
+	/**
+	 * @param column   The column to get the pending value of
+	 * @param key      The primary key of the row
+	 * @param fallback The value to return if nothing is pending
+	 * @return The value that has not been written yet or {@code fallback}
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized <T> T getPending(@NonNull Column column, long key, T fallback){
+		Object value = getValue(pending, column, key);
+		if(value == null) value = getValue(inFlight, column, key);
+		return value == null ? fallback : (T)value;
+	}
+
+	private static Object getValue(@NonNull Map<DataHandler.Tables, Map<Long, Object[]>> tables, @NonNull Column column, long key){
+		Map<Long, Object[]> rows = tables.get(column.getTable());
+		Object[] row = rows == null ? null : rows.get(key);
+		return row == null ? null : row[column.ordinal()];
+	}
+
+	/**
+	 * @param table The table the row is in
+	 * @param key   The primary key of the row
+	 * @return Whether there are any updates for the row that have not been written yet
+	 */
+	synchronized boolean hasPending(@NonNull DataHandler.Tables table, long key){
+		Map<Long, Object[]> rows = pending.get(table);
+		Map<Long, Object[]> flushing = inFlight.get(table);
+		return (rows != null && rows.containsKey(key)) || (flushing != null && flushing.containsKey(key));
+	}
+
+	/**
+	 * Writes all pending updates. Flushes run one after another, so a flush started while another one is running
+	 * waits for it and then writes what got queued since. Cancelling the returned {@link Mono} does not cancel the
+	 * flush.
+	 *
+	 * @return A {@link Mono} that completes once the flush finished
+	 */
+	@NonNull
+	Mono<Void> flush(){
+		return Mono.defer(() -> {
+			MonoProcessor<Void> done = MonoProcessor.create();
+			Mono<Void> previous;
+			synchronized(this){
+				previous = lastFlush;
+				lastFlush = done;
+			}
+			previous.then(Mono.defer(this::writePending))
+					.onErrorResume(err -> {
+						logger.error("Could not flush pending updates", err);
+						return Mono.empty();
+					})
+					.subscribe(done);
+			return done;
+		});
+	}
+
+	/**
+	 * Writes the pending updates of every table. Tables that fail to get written, or that were not written yet when
+	 * the write got cancelled, are put back into the queue unless newer values got queued in the meantime. Values stay
+	 * visible to {@link #getPending(Column, long, Object)} until the write finished. Rows the database rejects are
+	 * dropped instead, see {@link #writeRows(DataHandler.Tables, Map)}.
+	 */
+	@NonNull
+	private Mono<Void> writePending(){
+		Map<DataHandler.Tables, Map<Long, Object[]>> batch;
+		int rows;
+		synchronized(this){
+			if(pendingRows == 0) return Mono.empty();
+			batch = pending;
+			rows = pendingRows;
+			inFlight = batch;
+			pending = new EnumMap<>(DataHandler.Tables.class);
+			pendingRows = 0;
+		}
+		Set<DataHandler.Tables> finished = Collections.synchronizedSet(EnumSet.noneOf(DataHandler.Tables.class));
+		long start = System.nanoTime();
+		return Flux.fromIterable(batch.entrySet())
+				.concatMap(entry -> writeRows(entry.getKey(), entry.getValue())
+						.doOnSuccess(v -> finished.add(entry.getKey())))
+				.then(Mono.<Void>fromRunnable(() -> {
+					flushLatency.record(System.nanoTime() - start);
+					logger.debug("Flushed {} pending rows", rows);
+				}))
+				.doOnCancel(() -> batch.forEach((table, tableRows) -> {
+					if(!finished.contains(table)) requeue(table, tableRows);
+				}))
+				.doFinally(signal -> {
+					synchronized(this){
+						inFlight = Collections.emptyMap();
+					}
+				});
+	}
+
+	/**
+	 * Writes the rows of one table. If the database rejects the statement (e.g. a value violating a constraint) the
+	 * rows are split in halves and written separately until the offending rows are found, which get logged and
+	 * dropped since retrying them would fail every flush of the table. Rows failing for any other reason get requeued.
+	 *
+	 * @param table The table to write to
+	 * @param rows  The rows to write
+	 * @return A {@link Mono} that completes once the rows got written, dropped or requeued
+	 */
+	@NonNull
+	private Mono<Void> writeRows(@NonNull DataHandler.Tables table, @NonNull Map<Long, Object[]> rows){
+		return writer.apply(table, rows)
+				.doOnSuccess(v -> flushedRows.addAndGet(rows.size()))
+				.onErrorResume(err -> {
+					if(!StorageErrors.isRejected(err)){
+						logger.error("Could not write {} pending updates to table {}, retrying with the next flush", rows.size(), table.getName(), err);
+						requeue(table, rows);
+						return Mono.empty();
+					}
+					if(rows.size() == 1){
+						Map.Entry<Long, Object[]> row = rows.entrySet().iterator().next();
+						logger.error("Dropping update of row {} in table {} with values {}, it got rejected", row.getKey(), table.getName(), Arrays.toString(row.getValue()), err);
+						return Mono.empty();
+					}
+					Map<Long, Object[]> first = new HashMap<>();
+					Map<Long, Object[]> second = new HashMap<>();
+					rows.forEach((key, row) -> (first.size() < rows.size() / 2 ? first : second).put(key, row));
+					return writeRows(table, first).then(writeRows(table, second));
+				});
+	}
+
+	private synchronized void requeue(@NonNull DataHandler.Tables table, @NonNull Map<Long, Object[]> rows){
+		Map<Long, Object[]> current = pending.computeIfAbsent(table, t -> new HashMap<>());
+		rows.forEach((key, oldRow) -> {
+			Object[] newRow = current.get(key);
+			if(newRow == null){
+				current.put(key, oldRow);
+				pendingRows++;
+			}else{
+				for(int i = 0; i < newRow.length; i++) if(newRow[i] == null) newRow[i] = oldRow[i];
+			}
+		});
+	}
+
+	/**
+	 * @return The amount of rows with updates that have not been written yet
+	 */
+	public synchronized int getQueueDepth(){ return pendingRows; }
+	/**
+	 * @return The latency of whole flushes, including all tables
+	 */
+	@NonNull public LatencyHistogram getFlushLatency(){ return flushLatency; }
+	/**
+	 * @return The amount of updates that replaced a value that had not been written yet
+	 */
+	public long getCoalescedWrites(){ return coalescedWrites.get(); }
+	/**
+	 * @return The amount of rows that got written successfully
+	 */
+	public long getFlushedRows(){ return flushedRows.get(); }
+
+	@Override
+	public String toString(){
+		return "queueDepth=" + getQueueDepth() + ", coalesced=" + getCoalescedWrites() + ", flushedRows=" + getFlushedRows() + ", flushLatency=[" + flushLatency + "]";
+	}
+
+	/**
+	 * Builds the statement that writes all rows of {@code table} at once using {@code UPDATE ... FROM (VALUES ...)}.
+	 * Columns without a pending value are bound as {@code NULL} and keep their current value.
+	 *
+	 * @param table    The table to update
+	 * @param rowCount The amount of rows in the {@code VALUES} list, at most {@link #maxRowsPerStatement(DataHandler.Tables)}
+	 * @return The SQL statement with {@code 1 + columns} parameters per row, the key being the first one
+	 */
+	@NonNull
+	static String buildUpdateStatement(@NonNull DataHandler.Tables table, int rowCount){
+		List<Column> columns = Column.of(table);
+		StringBuilder sql = new StringBuilder("UPDATE ").append(table.getName()).append(" AS t SET ");
+		for(int i = 0; i < columns.size(); i++){
+			String name = columns.get(i).getName();
+			if(i > 0) sql.append(", ");
+			sql.append(name).append("=COALESCE(v.").append(name).append(", t.").append(name).append(')');
+		}
+		sql.append(" FROM (VALUES ");
+		int param = 1;
+		for(int row = 0; row < rowCount; row++){
+			if(row > 0) sql.append(", ");
+			sql.append("($").append(param++).append("::BIGINT");
+			for(Column column : columns) sql.append(", $").append(param++).append("::").append(column.getSqlType());
+			sql.append(')');
+		}
+		sql.append(") AS v(").append(table.getKeyColumn());
+		for(Column column : columns) sql.append(", ").append(column.getName());
+		sql.append(") WHERE t.").append(table.getKeyColumn()).append("=v.").append(table.getKeyColumn());
+		return sql.toString();
+	}
+
+	/**
+	 * @param table The table to update
+	 * @return The amount of rows a single statement from {@link #buildUpdateStatement(DataHandler.Tables, int)} can
+	 * hold, leaving one parameter for the notification
+	 */
+	static int maxRowsPerStatement(@NonNull DataHandler.Tables table){
+		return (MAX_BIND_PARAMETERS - 1) / (1 + Column.of(table).size());
+	}
+
+}
@@ -4,6 +4,7 @@ import icu.taminaminam.spideybot.commands.Commands;
 import icu.taminaminam.spideybot.data.DataHandler;
 import icu.taminaminam.spideybot.data.DiscordCache;
 import icu.taminaminam.spideybot.utils.BotUtils;
+import icu.taminaminam.spideybot.utils.journal.CommandJournal;
 import discord4j.common.retry.ReconnectOptions;
 import discord4j.core.DiscordClient;
 import discord4j.core.shard.ShardingStrategy;
@@ -14,6 +15,8 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+
 public class BotMain {
 	
 	public static final String CURRENT_VERSION = "0.0.2";
@@ -25,6 +28,12 @@ public class BotMain {
 		logger.info("Program started");
 		BotUtils.initialize();
 		Commands.registerCommands();
+		// write pending settings updates and journal records before the JVM exits
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			DataHandler.disconnect().block(Duration.ofSeconds(10));
+			CommandJournal journal = CommandJournal.getInstance();
+			if(journal != null) journal.close();
+		}));
 		Mono<Void> onDisconnect = DiscordClient.builder(Credentials.BOT_TOKEN)
 				.build()
 				.gateway()
@@ -2,7 +2,11 @@ package icu.taminaminam.spideybot.main;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 public class Credentials {
 	
@@ -13,6 +17,21 @@ public class Credentials {
 	 */
 	public static final String BOT_TOKEN = Objects.requireNonNull(dotenv.get("BOT_TOKEN"));
 	
+	/**
+	 * Where the bot data is stored, one of {@code postgres}, {@code memory} or {@code file}, defaults to
+	 * {@code postgres}
+	 */
+	public static final String STORAGE_TYPE = dotenv.get("STORAGE", "postgres");
+	/**
+	 * The file used by the {@code file} storage, defaults to {@code spideybot.db}
+	 */
+	public static final String STORAGE_FILE = dotenv.get("STORAGE_FILE", "spideybot.db");
+	/**
+	 * The time every operation of the {@code memory} storage gets delayed by to simulate a database, defaults to
+	 * {@code 0} milliseconds
+	 */
+	public static final Duration STORAGE_MEMORY_LATENCY = Duration.ofMillis(Long.parseLong(dotenv.get("STORAGE_MEMORY_LATENCY_MS", "0")));
+	
 	/**
 	 * The host of your SQL server, defaults to {@code 127.0.0.1}
 	 */
@@ -33,5 +52,179 @@ public class Credentials {
 	 * The name of your SQL database
 	 */
 	public static final String SQL_DATABASE = dotenv.get("SQL_DATABASE");
+	/**
+	 * The amount of database connections opened on startup, and the least the adaptive pool shrinks to, defaults to
+	 * {@code 2}
+	 */
+	public static final int SQL_POOL_MIN_SIZE = Integer.parseInt(dotenv.get("SQL_POOL_MIN_SIZE", "2"));
+	/**
+	 * The maximum amount of database connections, defaults to {@code 10}
+	 */
+	public static final int SQL_POOL_MAX_SIZE = Integer.parseInt(dotenv.get("SQL_POOL_MAX_SIZE", "10"));
+	/**
+	 * Whether the amount of usable database connections should follow the load between {@link #SQL_POOL_MIN_SIZE}
+	 * and {@link #SQL_POOL_MAX_SIZE}, defaults to {@code false}
+	 */
+	public static final boolean SQL_POOL_ADAPTIVE = Boolean.parseBoolean(dotenv.get("SQL_POOL_ADAPTIVE", "false"));
+	/**
+	 * The time waiting for a database connection may take before the adaptive pool grows, defaults to {@code 5}
+	 * milliseconds
+	 */
+	public static final Duration SQL_POOL_TARGET_WAIT = Duration.ofMillis(Long.parseLong(dotenv.get("SQL_POOL_TARGET_WAIT_MS", "5")));
+	/**
+	 * The time an unused database connection stays open, defaults to {@code 30} minutes, or {@code 60} seconds with
+	 * {@link #SQL_POOL_ADAPTIVE}
+	 */
+	public static final Duration SQL_POOL_MAX_IDLE_TIME = Duration.ofSeconds(Long.parseLong(dotenv.get("SQL_POOL_MAX_IDLE_TIME_S", SQL_POOL_ADAPTIVE ? "60" : "1800")));
+	/**
+	 * The amount of database connections only used for writes, so writes never wait for reads and the other way
+	 * around, defaults to {@code 4}
+	 */
+	public static final int SQL_WRITE_POOL_SIZE = Integer.parseInt(dotenv.get("SQL_WRITE_POOL_SIZE", "4"));
+	/**
+	 * Read replicas of your SQL server as comma separated {@code host:port} or {@code host}, reads get spread over
+	 * them if there are any, defaults to none
+	 */
+	public static final List<String> SQL_REPLICAS = Arrays.stream(dotenv.get("SQL_REPLICAS", "").split(","))
+			.map(String::trim)
+			.filter(replica -> !replica.isEmpty())
+			.collect(Collectors.toList());
+	/**
+	 * The maximum amount of database connections to every read replica, defaults to {@code 10}
+	 */
+	public static final int SQL_REPLICA_POOL_SIZE = Integer.parseInt(dotenv.get("SQL_REPLICA_POOL_SIZE", "10"));
+	/**
+	 * The time entries written by this process are read from the primary instead of a replica, which might not have
+	 * received the change yet, defaults to {@code 2000} milliseconds
+	 */
+	public static final Duration SQL_REPLICA_FRESHNESS = Duration.ofMillis(Long.parseLong(dotenv.get("SQL_REPLICA_FRESHNESS_MS", "2000")));
+	/**
+	 * Whether slow guild, user and permission reads get sent a second time on another connection, using whichever
+	 * answers first, defaults to {@code false}
+	 */
+	public static final boolean SQL_HEDGED_READS = Boolean.parseBoolean(dotenv.get("SQL_HEDGED_READS", "false"));
+	/**
+	 * The percentile of recent read latencies after which a read counts as slow, defaults to {@code 95}
+	 */
+	public static final double SQL_HEDGE_PERCENTILE = Double.parseDouble(dotenv.get("SQL_HEDGE_PERCENTILE", "95"));
+	/**
+	 * The maximum share of reads that get sent a second time in percent, defaults to {@code 5}
+	 */
+	public static final double SQL_HEDGE_BUDGET = Double.parseDouble(dotenv.get("SQL_HEDGE_BUDGET_PERCENT", "5"));
+
+	/**
+	 * The amount of failed or timed out storage operations in a row after which the storage is not asked anymore for
+	 * a while, defaults to {@code 5}
+	 */
+	public static final int DB_BREAKER_FAILURE_THRESHOLD = Integer.parseInt(dotenv.get("DB_BREAKER_FAILURE_THRESHOLD", "5"));
+	/**
+	 * The time the storage is not asked after {@link #DB_BREAKER_FAILURE_THRESHOLD} failures before a single
+	 * operation tries again, defaults to {@code 10000} milliseconds
+	 */
+	public static final Duration DB_BREAKER_OPEN_DURATION = Duration.ofMillis(Long.parseLong(dotenv.get("DB_BREAKER_OPEN_DURATION_MS", "10000")));
+	/**
+	 * The maximum time a read from the storage may take, defaults to {@code 1000} milliseconds
+	 */
+	public static final Duration DB_READ_TIMEOUT = Duration.ofMillis(Long.parseLong(dotenv.get("DB_READ_TIMEOUT_MS", "1000")));
+	/**
+	 * The maximum time a write to the storage may take, defaults to {@code 3000} milliseconds
+	 */
+	public static final Duration DB_WRITE_TIMEOUT = Duration.ofMillis(Long.parseLong(dotenv.get("DB_WRITE_TIMEOUT_MS", "3000")));
+	/**
+	 * How command permissions are checked while the stored black- and whitelists cannot be read, one of
+	 * {@code defaults}, {@code allow} or {@code deny}, defaults to {@code defaults}
+	 */
+	public static final String DEGRADED_PERMISSION_POLICY = dotenv.get("DEGRADED_PERMISSION_POLICY", "defaults");
+
+	/**
+	 * The maximum time a settings update is held back before it gets written to the database, defaults to {@code 500}
+	 * milliseconds
+	 */
+	public static final Duration WRITE_BEHIND_INTERVAL = Duration.ofMillis(Long.parseLong(dotenv.get("WRITE_BEHIND_INTERVAL_MS", "500")));
+	/**
+	 * The amount of pending settings updates that causes a write before {@link #WRITE_BEHIND_INTERVAL} passed,
+	 * defaults to {@code 500}
+	 */
+	public static final int WRITE_BEHIND_MAX_BATCH = Integer.parseInt(dotenv.get("WRITE_BEHIND_MAX_BATCH", "500"));
+	
+	/**
+	 * The maximum amount of guilds that get put into the database with one statement when joining them, defaults to
+	 * {@code 1000}
+	 */
+	public static final int GUILD_INIT_BATCH_SIZE = Integer.parseInt(dotenv.get("GUILD_INIT_BATCH_SIZE", "1000"));
+	/**
+	 * The maximum time a joined guild waits for other guilds to share a statement with, defaults to {@code 250}
+	 * milliseconds
+	 */
+	public static final Duration GUILD_INIT_LINGER = Duration.ofMillis(Long.parseLong(dotenv.get("GUILD_INIT_LINGER_MS", "250")));
+	/**
+	 * The maximum amount of joined guild batches whose settings get loaded at the same time, defaults to {@code 1}
+	 */
+	public static final int GUILD_PRELOAD_CONCURRENCY = Integer.parseInt(dotenv.get("GUILD_PRELOAD_CONCURRENCY", "1"));
+	/**
+	 * The time between loading the settings of two joined guild batches, leaving the database to commands meanwhile,
+	 * defaults to {@code 100} milliseconds
+	 */
+	public static final Duration GUILD_PRELOAD_PAUSE = Duration.ofMillis(Long.parseLong(dotenv.get("GUILD_PRELOAD_PAUSE_MS", "100")));
+	
+	/**
+	 * The maximum amount of guilds whose prefix and language are cached, defaults to {@code 100000}
+	 */
+	public static final int SETTINGS_CACHE_MAX_GUILDS = Integer.parseInt(dotenv.get("SETTINGS_CACHE_MAX_GUILDS", "100000"));
+	/**
+	 * The maximum amount of users whose prefix and language are cached, defaults to {@code 100000}
+	 */
+	public static final int SETTINGS_CACHE_MAX_USERS = Integer.parseInt(dotenv.get("SETTINGS_CACHE_MAX_USERS", "100000"));
+	
+	/**
+	 * The time a guild or user without a stored row uses the default settings before the database gets asked again,
+	 * defaults to {@code 60} seconds
+	 */
+	public static final Duration MISSING_ROW_TTL = Duration.ofSeconds(Long.parseLong(dotenv.get("MISSING_ROW_TTL_S", "60")));
+	/**
+	 * The time between two attempts to insert the default settings of guilds and users without a stored row,
+	 * defaults to {@code 10} seconds
+	 */
+	public static final Duration MISSING_ROW_REPAIR_INTERVAL = Duration.ofSeconds(Long.parseLong(dotenv.get("MISSING_ROW_REPAIR_INTERVAL_S", "10")));
+	
+	/**
+	 * The amount of recently seen users that are remembered exactly as stored, defaults to {@code 65536}
+	 */
+	public static final int KNOWN_USERS_RECENT_SIZE = Integer.parseInt(dotenv.get("KNOWN_USERS_RECENT_SIZE", "65536"));
+	/**
+	 * The amount of users the filter of stored users is sized for, more users make it claim users are stored more
+	 * often although they are not, defaults to {@code 1000000}
+	 */
+	public static final long KNOWN_USERS_EXPECTED = Long.parseLong(dotenv.get("KNOWN_USERS_EXPECTED", "1000000"));
+	/**
+	 * The maximum amount of new users inserted with a single statement, defaults to {@code 500}
+	 */
+	public static final int USER_INSERT_MAX_BATCH = Integer.parseInt(dotenv.get("USER_INSERT_MAX_BATCH", "500"));
+	/**
+	 * The maximum time a new user waits for others to get inserted together with, defaults to {@code 20} milliseconds
+	 */
+	public static final Duration USER_INSERT_DELAY = Duration.ofMillis(Long.parseLong(dotenv.get("USER_INSERT_DELAY_MS", "20")));
+	
+	/**
+	 * The time between two reloads of all devs, defaults to {@code 5} minutes
+	 */
+	public static final Duration DEV_ROSTER_REFRESH = Duration.ofSeconds(Long.parseLong(dotenv.get("DEV_ROSTER_REFRESH_S", "300")));
+	
+	/**
+	 * Whether every command execution should get recorded in the command journal, defaults to {@code true}
+	 */
+	public static final boolean COMMAND_JOURNAL_ENABLED = Boolean.parseBoolean(dotenv.get("COMMAND_JOURNAL", "true"));
+	/**
+	 * The directory the command journal is stored in, defaults to {@code journal}
+	 */
+	public static final String COMMAND_JOURNAL_DIR = dotenv.get("COMMAND_JOURNAL_DIR", "journal");
+	/**
+	 * The size of a single command journal file, defaults to {@code 16} MiB
+	 */
+	public static final int COMMAND_JOURNAL_SEGMENT_SIZE = Integer.parseInt(dotenv.get("COMMAND_JOURNAL_SEGMENT_MB", "16")) * 1024 * 1024;
+	/**
+	 * The amount of command journal files kept before the oldest ones get deleted, defaults to {@code 32}
+	 */
+	public static final int COMMAND_JOURNAL_MAX_SEGMENTS = Integer.parseInt(dotenv.get("COMMAND_JOURNAL_MAX_SEGMENTS", "32"));
 	
 }
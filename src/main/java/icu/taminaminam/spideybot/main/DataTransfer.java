@@ -0,0 +1,53 @@
+package icu.taminaminam.spideybot.main;
+
+import icu.taminaminam.spideybot.data.BulkTransfer;
+import icu.taminaminam.spideybot.data.DataHandler;
+import icu.taminaminam.spideybot.data.Storage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+/**
+ * Exports or imports all bot data of the database configured in {@link Credentials} without starting the bot, see
+ * {@link BulkTransfer}.
+ * <p>
+ * Usage: {@code DataTransfer export|import <directory>}
+ */
+public class DataTransfer {
+
+	private static final Logger logger = LogManager.getLogger("DataTransfer");
+
+	public static void main(String[] args){
+		if(args.length != 2 || !(args[0].equals("export") || args[0].equals("import"))){
+			System.err.println("Usage: DataTransfer export|import <directory>");
+			System.exit(2);
+		}
+		Path directory = Paths.get(args[1]);
+		Storage storage = DataHandler.getStorage();
+		// the caller has access to the database credentials anyway, so there is no owner check like in DataHandler
+		Flux<BulkTransfer.Result> transfer = args[0].equals("export")
+				? BulkTransfer.exportAll(storage, directory)
+				: BulkTransfer.importAll(storage, directory);
+		long start = System.nanoTime();
+		int status = 0;
+		try {
+			long rows = storage.initialize()
+					.thenMany(transfer)
+					.doOnNext(System.out::println)
+					.reduce(0L, (sum, result) -> sum + result.getRows())
+					.block();
+			Duration duration = Duration.ofNanos(System.nanoTime() - start);
+			System.out.println("Transferred " + rows + " rows in " + duration.toMillis() + " ms");
+		} catch (RuntimeException ex){
+			logger.error("Could not {} data", args[0], ex);
+			status = 1;
+		}
+		DataHandler.disconnect().block(Duration.ofSeconds(10));
+		System.exit(status);
+	}
+
+}
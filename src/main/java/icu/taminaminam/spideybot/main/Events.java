@@ -4,6 +4,7 @@ import icu.taminaminam.spideybot.commands.ArgumentList;
 import icu.taminaminam.spideybot.commands.Command;
 import icu.taminaminam.spideybot.commands.Commands;
 import icu.taminaminam.spideybot.commands.Context;
+import icu.taminaminam.spideybot.data.DBGuild;
 import icu.taminaminam.spideybot.data.DataHandler;
 import icu.taminaminam.spideybot.data.DiscordCache;
 import icu.taminaminam.spideybot.utils.BotUtils;
@@ -11,7 +12,6 @@ import discord4j.core.GatewayDiscordClient;
 import discord4j.core.event.domain.guild.GuildCreateEvent;
 import discord4j.core.event.domain.lifecycle.ReadyEvent;
 import discord4j.core.event.domain.message.MessageCreateEvent;
-import discord4j.core.object.entity.Guild;
 import discord4j.core.object.entity.User;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -38,11 +38,27 @@ public class Events {
 				client.on(ReadyEvent.class)
 						.doOnNext(event -> logger.info("Logged in as {}", event.getSelf().getTag())),
 				
-				/* Put all guilds in database when joining them */
+				/* Put all guilds in database when joining them and preload the settings of all others, batched per shard because of the guild create storm after connecting */
 				client.on(GuildCreateEvent.class)
-						.map(GuildCreateEvent::getGuild)
-						.map(Guild::getId)
-						.flatMap(DataHandler::initializeGuild),
+						.groupBy(event -> event.getShardInfo().getIndex())
+						.flatMap(shardEvents -> shardEvents
+								.map(event -> event.getGuild().getId())
+								.bufferTimeout(Credentials.GUILD_INIT_BATCH_SIZE, Credentials.GUILD_INIT_LINGER)
+						)
+						// batches wait here while earlier ones are still loading
+						.onBackpressureBuffer()
+						.flatMap(guildIds -> DataHandler.initializeGuilds(guildIds)
+								// newly inserted guilds have the default settings, no need to query them later
+								.doOnNext(guildId -> BotUtils.putGuildSettings(guildId, DBGuild.defaultGuild.getPrefix(), DBGuild.defaultGuild.getLanguage()))
+								.then(BotUtils.preloadGuildSettings(guildIds))
+								.doOnNext(count -> logger.debug("Preloaded settings of {} guilds", count))
+								.onErrorResume(err -> {
+									logger.error("Could not initialize {} guilds", guildIds.size(), err);
+									return Mono.empty();
+								})
+								.then(Mono.delay(Credentials.GUILD_PRELOAD_PAUSE)),
+								Credentials.GUILD_PRELOAD_CONCURRENCY
+						),
 				
 				/* Command Handler */
 				client.on(MessageCreateEvent.class)
@@ -54,7 +70,7 @@ public class Events {
 								// put user in database if message came from DM
 								.flatMap(user -> {
 									if(event.getGuildId().isPresent()) return Mono.empty();
-									else return DataHandler.initializeUser(user.getId());
+									else return DataHandler.ensureUser(user.getId());
 								})
 								.then(
 										event.getGuildId().map(id -> BotUtils.getGuildPrefix(id).zipWith(BotUtils.getGuildLanguage(id)))
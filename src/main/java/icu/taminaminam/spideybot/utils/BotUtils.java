@@ -5,6 +5,8 @@ import icu.taminaminam.spideybot.commands.Commands;
 import icu.taminaminam.spideybot.data.DBGuild;
 import icu.taminaminam.spideybot.data.DBUser;
 import icu.taminaminam.spideybot.data.DataHandler;
+import icu.taminaminam.spideybot.data.Invalidation;
+import icu.taminaminam.spideybot.main.Credentials;
 import discord4j.common.util.Snowflake;
 import discord4j.core.object.reaction.ReactionEmoji;
 import discord4j.discordjson.json.EmbedData;
@@ -12,6 +14,7 @@ import discord4j.discordjson.json.EmbedFooterData;
 import discord4j.rest.util.Color;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.annotation.NonNull;
 
@@ -19,6 +22,7 @@ import java.io.File;
 import java.net.URISyntaxException;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class BotUtils {
@@ -29,7 +33,8 @@ public class BotUtils {
 	
 	/* TODO: set the desired values */
 	/**
-	 * The {@link List} of all users that should be considered an owner of this bot
+	 * The {@link List} of all users that should always be considered an owner of this bot, in addition to the owners
+	 * stored in the {@link icu.taminaminam.spideybot.data.DevRoster}
 	 */
 	static long taminaminam_id = 586658831195439134L;
 	public static final List<Snowflake> botOwners = Collections.singletonList(
@@ -54,52 +59,212 @@ public class BotUtils {
 	public static final ReactionEmoji EMOJI_X = ReactionEmoji.unicode("\u274C");
 	public static final ReactionEmoji EMOJI_CHECKMARK = ReactionEmoji.unicode("\u2705");
 	
-	private static final Map<Long, String> guildPrefixes = new WeakHashMap<>();
+	private static final SingleFlight<Long, DBGuild> guildLoads = new SingleFlight<>();
+	/**
+	 * Loads the guild once for all concurrent callers and caches both its prefix and language.
+	 */
+	@NonNull private static Mono<DBGuild> loadGuild(@NonNull Snowflake guildId){
+		if(missingGuilds.contains(guildId.asLong())) return Mono.just(DBGuild.defaultGuild);
+		return guildLoads.load(guildId.asLong(), id -> DataHandler.getGuild(guildId)
+				.doOnNext(guild -> guildSettings.put(id, guild.getPrefix(), guild.getLanguage()))
+				.switchIfEmpty(Mono.fromSupplier(() -> {
+					markMissing(missingGuilds, guildRepairs, id, "Guild");
+					return DBGuild.defaultGuild;
+				}))
+				// nothing is known about the row, so neither cache the defaults nor remember it as missing
+				.onErrorResume(DataHandler::isUnavailable, err -> Mono.just(DBGuild.defaultGuild))
+		);
+	}
+	/**
+	 * Guilds without a stored row. They use the default settings until {@link #repairMissingRows()} inserted them.
+	 */
+	private static final NegativeCache missingGuilds = new NegativeCache(Credentials.MISSING_ROW_TTL);
+	private static final Set<Long> guildRepairs = ConcurrentHashMap.newKeySet();
+	/**
+	 * The prefix and language of guilds, see {@link SettingsCache}
+	 */
+	private static final SettingsCache guildSettings = new SettingsCache("guilds", Credentials.SETTINGS_CACHE_MAX_GUILDS);
+	@NonNull public static SettingsCache getGuildSettingsCache(){
+		return guildSettings;
+	}
 	@NonNull public static Mono<String> getGuildPrefix(@NonNull Snowflake guildId){
-		String prefix = guildPrefixes.get(guildId.asLong());
+		String prefix = guildSettings.getPrefix(guildId.asLong());
 		if(prefix != null) return Mono.just(prefix);
-		return DataHandler.getGuild(guildId)
-				.map(DBGuild::getPrefix)
-				.doOnNext(pref -> guildPrefixes.put(guildId.asLong(), pref));
+		return loadGuild(guildId).map(DBGuild::getPrefix);
 	}
 	public static void setGuildPrefix(Snowflake guildId, String prefix){
-		guildPrefixes.put(guildId.asLong(), prefix);
+		guildSettings.updatePrefix(guildId.asLong(), prefix);
 	}
-	private static final Map<Long, String> guildLanguages = new WeakHashMap<>();
 	@NonNull public static Mono<String> getGuildLanguage(@NonNull Snowflake guildId){
-		String language = guildLanguages.get(guildId.asLong());
+		String language = guildSettings.getLanguage(guildId.asLong());
 		if(language != null) return Mono.just(language);
-		return DataHandler.getGuild(guildId)
-				.map(DBGuild::getLanguage)
-				.doOnNext(lang -> guildLanguages.put(guildId.asLong(), lang));
+		return loadGuild(guildId).map(DBGuild::getLanguage);
 	}
 	public static void setGuildLanguage(Snowflake guildId, String lang){
-		guildLanguages.put(guildId.asLong(), lang);
+		guildSettings.updateLanguage(guildId.asLong(), lang);
+	}
+	/**
+	 * Caches the settings of a guild whose stored row is known without reading it, unlike the setters this also
+	 * caches guilds that are not cached yet.
+	 *
+	 * @param guildId  The ID of the guild
+	 * @param prefix   The stored prefix
+	 * @param language The stored language
+	 */
+	public static void putGuildSettings(@NonNull Snowflake guildId, @NonNull String prefix, @NonNull String language){
+		guildSettings.put(guildId.asLong(), prefix, language);
+	}
+	/**
+	 * Loads the prefix and language of all guilds that are not cached yet with a single query and caches them as soon
+	 * as they got read.
+	 *
+	 * @param guildIds The IDs of the guilds
+	 * @return A {@link Mono} emitting the amount of loaded guilds
+	 */
+	@NonNull public static Mono<Long> preloadGuildSettings(@NonNull Collection<Snowflake> guildIds){
+		return Mono.fromCallable(() -> guildIds.stream()
+						.filter(guildId -> !guildSettings.contains(guildId.asLong()))
+						.collect(Collectors.toList()))
+				.flatMap(missing -> {
+					Set<Long> loaded = ConcurrentHashMap.newKeySet();
+					return DataHandler.getGuilds(missing)
+							.doOnNext(guild -> {
+								loaded.add(guild.getId().asLong());
+								guildSettings.put(guild.getId().asLong(), guild.getPrefix(), guild.getLanguage());
+							})
+							.count()
+							.doOnNext(count -> {
+								for(Snowflake guildId : missing){
+									if(!loaded.contains(guildId.asLong())) markMissing(missingGuilds, guildRepairs, guildId.asLong(), "Guild");
+								}
+							})
+							.onErrorResume(DataHandler::isUnavailable, err -> Mono.just((long)loaded.size()));
+				});
 	}
 	
-	private static final Map<Long, String> userPrefixes = new WeakHashMap<>();
+	private static final SingleFlight<Long, DBUser> userLoads = new SingleFlight<>();
+	/**
+	 * Loads the user once for all concurrent callers and caches both their prefix and language.
+	 */
+	@NonNull private static Mono<DBUser> loadUser(@NonNull Snowflake userId){
+		if(missingUsers.contains(userId.asLong())) return Mono.just(DBUser.defaultUser);
+		return userLoads.load(userId.asLong(), id -> DataHandler.getUser(userId)
+				.doOnNext(user -> userSettings.put(id, user.getPrefix(), user.getLanguage()))
+				.switchIfEmpty(Mono.fromSupplier(() -> {
+					markMissing(missingUsers, userRepairs, id, "User");
+					return DBUser.defaultUser;
+				}))
+				.onErrorResume(DataHandler::isUnavailable, err -> Mono.just(DBUser.defaultUser))
+		);
+	}
+	/**
+	 * Users without a stored row. They use the default settings until {@link #repairMissingRows()} inserted them.
+	 */
+	private static final NegativeCache missingUsers = new NegativeCache(Credentials.MISSING_ROW_TTL);
+	private static final Set<Long> userRepairs = ConcurrentHashMap.newKeySet();
+	/**
+	 * The prefix and language of users, see {@link SettingsCache}
+	 */
+	private static final SettingsCache userSettings = new SettingsCache("users", Credentials.SETTINGS_CACHE_MAX_USERS);
+	@NonNull public static SettingsCache getUserSettingsCache(){
+		return userSettings;
+	}
 	@NonNull public static Mono<String> getUserPrefix(@NonNull Snowflake userId){
-		String prefix = userPrefixes.get(userId.asLong());
+		String prefix = userSettings.getPrefix(userId.asLong());
 		if(prefix != null) return Mono.just(prefix);
-		return DataHandler.getUser(userId)
-				.doOnNext(user -> userLanguages.put(userId.asLong(), user.getLanguage()))
-				.map(DBUser::getPrefix)
-				.doOnNext(pref -> userPrefixes.put(userId.asLong(), pref));
+		return loadUser(userId).map(DBUser::getPrefix);
 	}
 	public static void setUserPrefix(Snowflake userId, String prefix){
-		userPrefixes.put(userId.asLong(), prefix);
+		userSettings.updatePrefix(userId.asLong(), prefix);
 	}
-	private static final Map<Long, String> userLanguages = new WeakHashMap<>();
 	@NonNull public static Mono<String> getUserLanguage(@NonNull Snowflake userId){
-		String language = userLanguages.get(userId.asLong());
+		String language = userSettings.getLanguage(userId.asLong());
 		if(language != null) return Mono.just(language);
-		return DataHandler.getUser(userId)
-				.doOnNext(user -> userPrefixes.put(userId.asLong(), user.getPrefix()))
-				.map(DBUser::getLanguage)
-				.doOnNext(lang -> userLanguages.put(userId.asLong(), lang));
+		return loadUser(userId).map(DBUser::getLanguage);
 	}
 	public static void setUserLanguage(Snowflake userId, String language){
-		userLanguages.put(userId.asLong(), language);
+		userSettings.updateLanguage(userId.asLong(), language);
+	}
+	
+	/**
+	 * Drops the cached prefixes and languages changed by another process, so they get loaded again on next use.
+	 *
+	 * @param invalidation The change received from {@link DataHandler#getInvalidations()}
+	 */
+	public static void invalidate(@NonNull Invalidation invalidation){
+		SettingsCache settings;
+		NegativeCache missing;
+		if(invalidation.getKind() == Invalidation.Kind.GUILD){
+			settings = guildSettings;
+			missing = missingGuilds;
+		}else if(invalidation.getKind() == Invalidation.Kind.USER){
+			settings = userSettings;
+			missing = missingUsers;
+		}else{
+			return;
+		}
+		if(invalidation.isAll()){
+			settings.clear();
+			missing.clear();
+		}else{
+			for(long id : invalidation.getIds()){
+				settings.remove(id);
+				missing.remove(id);
+			}
+		}
+	}
+	
+	/**
+	 * Remembers that nothing is stored for the ID and queues inserting the default settings for it.
+	 */
+	private static void markMissing(@NonNull NegativeCache missing, @NonNull Set<Long> repairs, long id, @NonNull String kind){
+		if(missing.add(id) && repairs.add(id)) logger.warn("{} {} is not stored, using default settings until it got inserted", kind, id);
+	}
+	
+	/**
+	 * Inserts the default settings for all guilds and users that were found to be missing. Once inserted they get
+	 * loaded from the database again on next use, IDs that could not be inserted are retried next time. Expired
+	 * entries of the negative caches get removed as well.
+	 *
+	 * @return A {@link Mono} completing once all queued IDs got handled
+	 */
+	@NonNull private static Mono<Void> repairMissingRows(){
+		missingGuilds.removeExpired();
+		missingUsers.removeExpired();
+		List<Snowflake> guildIds = drain(guildRepairs);
+		List<Snowflake> userIds = drain(userRepairs);
+		Mono<Void> guilds = guildIds.isEmpty() ? Mono.empty() : DataHandler.initializeGuilds(guildIds)
+				.then(Mono.fromRunnable(() -> {
+					guildIds.forEach(guildId -> missingGuilds.remove(guildId.asLong()));
+					logger.info("Inserted {} missing guilds", guildIds.size());
+				}))
+				.onErrorResume(err -> {
+					logger.warn("Could not insert {} missing guilds", guildIds.size(), err);
+					guildIds.forEach(guildId -> guildRepairs.add(guildId.asLong()));
+					return Mono.empty();
+				})
+				.then();
+		Mono<Void> users = userIds.isEmpty() ? Mono.empty() : DataHandler.initializeUsers(userIds)
+				.then(Mono.fromRunnable(() -> {
+					userIds.forEach(userId -> missingUsers.remove(userId.asLong()));
+					logger.info("Inserted {} missing users", userIds.size());
+				}))
+				.onErrorResume(err -> {
+					logger.warn("Could not insert {} missing users", userIds.size(), err);
+					userIds.forEach(userId -> userRepairs.add(userId.asLong()));
+					return Mono.empty();
+				})
+				.then();
+		return guilds.then(users);
+	}
+	
+	@NonNull private static List<Snowflake> drain(@NonNull Set<Long> ids){
+		List<Snowflake> drained = new ArrayList<>();
+		for(Iterator<Long> it = ids.iterator(); it.hasNext(); ){
+			drained.add(Snowflake.of(it.next()));
+			it.remove();
+		}
+		return drained;
 	}
 	
 	@NonNull
@@ -170,6 +335,11 @@ public class BotUtils {
 						else availableLanguages.add(Locale.forLanguageTag(lang).getLanguage());
 					});
 			loadResourceBundles();
+			DataHandler.getInvalidations().subscribe(BotUtils::invalidate);
+			Flux.interval(Credentials.MISSING_ROW_REPAIR_INTERVAL)
+					.onBackpressureDrop()
+					.concatMap(tick -> repairMissingRows(), 1)
+					.subscribe();
 		} catch (URISyntaxException ex) {
 			logger.error("Could not list files in resources directory", ex);
 			System.exit(-1);
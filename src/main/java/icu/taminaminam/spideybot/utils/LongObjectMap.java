@@ -0,0 +1,198 @@
+package icu.taminaminam.spideybot.utils;
+
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * A map from primitive {@code long} keys to non-null values, without boxing the keys or allocating an entry per
+ * mapping. Mappings are stored in a linear probing table that is at most two thirds full, which takes 12 bytes per
+ * slot with compressed references.
+ * <p>
+ * Not thread-safe. Shared maps should be treated as immutable and changed by changing a {@link #copy()} instead.
+ *
+ * @param <V> The type of the values
+ */
+public class LongObjectMap<V> {
+
+	private static final int MIN_CAPACITY = 4;
+
+	private long[] keys;
+	private Object[] values;
+	private int mask;
+	private int size = 0;
+
+	public LongObjectMap(){
+		this(0);
+	}
+
+	/**
+	 * @param expectedSize The amount of mappings that fit without resizing
+	 */
+	public LongObjectMap(int expectedSize){
+		int capacity = capacityFor(expectedSize);
+		this.keys = new long[capacity];
+		this.values = new Object[capacity];
+		this.mask = capacity - 1;
+	}
+
+	private LongObjectMap(@NonNull LongObjectMap<V> other){
+		this.keys = other.keys.clone();
+		this.values = other.values.clone();
+		this.mask = other.mask;
+		this.size = other.size;
+	}
+
+	static int capacityFor(int size){
+		return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, size * 3 / 2)) << 1);
+	}
+
+	static int hash(long key){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	/**
+	 * @return The slot containing {@code key}, or the empty slot it would get stored in
+	 */
+	private int slot(long key){
+		int slot = hash(key) & mask;
+		while(values[slot] != null && keys[slot] != key) slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/**
+	 * @param key The key
+	 * @return The value mapped to {@code key}, {@code null} if there is none
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public V get(long key){
+		return (V)values[slot(key)];
+	}
+
+	public boolean containsKey(long key){
+		return values[slot(key)] != null;
+	}
+
+	/**
+	 * @param key   The key
+	 * @param value The value
+	 * @return The value previously mapped to {@code key}, {@code null} if there was none
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public V put(long key, @NonNull V value){
+		Objects.requireNonNull(value);
+		int slot = slot(key);
+		V previous = (V)values[slot];
+		keys[slot] = key;
+		values[slot] = value;
+		if(previous == null && ++size > (mask + 1) * 2 / 3) resize((mask + 1) << 1);
+		return previous;
+	}
+
+	/**
+	 * @param other The map whose mappings should get added, replacing existing mappings of the same keys
+	 */
+	@SuppressWarnings("unchecked")
+	public void putAll(@NonNull LongObjectMap<? extends V> other){
+		for(int i = 0; i < other.values.length; i++){
+			if(other.values[i] != null) put(other.keys[i], (V)other.values[i]);
+		}
+	}
+
+	/**
+	 * @param key The key
+	 * @return The value that was mapped to {@code key}, {@code null} if there was none
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public V remove(long key){
+		int slot = slot(key);
+		V previous = (V)values[slot];
+		if(previous != null) delete(slot);
+		return previous;
+	}
+
+	/**
+	 * Empties the slot and moves later entries of the same probe sequence back, so no lookup stops at the gap.
+	 */
+	private void delete(int slot){
+		values[slot] = null;
+		size--;
+		int gap = slot;
+		for(int next = (slot + 1) & mask; values[next] != null; next = (next + 1) & mask){
+			int home = hash(keys[next]) & mask;
+			if(((next - home) & mask) >= ((next - gap) & mask)){
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				values[next] = null;
+				gap = next;
+			}
+		}
+	}
+
+	private void resize(int capacity){
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		for(int i = 0; i < oldValues.length; i++){
+			if(oldValues[i] == null) continue;
+			int slot = slot(oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * @param action Called for every mapping in no particular order
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(@NonNull EntryConsumer<? super V> action){
+		for(int i = 0; i < values.length; i++){
+			if(values[i] != null) action.accept(keys[i], (V)values[i]);
+		}
+	}
+
+	/**
+	 * @return A stream of all values in no particular order
+	 */
+	@NonNull
+	@SuppressWarnings("unchecked")
+	public Stream<V> values(){
+		return Arrays.stream(values).filter(Objects::nonNull).map(value -> (V)value);
+	}
+
+	/**
+	 * @return An independent map with the same mappings
+	 */
+	@NonNull
+	public LongObjectMap<V> copy(){
+		return new LongObjectMap<>(this);
+	}
+
+	@FunctionalInterface
+	public interface EntryConsumer<V> {
+		void accept(long key, V value);
+	}
+
+	@Override
+	public String toString(){
+		return "LongObjectMap{size=" + size + ", capacity=" + (mask + 1) + "}";
+	}
+
+}
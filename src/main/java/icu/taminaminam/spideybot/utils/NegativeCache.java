@@ -0,0 +1,97 @@
+package icu.taminaminam.spideybot.utils;
+
+import reactor.util.annotation.NonNull;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers for a limited time that there is nothing stored for an ID, so looking it up again does not need to ask
+ * the database until the entry expired or got removed.
+ */
+public class NegativeCache {
+
+	private final ConcurrentMap<Long, Long> expiries = new ConcurrentHashMap<>();
+	private final long ttlNanos;
+	private final LongAdder hits = new LongAdder();
+
+	/**
+	 * @param ttl The time an ID is remembered as missing
+	 */
+	public NegativeCache(@NonNull Duration ttl){
+		this.ttlNanos = ttl.toNanos();
+	}
+
+	/**
+	 * @param id The ID nothing is stored for
+	 * @return Whether the ID was not remembered yet or its entry already expired
+	 */
+	public boolean add(long id){
+		long now = System.nanoTime();
+		Long previous = expiries.put(id, now + ttlNanos);
+		return previous == null || previous - now <= 0;
+	}
+
+	/**
+	 * @param id The ID
+	 * @return Whether the ID is remembered as missing. Expired entries get removed.
+	 */
+	public boolean contains(long id){
+		Long expiry = expiries.get(id);
+		if(expiry == null) return false;
+		if(expiry - System.nanoTime() <= 0){
+			expiries.remove(id, expiry);
+			return false;
+		}
+		hits.increment();
+		return true;
+	}
+
+	/**
+	 * @param id The ID that got stored in the meantime
+	 */
+	public void remove(long id){
+		expiries.remove(id);
+	}
+
+	/**
+	 * Removes all expired entries, which otherwise only get removed once they are looked up again.
+	 *
+	 * @return The amount of removed entries
+	 */
+	public int removeExpired(){
+		long now = System.nanoTime();
+		int removed = 0;
+		for(Map.Entry<Long, Long> entry : expiries.entrySet()){
+			if(entry.getValue() - now <= 0 && expiries.remove(entry.getKey(), entry.getValue())) removed++;
+		}
+		return removed;
+	}
+
+	public void clear(){
+		expiries.clear();
+	}
+
+	/**
+	 * @return The amount of remembered IDs, including expired ones that did not get looked up or removed since
+	 */
+	public int size(){
+		return expiries.size();
+	}
+
+	/**
+	 * @return The amount of lookups answered without asking the database
+	 */
+	public long getHits(){
+		return hits.sum();
+	}
+
+	@Override
+	public String toString(){
+		return "NegativeCache{size=" + size() + ", hits=" + getHits() + "}";
+	}
+
+}
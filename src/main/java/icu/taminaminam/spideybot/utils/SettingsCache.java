@@ -0,0 +1,372 @@
+package icu.taminaminam.spideybot.utils;
+
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the prefix and language of guilds or users by ID.
+ * <p>
+ * Entries are stored in open addressing tables of primitive IDs, split into {@link #SEGMENTS} independently locked
+ * segments. Prefixes are interned, so the default prefix shared by most entries is stored once, and languages are
+ * stored as the ordinal of {@link #languages}. Every slot takes about 15 bytes including its share of the frequency
+ * sketch, the table sizes never change.
+ * <p>
+ * Once a segment is full a new entry is only admitted if it was looked up more often recently than the least
+ * frequently used of a few sampled entries, which it then replaces. Lookup frequencies are estimated with a
+ * count-min sketch that gets halved regularly, so entries that were popular a long time ago do not stay forever.
+ */
+public class SettingsCache {
+
+	static final int SEGMENTS = 16;
+	private static final int EVICTION_SAMPLES = 8;
+	private static final int MAX_FREQUENCY = 15;
+
+	/**
+	 * All languages ever cached, entries store their index. There are only a few, so looking them up is a scan.
+	 */
+	private static volatile String[] languages = new String[0];
+
+	private final String name;
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+
+	/**
+	 * @param name       The name shown in {@link #toString()}
+	 * @param maxEntries The maximum amount of cached entries
+	 */
+	public SettingsCache(@NonNull String name, int maxEntries){
+		this.name = name;
+		int perSegment = Math.max(EVICTION_SAMPLES, (maxEntries + SEGMENTS - 1) / SEGMENTS);
+		for(int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(perSegment);
+	}
+
+	private static long spread(long id){
+		long h = id * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+
+	@NonNull
+	private Segment segmentOf(long hash){
+		return segments[(int)(hash >>> 60) & (SEGMENTS - 1)];
+	}
+
+	private static byte languageOrdinal(@NonNull String language){
+		String[] known = languages;
+		for(int i = 0; i < known.length; i++) if(known[i].equals(language)) return (byte)i;
+		synchronized(SettingsCache.class){
+			known = languages;
+			for(int i = 0; i < known.length; i++) if(known[i].equals(language)) return (byte)i;
+			if(known.length == Byte.MAX_VALUE) throw new IllegalStateException("Too many languages");
+			String[] added = Arrays.copyOf(known, known.length + 1);
+			added[known.length] = language;
+			languages = added;
+			return (byte)known.length;
+		}
+	}
+
+	/**
+	 * @param id The ID of the guild or user
+	 * @return The cached prefix, {@code null} if it is not cached
+	 */
+	@Nullable
+	public String getPrefix(long id){
+		long hash = spread(id);
+		String prefix = segmentOf(hash).getPrefix(id, hash);
+		(prefix == null ? misses : hits).increment();
+		return prefix;
+	}
+
+	/**
+	 * @param id The ID of the guild or user
+	 * @return The cached language, {@code null} if it is not cached
+	 */
+	@Nullable
+	public String getLanguage(long id){
+		long hash = spread(id);
+		int ordinal = segmentOf(hash).getLanguage(id, hash);
+		if(ordinal < 0){
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return languages[ordinal];
+	}
+
+	/**
+	 * Does not count as lookup, so it neither changes the statistics nor the frequency of the entry.
+	 *
+	 * @param id The ID of the guild or user
+	 * @return Whether the settings are cached
+	 */
+	public boolean contains(long id){
+		long hash = spread(id);
+		return segmentOf(hash).contains(id, hash);
+	}
+
+	/**
+	 * Caches the settings, unless the cache is full and the entry was looked up less often than the ones it would
+	 * replace.
+	 *
+	 * @param id       The ID of the guild or user
+	 * @param prefix   The prefix
+	 * @param language The language
+	 */
+	public void put(long id, @NonNull String prefix, @NonNull String language){
+		long hash = spread(id);
+		segmentOf(hash).put(id, hash, prefix.intern(), languageOrdinal(language));
+	}
+
+	/**
+	 * Changes the prefix of an entry, nothing happens if it is not cached.
+	 *
+	 * @param id     The ID of the guild or user
+	 * @param prefix The new prefix
+	 */
+	public void updatePrefix(long id, @NonNull String prefix){
+		long hash = spread(id);
+		segmentOf(hash).update(id, hash, prefix.intern(), (byte)-1);
+	}
+
+	/**
+	 * Changes the language of an entry, nothing happens if it is not cached.
+	 *
+	 * @param id       The ID of the guild or user
+	 * @param language The new language
+	 */
+	public void updateLanguage(long id, @NonNull String language){
+		long hash = spread(id);
+		segmentOf(hash).update(id, hash, null, languageOrdinal(language));
+	}
+
+	/**
+	 * @param id The ID of the guild or user whose settings should get dropped
+	 */
+	public void remove(long id){
+		long hash = spread(id);
+		segmentOf(hash).remove(id, hash);
+	}
+
+	public void clear(){
+		for(Segment segment : segments) segment.clear();
+	}
+
+	/**
+	 * @return The amount of cached entries
+	 */
+	public int size(){
+		int size = 0;
+		for(Segment segment : segments) size += segment.size();
+		return size;
+	}
+
+	/**
+	 * @return The maximum amount of cached entries
+	 */
+	public int getMaxSize(){
+		return segments[0].maxEntries * SEGMENTS;
+	}
+
+	/**
+	 * @return The amount of lookups that found the entry
+	 */
+	public long getHits(){ return hits.sum(); }
+	/**
+	 * @return The amount of lookups that did not find the entry
+	 */
+	public long getMisses(){ return misses.sum(); }
+	/**
+	 * @return The amount of entries that got replaced by more frequently used ones
+	 */
+	public long getEvictions(){ return evictions.sum(); }
+	/**
+	 * @return The amount of entries that did not get cached because the cache was full of more frequently used ones
+	 */
+	public long getRejections(){ return rejections.sum(); }
+
+	/**
+	 * @return The share of lookups that found the entry, {@code 0} without lookups
+	 */
+	public double getHitRate(){
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0 : (double)hits / total;
+	}
+
+	@Override
+	public String toString(){
+		return "SettingsCache{name=" + name + ", size=" + size() + "/" + getMaxSize() + ", hits=" + getHits() + ", misses=" + getMisses() +
+				", hitRate=" + String.format("%.3f", getHitRate()) + ", evictions=" + getEvictions() + ", rejections=" + getRejections() + "}";
+	}
+
+	/**
+	 * A linear probing hash table with a fixed capacity and its own frequency sketch. Every method holds the lock of
+	 * the segment.
+	 */
+	private final class Segment {
+		private final long[] keys;
+		private final String[] prefixes;
+		private final byte[] languageOrdinals;
+		private final int mask;
+		private final int maxEntries;
+		private final byte[] sketch;
+		private final int sketchMask;
+		private final int resetAfter;
+		private int sketchAdditions = 0;
+		private int size = 0;
+		private int hand = 0;
+
+		private Segment(int maxEntries){
+			this.maxEntries = maxEntries;
+			int capacity = Integer.highestOneBit(maxEntries * 4 / 3 + 1) << 1;
+			this.keys = new long[capacity];
+			this.prefixes = new String[capacity];
+			this.languageOrdinals = new byte[capacity];
+			this.mask = capacity - 1;
+			this.sketch = new byte[capacity * 2];
+			this.sketchMask = sketch.length - 1;
+			this.resetAfter = maxEntries * 10;
+		}
+
+		/**
+		 * @return The slot containing {@code id}, or the empty slot it would get stored in
+		 */
+		private int slot(long id, long hash){
+			int slot = (int)hash & mask;
+			while(prefixes[slot] != null && keys[slot] != id) slot = (slot + 1) & mask;
+			return slot;
+		}
+
+		private int sketchIndex(long hash, int row){
+			return (int)(hash >>> (row * 16)) * (2 * row + 1) & sketchMask;
+		}
+
+		/**
+		 * Counts a lookup in all four rows of the sketch and halves every counter once enough got counted.
+		 */
+		private void recordAccess(long hash){
+			boolean added = false;
+			for(int row = 0; row < 4; row++){
+				int index = sketchIndex(hash, row);
+				if(sketch[index] < MAX_FREQUENCY){
+					sketch[index]++;
+					added = true;
+				}
+			}
+			if(added && ++sketchAdditions >= resetAfter){
+				for(int i = 0; i < sketch.length; i++) sketch[i] >>= 1;
+				sketchAdditions /= 2;
+			}
+		}
+
+		private int frequency(long hash){
+			int frequency = MAX_FREQUENCY;
+			for(int row = 0; row < 4; row++) frequency = Math.min(frequency, sketch[sketchIndex(hash, row)]);
+			return frequency;
+		}
+
+		@Nullable
+		synchronized String getPrefix(long id, long hash){
+			recordAccess(hash);
+			return prefixes[slot(id, hash)];
+		}
+
+		synchronized int getLanguage(long id, long hash){
+			recordAccess(hash);
+			int slot = slot(id, hash);
+			return prefixes[slot] == null ? -1 : languageOrdinals[slot];
+		}
+
+		synchronized boolean contains(long id, long hash){
+			return prefixes[slot(id, hash)] != null;
+		}
+
+		synchronized void put(long id, long hash, @NonNull String prefix, byte languageOrdinal){
+			int slot = slot(id, hash);
+			if(prefixes[slot] == null){
+				if(size >= maxEntries){
+					int victim = sampleVictim();
+					if(frequency(hash) <= frequency(spread(keys[victim]))){
+						rejections.increment();
+						return;
+					}
+					delete(victim);
+					evictions.increment();
+					slot = slot(id, hash);
+				}
+				size++;
+			}
+			keys[slot] = id;
+			prefixes[slot] = prefix;
+			languageOrdinals[slot] = languageOrdinal;
+		}
+
+		synchronized void update(long id, long hash, @Nullable String prefix, byte languageOrdinal){
+			int slot = slot(id, hash);
+			if(prefixes[slot] == null) return;
+			if(prefix != null) prefixes[slot] = prefix;
+			if(languageOrdinal >= 0) languageOrdinals[slot] = languageOrdinal;
+		}
+
+		synchronized void remove(long id, long hash){
+			int slot = slot(id, hash);
+			if(prefixes[slot] != null) delete(slot);
+		}
+
+		synchronized void clear(){
+			Arrays.fill(prefixes, null);
+			size = 0;
+		}
+
+		synchronized int size(){
+			return size;
+		}
+
+		/**
+		 * Looks at the next {@link #EVICTION_SAMPLES} entries after the last victim, so all entries get looked at
+		 * over time.
+		 *
+		 * @return The slot of the least frequently used sampled entry
+		 */
+		private int sampleVictim(){
+			int victim = -1;
+			int victimFrequency = Integer.MAX_VALUE;
+			for(int sampled = 0; sampled < EVICTION_SAMPLES; hand = (hand + 1) & mask){
+				if(prefixes[hand] == null) continue;
+				sampled++;
+				int frequency = frequency(spread(keys[hand]));
+				if(frequency < victimFrequency){
+					victim = hand;
+					victimFrequency = frequency;
+				}
+			}
+			return victim;
+		}
+
+		/**
+		 * Empties the slot and moves later entries of the same probe sequence back, so no lookup stops at the gap.
+		 */
+		private void delete(int slot){
+			prefixes[slot] = null;
+			size--;
+			int gap = slot;
+			for(int next = (slot + 1) & mask; prefixes[next] != null; next = (next + 1) & mask){
+				int home = (int)spread(keys[next]) & mask;
+				// the entry may fill the gap if its home slot is not between the gap and its current slot
+				if(((next - home) & mask) >= ((next - gap) & mask)){
+					keys[gap] = keys[next];
+					prefixes[gap] = prefixes[next];
+					languageOrdinals[gap] = languageOrdinals[next];
+					prefixes[next] = null;
+					gap = next;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package icu.taminaminam.spideybot.utils;
+
+import reactor.core.publisher.Mono;
+import reactor.util.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Makes sure only one load per key is running at a time. Everyone asking for a key while it is being loaded gets the
+ * result of the running load instead of starting another one.
+ * <p>
+ * Results are only shared while the load is running. As soon as it completed or failed the key gets removed, so the
+ * next caller starts a new load. Caching the result is up to the loader.
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the loaded values
+ */
+public class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder shared = new LongAdder();
+
+	/**
+	 * @param key    The key to load
+	 * @param loader Creates the {@link Mono} loading the value of a key, only called if there is no running load
+	 * @return A {@link Mono} emitting the result of the running load for {@code key}
+	 */
+	@NonNull
+	public Mono<V> load(@NonNull K key, @NonNull Function<K, Mono<V>> loader){
+		return Mono.defer(() -> {
+			AtomicReference<Mono<V>> created = new AtomicReference<>();
+			Mono<V> mono = inFlight.computeIfAbsent(key, k -> {
+				Mono<V> load = loader.apply(k)
+						.doFinally(signal -> inFlight.remove(k, created.get()))
+						// keeps loading even if the subscriber that started it cancels, others might still wait for it
+						.cache();
+				created.set(load);
+				return load;
+			});
+			if(mono == created.get()) loads.increment();
+			else shared.increment();
+			return mono;
+		});
+	}
+
+	/**
+	 * @return The amount of loads that got started
+	 */
+	public long getLoads(){
+		return loads.sum();
+	}
+
+	/**
+	 * @return The amount of calls that got the result of an already running load
+	 */
+	public long getShared(){
+		return shared.sum();
+	}
+
+	/**
+	 * @return The amount of loads currently running
+	 */
+	public int getInFlight(){
+		return inFlight.size();
+	}
+
+	@Override
+	public String toString(){
+		return "SingleFlight{loads=" + getLoads() + ", shared=" + getShared() + ", inFlight=" + getInFlight() + "}";
+	}
+
+}
@@ -0,0 +1,401 @@
+package icu.taminaminam.spideybot.utils.journal;
+
+import icu.taminaminam.spideybot.main.Credentials;
+import icu.taminaminam.spideybot.utils.exceptions.*;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.annotation.NonNull;
+import reactor.util.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An append-only journal of all command executions on the local disk.
+ * <p>
+ * Every execution is stored as a record of {@link #RECORD_SIZE} bytes in a memory-mapped segment file, so writing
+ * one is a copy into memory and the operating system takes care of getting it to the disk. The next segment gets
+ * created ahead of time on {@link Schedulers#boundedElastic()}, so once a segment is full switching to the next one
+ * does not touch the disk. The oldest segments get deleted there too, keeping at most
+ * {@link Credentials#COMMAND_JOURNAL_MAX_SEGMENTS} besides the prepared one. Command names are stored once in
+ * {@link #NAMES_FILE}, also written in the background, and records only contain their ID. IDs get assigned in the
+ * order commands are first used and never change once they are stored. The segments can be read
+ * with {@link JournalReader}.
+ * <p>
+ * A segment starts with a header of {@link #HEADER_SIZE} bytes: the magic number {@link #MAGIC}, the format
+ * {@link #VERSION}, the record size and the creation time in epoch milliseconds. A record contains, in this order:
+ * <ul>
+ *     <li>{@code long} timestamp in epoch milliseconds, {@code 0} marks the end of the segment</li>
+ *     <li>{@code long} guild ID, {@code 0} in DMs</li>
+ *     <li>{@code long} channel ID</li>
+ *     <li>{@code long} user ID</li>
+ *     <li>{@code int} command ID, see {@link #commandId(String)}</li>
+ *     <li>{@code short} {@link Outcome#getCode() outcome code}</li>
+ *     <li>{@code short} reserved</li>
+ *     <li>{@code long} duration in nanoseconds</li>
+ * </ul>
+ * All values are big endian.
+ */
+public class CommandJournal implements Closeable {
+
+	private static final Logger logger = LogManager.getLogger("CommandJournal");
+
+	static final int MAGIC = 0x53504a4c;
+	static final short VERSION = 1;
+	static final int HEADER_SIZE = 16;
+	static final int RECORD_SIZE = 48;
+	static final String SEGMENT_PREFIX = "commands-";
+	static final String SEGMENT_SUFFIX = ".seg";
+	static final String NAMES_FILE = "commands.tsv";
+
+	/**
+	 * What came out of executing a command
+	 */
+	public enum Outcome {
+		SUCCESS(0),
+		MISSING_PERMISSIONS(1),
+		INVALID_ARGUMENT(2),
+		RATELIMITED(3),
+		NOT_EXECUTABLE(4),
+		BOT_MISSING_PERMISSIONS(5),
+		ERROR(6),
+		CANCELLED(7)
+		;
+		private final short code;
+		Outcome(int code){
+			this.code = (short)code;
+		}
+		public short getCode(){ return code; }
+
+		/**
+		 * @param err The error the execution failed with
+		 * @return The outcome matching the error
+		 */
+		@NonNull
+		public static Outcome of(@NonNull Throwable err){
+			if(err instanceof MissingPermissionsException) return MISSING_PERMISSIONS;
+			if(err instanceof InvalidArgumentException) return INVALID_ARGUMENT;
+			if(err instanceof RatelimitedException) return RATELIMITED;
+			if(err instanceof NotExecutableException) return NOT_EXECUTABLE;
+			if(err instanceof BotMissingPermissionsException) return BOT_MISSING_PERMISSIONS;
+			return ERROR;
+		}
+
+		/**
+		 * @param code The code stored in a record
+		 * @return The outcome with the code, {@code null} if unknown
+		 */
+		@Nullable
+		public static Outcome ofCode(short code){
+			for(Outcome outcome : values()) if(outcome.code == code) return outcome;
+			return null;
+		}
+	}
+
+	/**
+	 * Only loads {@link Credentials} once the journal is needed, so {@link JournalReader} works without them.
+	 */
+	private static class Holder {
+		@Nullable private static final CommandJournal instance = Credentials.COMMAND_JOURNAL_ENABLED
+				? new CommandJournal(Paths.get(Credentials.COMMAND_JOURNAL_DIR), Credentials.COMMAND_JOURNAL_SEGMENT_SIZE, Credentials.COMMAND_JOURNAL_MAX_SEGMENTS)
+				: null;
+	}
+
+	/**
+	 * @return The journal configured in {@link Credentials}, {@code null} if it is disabled
+	 */
+	@Nullable
+	public static CommandJournal getInstance(){
+		return Holder.instance;
+	}
+
+	private final Path directory;
+	private final int segmentSize;
+	private final int maxSegments;
+	/**
+	 * The IDs of all commands by their lower case name
+	 */
+	private final ConcurrentMap<String, Integer> commandIds = new ConcurrentHashMap<>();
+	/**
+	 * All IDs stored in {@link #NAMES_FILE} or handed out since, guarded by {@link #commandIds}
+	 */
+	private final Set<Integer> usedIds = new HashSet<>();
+	private int nextCommandId = 1;
+	private final Object namesFileLock = new Object();
+	@Nullable private MappedByteBuffer segment = null;
+	/**
+	 * The index of {@link #segment}
+	 */
+	private long activeIndex = 0;
+	/**
+	 * The segment to continue with once {@link #segment} is full
+	 */
+	@Nullable private MappedByteBuffer next = null;
+	private long nextIndex = 0;
+	private boolean preparing = false;
+	/**
+	 * The highest index handed out to a segment file
+	 */
+	private long segmentIndex;
+	private boolean failed = false;
+
+	/**
+	 * @param directory   The directory the segments get stored in
+	 * @param segmentSize The size of a segment file in bytes
+	 * @param maxSegments The amount of segments to keep
+	 */
+	public CommandJournal(@NonNull Path directory, int segmentSize, int maxSegments){
+		this.directory = directory;
+		this.segmentSize = Math.max(HEADER_SIZE + RECORD_SIZE, segmentSize);
+		this.maxSegments = Math.max(1, maxSegments);
+		try {
+			Files.createDirectories(directory);
+			segmentIndex = listSegments(directory).stream()
+					.mapToLong(CommandJournal::segmentIndexOf)
+					.max().orElse(0);
+			readNames(directory).forEach((id, name) -> {
+				commandIds.put(name, id);
+				usedIds.add(id);
+			});
+		} catch (IOException ex){
+			logger.error("Could not open command journal in {}, disabling it", directory, ex);
+			failed = true;
+		}
+		synchronized(this){
+			prepareNext();
+		}
+	}
+
+	/**
+	 * Looks up the ID of a command, assigning the next free one and storing it in {@link #NAMES_FILE} in the
+	 * background if the command was not used before.
+	 *
+	 * @param name The name of a command
+	 * @return The ID the command gets stored with
+	 */
+	public int commandId(@NonNull String name){
+		String key = name.toLowerCase(Locale.ROOT);
+		Integer id = commandIds.get(key);
+		if(id != null) return id;
+		int newId;
+		synchronized(commandIds){
+			id = commandIds.get(key);
+			if(id != null) return id;
+			// journals written before IDs were assigned in order used hash codes, those stay taken
+			while(usedIds.contains(nextCommandId)) nextCommandId++;
+			newId = nextCommandId++;
+			usedIds.add(newId);
+			commandIds.put(key, newId);
+		}
+		Schedulers.boundedElastic().schedule(() -> writeName(newId, key));
+		return newId;
+	}
+
+	/**
+	 * Appends a record. Never throws, if the journal cannot be written it gets disabled.
+	 *
+	 * @param guildId       The ID of the guild, {@code 0} in DMs
+	 * @param channelId     The ID of the channel
+	 * @param userId        The ID of the user executing the command
+	 * @param commandName   The name of the command
+	 * @param outcome       What came out of the execution
+	 * @param durationNanos The time the execution took
+	 */
+	public void append(long guildId, long channelId, long userId, @NonNull String commandName, @NonNull Outcome outcome, long durationNanos){
+		int commandId = commandId(commandName);
+		synchronized(this){
+			if(failed) return;
+			if(segment == null || segment.remaining() < RECORD_SIZE){
+				if(!rotate()) return;
+			}
+			int position = segment.position();
+			// the timestamp gets written last, so a partially written record is never mistaken as a complete one
+			segment.putLong(position + 8, guildId);
+			segment.putLong(position + 16, channelId);
+			segment.putLong(position + 24, userId);
+			segment.putInt(position + 32, commandId);
+			segment.putShort(position + 36, outcome.getCode());
+			segment.putShort(position + 38, (short)0);
+			segment.putLong(position + 40, durationNanos);
+			segment.putLong(position, System.currentTimeMillis());
+			segment.position(position + RECORD_SIZE);
+		}
+	}
+
+	/**
+	 * Continues with the prepared segment. Only if it is not ready yet the next segment gets created right away.
+	 *
+	 * @return Whether there is a segment to write to
+	 */
+	private boolean rotate(){
+		MappedByteBuffer buffer = next;
+		long index = nextIndex;
+		next = null;
+		if(buffer == null){
+			index = ++segmentIndex;
+			try {
+				buffer = createSegment(directory.resolve(segmentName(index)), segmentSize);
+			} catch (IOException ex){
+				logger.error("Could not create command journal segment in {}, disabling it", directory, ex);
+				segment = null;
+				failed = true;
+				return false;
+			}
+		}
+		buffer.putLong(8, System.currentTimeMillis());
+		segment = buffer;
+		activeIndex = index;
+		prepareNext();
+		return true;
+	}
+
+	/**
+	 * Creates the segment after the current one and deletes the oldest ones on {@link Schedulers#boundedElastic()}.
+	 * Must be called while holding the lock of the journal.
+	 */
+	private void prepareNext(){
+		if(preparing || failed || next != null) return;
+		preparing = true;
+		long index = ++segmentIndex;
+		Path file = directory.resolve(segmentName(index));
+		Schedulers.boundedElastic().schedule(() -> {
+			MappedByteBuffer buffer = null;
+			try {
+				buffer = createSegment(file, segmentSize);
+				List<Path> segments = listSegments(directory);
+				for(int i = 0; i < segments.size() - maxSegments - 1; i++) Files.deleteIfExists(segments.get(i));
+			} catch (IOException ex){
+				logger.warn("Could not prepare command journal segment {}", file, ex);
+			}
+			boolean outdated;
+			synchronized(this){
+				preparing = false;
+				// a segment created while this one was prepared took its place, continuing with this one would break the order
+				outdated = buffer != null && index < activeIndex;
+				if(buffer != null && !outdated && !failed){
+					next = buffer;
+					nextIndex = index;
+				}
+				if(outdated) prepareNext();
+			}
+			if(outdated){
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException ex){
+					logger.warn("Could not delete unused command journal segment {}", file, ex);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Creates and maps a segment and writes its header.
+	 *
+	 * @param file        The segment file, it must not exist yet
+	 * @param segmentSize The size of the segment in bytes
+	 * @return The mapped segment, positioned after the header
+	 */
+	@NonNull
+	private static MappedByteBuffer createSegment(@NonNull Path file, int segmentSize) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+			// the mapping stays valid after closing the channel
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+			buffer.putInt(MAGIC);
+			buffer.putShort(VERSION);
+			buffer.putShort((short)RECORD_SIZE);
+			buffer.putLong(System.currentTimeMillis());
+			// a segment always ends with a full record, so a reader never reads over its end
+			buffer.limit(HEADER_SIZE + (segmentSize - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE);
+			return buffer;
+		}
+	}
+
+	private void writeName(int commandId, @NonNull String commandName){
+		synchronized(namesFileLock){
+			try(Writer writer = Files.newBufferedWriter(directory.resolve(NAMES_FILE), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)){
+				writer.write(commandId + "\t" + commandName + "\n");
+			} catch (IOException ex){
+				logger.warn("Could not store the name of command {} in the command journal", commandName, ex);
+			}
+		}
+	}
+
+	/**
+	 * Writes all records to the disk.
+	 */
+	@Override
+	public synchronized void close(){
+		if(segment != null) segment.force();
+		segment = null;
+		failed = true;
+	}
+
+	@NonNull
+	static String segmentName(long index){
+		return SEGMENT_PREFIX + String.format("%012d", index) + SEGMENT_SUFFIX;
+	}
+
+	private static long segmentIndexOf(@NonNull Path segment){
+		String name = segment.getFileName().toString();
+		try {
+			return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException ex){
+			return 0;
+		}
+	}
+
+	/**
+	 * @param directory The directory of the journal
+	 * @return All segment files, oldest first
+	 */
+	@NonNull
+	static List<Path> listSegments(@NonNull Path directory) throws IOException {
+		try(Stream<Path> files = Files.list(directory)){
+			return files.filter(file -> {
+						String name = file.getFileName().toString();
+						return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+					})
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * @param directory The directory of the journal
+	 * @return The names of all commands by their ID
+	 */
+	@NonNull
+	static Map<Integer, String> readNames(@NonNull Path directory) throws IOException {
+		Path file = directory.resolve(NAMES_FILE);
+		Map<Integer, String> names = new HashMap<>();
+		if(!Files.exists(file)) return names;
+		for(String line : Files.readAllLines(file, StandardCharsets.UTF_8)){
+			int tab = line.indexOf('\t');
+			if(tab < 0) continue;
+			try {
+				names.put(Integer.parseInt(line.substring(0, tab)), line.substring(tab + 1));
+			} catch (NumberFormatException ignored){}
+		}
+		return names;
+	}
+
+}
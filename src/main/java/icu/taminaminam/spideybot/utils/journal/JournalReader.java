@@ -0,0 +1,151 @@
+package icu.taminaminam.spideybot.utils.journal;
+
+import icu.taminaminam.spideybot.utils.metrics.LatencyHistogram;
+import reactor.util.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Reads the segments written by {@link CommandJournal}, e.g. to aggregate them offline.
+ * <p>
+ * Usage: {@code JournalReader <directory> [summary|csv]}. {@code summary} prints the amount of executions, the
+ * outcomes and the latency of every command, {@code csv} prints all records as CSV.
+ */
+public class JournalReader {
+
+	/**
+	 * A single command execution
+	 */
+	public static class Record {
+		private final long timestamp;
+		private final long guildId;
+		private final long channelId;
+		private final long userId;
+		private final int commandId;
+		private final short outcome;
+		private final long durationNanos;
+		private Record(@NonNull ByteBuffer buffer, int position){
+			this.timestamp = buffer.getLong(position);
+			this.guildId = buffer.getLong(position + 8);
+			this.channelId = buffer.getLong(position + 16);
+			this.userId = buffer.getLong(position + 24);
+			this.commandId = buffer.getInt(position + 32);
+			this.outcome = buffer.getShort(position + 36);
+			this.durationNanos = buffer.getLong(position + 40);
+		}
+		public long getTimestamp(){ return timestamp; }
+		public long getGuildId(){ return guildId; }
+		public long getChannelId(){ return channelId; }
+		public long getUserId(){ return userId; }
+		public int getCommandId(){ return commandId; }
+		public short getOutcome(){ return outcome; }
+		public long getDurationNanos(){ return durationNanos; }
+	}
+
+	private final Path directory;
+	private final Map<Integer, String> names;
+
+	/**
+	 * @param directory The directory of the journal
+	 * @throws IOException If the command names could not be read
+	 */
+	public JournalReader(@NonNull Path directory) throws IOException {
+		this.directory = directory;
+		this.names = CommandJournal.readNames(directory);
+	}
+
+	/**
+	 * @param commandId The ID of a command
+	 * @return The name of the command, or the ID if the name is unknown
+	 */
+	@NonNull
+	public String getCommandName(int commandId){
+		return names.getOrDefault(commandId, Integer.toString(commandId));
+	}
+
+	/**
+	 * Reads all records of all segments, oldest first.
+	 *
+	 * @param consumer Gets called for every record
+	 * @throws IOException If a segment could not be read or is not a journal segment
+	 */
+	public void forEach(@NonNull Consumer<Record> consumer) throws IOException {
+		for(Path segment : CommandJournal.listSegments(directory)){
+			try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)){
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if(buffer.remaining() < CommandJournal.HEADER_SIZE || buffer.getInt(0) != CommandJournal.MAGIC)
+					throw new IOException(segment + " is not a command journal segment");
+				if(buffer.getShort(4) != CommandJournal.VERSION)
+					throw new IOException(segment + " has unsupported version " + buffer.getShort(4));
+				int recordSize = buffer.getShort(6);
+				for(int position = CommandJournal.HEADER_SIZE; position + recordSize <= buffer.limit(); position += recordSize){
+					// the rest of the segment never got written
+					if(buffer.getLong(position) == 0) break;
+					consumer.accept(new Record(buffer, position));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Prints the amount of executions, the outcomes and the latency of every command.
+	 *
+	 * @param out The stream to print to
+	 * @throws IOException If the journal could not be read
+	 */
+	public void printSummary(@NonNull PrintStream out) throws IOException {
+		Map<String, LatencyHistogram> latencies = new TreeMap<>();
+		Map<String, Map<CommandJournal.Outcome, Long>> outcomes = new TreeMap<>();
+		forEach(record -> {
+			String name = getCommandName(record.getCommandId());
+			latencies.computeIfAbsent(name, n -> new LatencyHistogram()).record(record.getDurationNanos());
+			CommandJournal.Outcome outcome = CommandJournal.Outcome.ofCode(record.getOutcome());
+			if(outcome != null) outcomes.computeIfAbsent(name, n -> new EnumMap<>(CommandJournal.Outcome.class)).merge(outcome, 1L, Long::sum);
+		});
+		latencies.forEach((name, latency) -> out.println(name + ": " + latency + ", outcomes " + outcomes.getOrDefault(name, Map.of())));
+	}
+
+	/**
+	 * Prints all records as CSV with a header line.
+	 *
+	 * @param out The stream to print to
+	 * @throws IOException If the journal could not be read
+	 */
+	public void printCsv(@NonNull PrintStream out) throws IOException {
+		out.println("timestamp,guildId,channelId,userId,command,outcome,durationNanos");
+		forEach(record -> {
+			CommandJournal.Outcome outcome = CommandJournal.Outcome.ofCode(record.getOutcome());
+			out.println(Instant.ofEpochMilli(record.getTimestamp()) + "," + Long.toUnsignedString(record.getGuildId()) + ","
+					+ Long.toUnsignedString(record.getChannelId()) + "," + Long.toUnsignedString(record.getUserId()) + ","
+					+ getCommandName(record.getCommandId()) + "," + (outcome == null ? record.getOutcome() : outcome.name()) + ","
+					+ record.getDurationNanos());
+		});
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1){
+			System.err.println("Usage: JournalReader <directory> [summary|csv]");
+			System.exit(1);
+		}
+		JournalReader reader = new JournalReader(Paths.get(args[0]));
+		String mode = args.length > 1 ? args[1] : "summary";
+		if(mode.equals("csv")) reader.printCsv(System.out);
+		else if(mode.equals("summary")) reader.printSummary(System.out);
+		else {
+			System.err.println("Unknown mode " + mode + ", use summary or csv");
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package icu.taminaminam.spideybot.utils.metrics;
+
+import reactor.util.annotation.NonNull;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram for latencies. Values are sorted into buckets whose upper bounds are powers of two
+ * microseconds, so percentiles are accurate to a factor of two, which is enough to spot saturation.
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * @param nanos The measured latency in nanoseconds
+	 */
+	public void record(long nanos){
+		if(nanos < 0) nanos = 0;
+		long micros = nanos / 1000;
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		maxNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	/**
+	 * @param duration The measured latency
+	 */
+	public void record(@NonNull Duration duration){
+		record(duration.toNanos());
+	}
+
+	public long getCount(){ return count.get(); }
+	@NonNull public Duration getMax(){ return Duration.ofNanos(maxNanos.get()); }
+	@NonNull public Duration getMean(){
+		long c = count.get();
+		return c == 0 ? Duration.ZERO : Duration.ofNanos(totalNanos.get() / c);
+	}
+
+	/**
+	 * @param percentile The percentile between {@code 0} and {@code 100}
+	 * @return The upper bound of the bucket the percentile falls into, or {@link Duration#ZERO} if nothing got recorded
+	 */
+	@NonNull
+	public Duration getPercentile(double percentile){
+		long c = count.get();
+		if(c == 0) return Duration.ZERO;
+		long threshold = (long)Math.ceil(c * Math.min(100, Math.max(0, percentile)) / 100);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			seen += buckets.get(i);
+			if(seen >= threshold) return Duration.ofNanos(Math.min(maxNanos.get(), (1L << i) * 1000));
+		}
+		return getMax();
+	}
+
+	@Override
+	public String toString(){
+		return "count=" + getCount() + ", mean=" + getMean().toMillis() + "ms, p50=" + getPercentile(50).toMillis()
+				+ "ms, p99=" + getPercentile(99).toMillis() + "ms, max=" + getMax().toMillis() + "ms";
+	}
+
+}
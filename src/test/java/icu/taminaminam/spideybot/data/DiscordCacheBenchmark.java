@@ -0,0 +1,117 @@
+package icu.taminaminam.spideybot.data;
+
+import discord4j.common.util.Snowflake;
+import icu.taminaminam.spideybot.utils.LongObjectMap;
+import icu.taminaminam.spideybot.utils.LongSet;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Measures how much heap a cached member takes in {@link DiscordCache}, compared to the layouts it used before: a
+ * {@link HashMap} from boxed IDs to members holding their ID and a {@link HashSet} of {@link Snowflake} role IDs, and
+ * a primitive table with a {@link LongSet} of role IDs per member.
+ * <p>
+ * Usage: {@code DiscordCacheBenchmark [members] [roles per member] [roles per guild] [distinct role sets]}, defaults
+ * to {@code 200000 3 50 20}. Every member gets one of the distinct role sets, like in a big guild where most members
+ * have one of a few role combinations.
+ * Run it with a fixed heap size, e.g. {@code -Xms2g -Xmx2g}, so the numbers are not disturbed by the heap growing.
+ * It lives with the test sources, so neither it nor {@link LongSet} end up in the bot jar; after
+ * {@code mvn test-compile} run it with {@code target/classes}, {@code target/test-classes} and the dependencies on
+ * the class path.
+ */
+public class DiscordCacheBenchmark {
+
+	private static final long GUILD_ID = 81384788765712384L;
+
+	public static void main(String[] args){
+		int members = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		int rolesPerMember = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int guildRoles = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+		int distinctSets = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+		long[] roleIds = new long[guildRoles];
+		for(int i = 0; i < guildRoles; i++) roleIds[i] = GUILD_ID + 1 + i;
+		Random random = new Random(42);
+		long[][] sets = new long[distinctSets][];
+		for(int i = 0; i < distinctSets; i++){
+			sets[i] = random.longs(rolesPerMember, 0, guildRoles).map(index -> roleIds[(int)index]).distinct().sorted().toArray();
+		}
+		// like Member#getRoleIds every member gets its own copy of the role IDs
+		long[][] memberRoles = new long[members][];
+		for(int i = 0; i < members; i++) memberRoles[i] = sets[random.nextInt(distinctSets)].clone();
+		System.out.println("Members: " + members + ", roles per member: " + rolesPerMember + ", roles per guild: " + guildRoles + ", distinct role sets: " + distinctSets);
+		report("boxed", members, measure(() -> boxed(memberRoles)));
+		report("long set", members, measure(() -> longSets(memberRoles)));
+		report("shared", members, measure(() -> shared(memberRoles)));
+	}
+
+	/**
+	 * The layout before the cache used primitive tables
+	 */
+	private static final class BoxedMember {
+		private final Snowflake id;
+		private final Set<Snowflake> roleIds;
+		private BoxedMember(Snowflake id, Set<Snowflake> roleIds){
+			this.id = id;
+			this.roleIds = roleIds;
+		}
+	}
+
+	private static Object boxed(long[][] memberRoles){
+		Map<Long, BoxedMember> members = new HashMap<>();
+		for(int i = 0; i < memberRoles.length; i++){
+			long memberId = GUILD_ID + 1_000_000 + i;
+			Set<Snowflake> roleIds = new HashSet<>();
+			for(long roleId : memberRoles[i]) roleIds.add(Snowflake.of(roleId));
+			members.put(memberId, new BoxedMember(Snowflake.of(memberId), Collections.unmodifiableSet(roleIds)));
+		}
+		return members;
+	}
+
+	private static Object longSets(long[][] memberRoles){
+		LongObjectMap<LongSet> members = new LongObjectMap<>();
+		for(int i = 0; i < memberRoles.length; i++) members.put(GUILD_ID + 1_000_000 + i, LongSet.of(memberRoles[i]));
+		return members;
+	}
+
+	private static Object shared(long[][] memberRoles){
+		LongObjectMap<long[]> members = new LongObjectMap<>();
+		for(int i = 0; i < memberRoles.length; i++) members.put(GUILD_ID + 1_000_000 + i, memberRoles[i].clone());
+		return new DiscordCache.MinimalGuild(GUILD_ID, GUILD_ID).withMembers(members);
+	}
+
+	/**
+	 * @return The heap taken by the created object in bytes
+	 */
+	private static long measure(Supplier<Object> create){
+		long before = usedHeap();
+		Object created = create.get();
+		long after = usedHeap();
+		// keeps the object reachable until after the measurement
+		if(created.hashCode() == 0) System.out.print("");
+		return after - before;
+	}
+
+	private static long usedHeap(){
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 4; i++){
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException ex){
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static void report(String layout, int members, long bytes){
+		System.out.printf("%-9s %,12d bytes  %,8.1f bytes per member%n", layout, bytes, (double)bytes / members);
+	}
+
+}
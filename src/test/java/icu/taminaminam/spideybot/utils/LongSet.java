@@ -0,0 +1,157 @@
+package icu.taminaminam.spideybot.utils;
+
+import reactor.util.annotation.NonNull;
+
+import java.util.function.LongConsumer;
+
+/**
+ * A set of primitive {@code long}s in a linear probing table that is at most two thirds full, see
+ * {@link LongObjectMap}. Since {@code 0} marks an empty slot, whether the set contains {@code 0} is stored separately.
+ * <p>
+ * Not thread-safe. Shared sets should be treated as immutable and changed by changing a {@link #copy()} instead.
+ * <p>
+ * Only used by {@code DiscordCacheBenchmark} to compare with the layout the cache used before.
+ */
+public class LongSet {
+
+	private long[] keys;
+	private int mask;
+	private int size = 0;
+	private boolean containsZero = false;
+
+	public LongSet(){
+		this(0);
+	}
+
+	/**
+	 * @param expectedSize The amount of elements that fit without resizing
+	 */
+	public LongSet(int expectedSize){
+		int capacity = LongObjectMap.capacityFor(expectedSize);
+		this.keys = new long[capacity];
+		this.mask = capacity - 1;
+	}
+
+	private LongSet(@NonNull LongSet other){
+		this.keys = other.keys.clone();
+		this.mask = other.mask;
+		this.size = other.size;
+		this.containsZero = other.containsZero;
+	}
+
+	/**
+	 * @param elements The elements
+	 * @return A set sized for exactly these elements
+	 */
+	@NonNull
+	public static LongSet of(@NonNull long... elements){
+		LongSet set = new LongSet(elements.length);
+		for(long element : elements) set.add(element);
+		return set;
+	}
+
+	private int slot(long element){
+		int slot = LongObjectMap.hash(element) & mask;
+		while(keys[slot] != 0 && keys[slot] != element) slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	public boolean contains(long element){
+		if(element == 0) return containsZero;
+		return keys[slot(element)] != 0;
+	}
+
+	/**
+	 * @param element The element
+	 * @return Whether the element was not contained yet
+	 */
+	public boolean add(long element){
+		if(element == 0){
+			if(containsZero) return false;
+			containsZero = true;
+			size++;
+			return true;
+		}
+		int slot = slot(element);
+		if(keys[slot] != 0) return false;
+		keys[slot] = element;
+		if(++size > (mask + 1) * 2 / 3) resize((mask + 1) << 1);
+		return true;
+	}
+
+	/**
+	 * @param element The element
+	 * @return Whether the element was contained
+	 */
+	public boolean remove(long element){
+		if(element == 0){
+			if(!containsZero) return false;
+			containsZero = false;
+			size--;
+			return true;
+		}
+		int slot = slot(element);
+		if(keys[slot] == 0) return false;
+		keys[slot] = 0;
+		size--;
+		int gap = slot;
+		for(int next = (slot + 1) & mask; keys[next] != 0; next = (next + 1) & mask){
+			int home = LongObjectMap.hash(keys[next]) & mask;
+			if(((next - home) & mask) >= ((next - gap) & mask)){
+				keys[gap] = keys[next];
+				keys[next] = 0;
+				gap = next;
+			}
+		}
+		return true;
+	}
+
+	private void resize(int capacity){
+		long[] oldKeys = keys;
+		keys = new long[capacity];
+		mask = capacity - 1;
+		for(long key : oldKeys) if(key != 0) keys[slot(key)] = key;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * @param action Called for every element in no particular order
+	 */
+	public void forEach(@NonNull LongConsumer action){
+		if(containsZero) action.accept(0);
+		for(long key : keys) if(key != 0) action.accept(key);
+	}
+
+	/**
+	 * @return All elements in no particular order
+	 */
+	@NonNull
+	public long[] toArray(){
+		long[] elements = new long[size];
+		int i = 0;
+		if(containsZero) elements[i++] = 0;
+		for(long key : keys) if(key != 0) elements[i++] = key;
+		return elements;
+	}
+
+	/**
+	 * @return An independent set with the same elements
+	 */
+	@NonNull
+	public LongSet copy(){
+		return new LongSet(this);
+	}
+
+	@Override
+	public String toString(){
+		return "LongSet{size=" + size + ", capacity=" + (mask + 1) + "}";
+	}
+
+}